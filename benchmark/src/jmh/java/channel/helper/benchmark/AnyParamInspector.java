@@ -0,0 +1,15 @@
+package channel.helper.benchmark;
+
+import javax.lang.model.element.VariableElement;
+
+import channel.helper.ParamInspector;
+
+/**
+ * Accepts every param, used by {@link ProcessorBenchmark} to load an inspector for every interface.
+ */
+public class AnyParamInspector implements ParamInspector {
+    @Override
+    public boolean isIllegal(VariableElement param) {
+        return false;
+    }
+}
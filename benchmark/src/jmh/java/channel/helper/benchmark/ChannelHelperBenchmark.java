@@ -0,0 +1,74 @@
+package channel.helper.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import channel.helper.ChannelHelper;
+import channel.helper.Dispatcher;
+import channel.helper.Emitter;
+
+/**
+ * Compares the reflective emitter/dispatcher creation (what {@link ChannelHelper} did before the
+ * generated factories) with the cached factory lookup and the generated factory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ChannelHelperBenchmark {
+    private Duck mReceiver;
+    private Emitter mPipe;
+
+    @Setup
+    public void setup() {
+        mReceiver = new DuckReceiver();
+        mPipe = new Emitter() {
+            @Override
+            public void emit(Map<String, Object> data) {
+            }
+        };
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public Duck newEmitter_reflect() throws Exception {
+        Class<? extends Duck> emitter =
+                (Class<? extends Duck>) Class.forName(Duck.class.getName() + "__ChannelHelper$Emitter");
+        return emitter.getConstructor(Emitter.class).newInstance(mPipe);
+    }
+
+    @Benchmark
+    public Duck newEmitter_channelHelper() {
+        return ChannelHelper.newEmitter(Duck.class, mPipe);
+    }
+
+    @Benchmark
+    public Duck newEmitter_factory() {
+        return Duck__ChannelHelper.FACTORY.newEmitter(mPipe);
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public Dispatcher newDispatcher_reflect() throws Exception {
+        Class<? extends Dispatcher> dispatcher =
+                (Class<? extends Dispatcher>) Class.forName(Duck.class.getName() + "__ChannelHelper$Dispatcher");
+        return dispatcher.getConstructor(Duck.class).newInstance(mReceiver);
+    }
+
+    @Benchmark
+    public Dispatcher newDispatcher_channelHelper() {
+        return ChannelHelper.newDispatcher(Duck.class, mReceiver);
+    }
+
+    @Benchmark
+    public Dispatcher newDispatcher_factory() {
+        return Duck__ChannelHelper.FACTORY.newDispatcher(mReceiver);
+    }
+}
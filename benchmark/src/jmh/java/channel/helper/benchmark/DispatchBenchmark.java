@@ -0,0 +1,140 @@
+package channel.helper.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import channel.helper.ChannelHelper;
+import channel.helper.Dispatcher;
+import channel.helper.DispatcherUtil;
+import channel.helper.Emitter;
+import channel.helper.Envelope;
+import channel.helper.Invocation;
+import channel.helper.TypedEmitter;
+
+/**
+ * Dispatches the calls of the generated {@link Bar} dispatcher directly, and through
+ * {@link DispatcherUtil#merge(Dispatcher, Dispatcher...)} with {@code fanIn - 1} dispatchers of other
+ * channels in front of it (the worst case of the merged dispatcher).
+ * <p>
+ * The {@code emit*} benchmarks go through the generated emitter and a synchronous pipe, run them with
+ * {@code -prof gc} to see the allocation per call of the map and the typed path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DispatchBenchmark {
+    @Param({"1", "4", "16", "64"})
+    public int fanIn;
+
+    private BarReceiver mReceiver;
+    private Dispatcher mDirect;
+    private Dispatcher mMerged;
+
+    private Map<String, Object> mMap;
+    private Invocation mInvocation;
+
+    private Bar mMapEmitter;
+    private Bar mTypedEmitter;
+
+    @Setup
+    public void setup() {
+        mReceiver = new BarReceiver();
+        mDirect = ChannelHelper.newDispatcher(Bar.class, mReceiver);
+
+        Dispatcher[] others = new Dispatcher[fanIn - 1];
+        for (int i = 0; i < others.length; i++) {
+            others[i] = new StubDispatcher(StubDispatcher.channelId(i));
+        }
+
+        if (others.length == 0) {
+            mMerged = DispatcherUtil.merge(mDirect);
+        } else {
+            Dispatcher[] rest = new Dispatcher[others.length];
+            System.arraycopy(others, 1, rest, 0, others.length - 1);
+            rest[rest.length - 1] = mDirect;
+            mMerged = DispatcherUtil.merge(others[0], rest);
+        }
+
+        // the calls to dispatch, never recycled
+        ChannelHelper.newEmitter(Bar.class, new Emitter() {
+            @Override
+            public void emit(Map<String, Object> data) {
+                mMap = data;
+            }
+        }).intParam(1);
+
+        ChannelHelper.newEmitter(Bar.class, new TypedEmitter() {
+            @Override
+            public void emit(Invocation invocation) {
+                mInvocation = invocation;
+            }
+
+            @Override
+            public void emit(Map<String, Object> data) {
+            }
+        }).intParam(1);
+
+        mMapEmitter = ChannelHelper.newEmitter(Bar.class, new Emitter() {
+            @Override
+            public void emit(Map<String, Object> data) {
+                mMerged.dispatch(data);
+                Envelope.recycle(data);
+            }
+        });
+
+        mTypedEmitter = ChannelHelper.newEmitter(Bar.class, new TypedEmitter() {
+            @Override
+            public void emit(Invocation invocation) {
+                DispatcherUtil.dispatch(mMerged, invocation);
+                invocation.recycle();
+            }
+
+            @Override
+            public void emit(Map<String, Object> data) {
+                mMerged.dispatch(data);
+                Envelope.recycle(data);
+            }
+        });
+    }
+
+    @Benchmark
+    public boolean dispatchMap_direct() {
+        return mDirect.dispatch(mMap);
+    }
+
+    @Benchmark
+    public boolean dispatchMap_merged() {
+        return mMerged.dispatch(mMap);
+    }
+
+    @Benchmark
+    public boolean dispatchInvocation_direct() {
+        return DispatcherUtil.dispatch(mDirect, mInvocation);
+    }
+
+    @Benchmark
+    public boolean dispatchInvocation_merged() {
+        return DispatcherUtil.dispatch(mMerged, mInvocation);
+    }
+
+    @Benchmark
+    public long emitMap_manyParam() {
+        mMapEmitter.manyParam((byte) 1, (short) 2, 3, 4L, 5F, 6D, "7", TimeUnit.SECONDS, TimeUnit.SECONDS);
+        return mReceiver.sum;
+    }
+
+    @Benchmark
+    public long emitTyped_manyParam() {
+        mTypedEmitter.manyParam((byte) 1, (short) 2, 3, 4L, 5F, 6D, "7", TimeUnit.SECONDS, TimeUnit.SECONDS);
+        return mReceiver.sum;
+    }
+}
@@ -0,0 +1,74 @@
+package channel.helper.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import channel.helper.Dispatcher;
+import channel.helper.DispatcherRegistry;
+import channel.helper.DispatcherUtil;
+import channel.helper.Header;
+
+/**
+ * Compares {@link DispatcherUtil#merge(Dispatcher, Dispatcher...)} with {@link DispatcherRegistry}
+ * when routing messages of all channels round-robin.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DispatcherRegistryBenchmark {
+    @Param({"1", "10", "100", "1000"})
+    public int channelCount;
+
+    private Dispatcher mMerged;
+    private DispatcherRegistry mRegistry;
+    private Map<String, Object>[] mMessages;
+    private int mNext;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        StubDispatcher[] dispatchers = new StubDispatcher[channelCount];
+        mMessages = new Map[channelCount];
+        mRegistry = new DispatcherRegistry();
+
+        for (int i = 0; i < channelCount; i++) {
+            int channelId = StubDispatcher.channelId(i);
+
+            dispatchers[i] = new StubDispatcher(channelId);
+            mRegistry.register(channelId, dispatchers[i]);
+
+            Map<String, Object> message = new HashMap<>();
+            message.put(Header.KEY_HEADER, Header.pack(channelId, 1));
+            mMessages[i] = message;
+        }
+
+        mMerged = DispatcherUtil.merge(dispatchers[0], Arrays.copyOfRange(dispatchers, 1, channelCount, Dispatcher[].class));
+    }
+
+    private Map<String, Object> nextMessage() {
+        Map<String, Object> message = mMessages[mNext];
+        mNext = (mNext + 1) % mMessages.length;
+        return message;
+    }
+
+    @Benchmark
+    public boolean merge() {
+        return mMerged.dispatch(nextMessage());
+    }
+
+    @Benchmark
+    public boolean registry() {
+        return mRegistry.dispatch(nextMessage());
+    }
+}
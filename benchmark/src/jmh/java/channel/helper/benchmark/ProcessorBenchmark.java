@@ -0,0 +1,141 @@
+package channel.helper.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import channel.processor.ChannelProcessor;
+
+/**
+ * Compiles {@code count} {@code @Channel} interfaces with {@link ChannelProcessor}, what a clean build
+ * of an app with many channel interfaces pays. Every interface inherits a method from a super
+ * interface and uses a {@link channel.helper.ParamInspector}.
+ * <p>
+ * {@code proc = only} runs the processor without compiling the generated classes, {@code full}
+ * compiles everything.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ProcessorBenchmark {
+    @Param({"1000"})
+    public int count;
+
+    @Param({"only", "full"})
+    public String proc;
+
+    private JavaCompiler mCompiler;
+    private List<JavaFileObject> mSources;
+    private File mOutput;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        mCompiler = ToolProvider.getSystemJavaCompiler();
+        if (mCompiler == null) {
+            throw new IllegalStateException("a JDK is required");
+        }
+
+        mSources = new ArrayList<>(count + 1);
+        mSources.add(new Source("Base", "package bench;\n"
+                + "public interface Base {\n"
+                + "    void onBase(String value);\n"
+                + "}\n"));
+
+        for (int i = 0; i < count; i++) {
+            String name = "Channel" + i;
+            mSources.add(new Source(name, "package bench;\n"
+                    + "import channel.helper.Channel;\n"
+                    + "import channel.helper.UseOrdinal;\n"
+                    + "import java.util.concurrent.TimeUnit;\n"
+                    + "@Channel(inspector = \"" + AnyParamInspector.class.getName() + "\")\n"
+                    + "public interface " + name + " extends Base {\n"
+                    + "    void onInt(int value);\n"
+                    + "    void onLong(long value, double ratio);\n"
+                    + "    void onString(String value, boolean flag);\n"
+                    + "    void onUnit(@UseOrdinal TimeUnit unit);\n"
+                    + "    void onMany(byte b, short s, char c, float f, String text, TimeUnit unit);\n"
+                    + "}\n"));
+        }
+
+        mOutput = File.createTempFile("processor-benchmark", "");
+        if (!mOutput.delete() || !mOutput.mkdir()) {
+            throw new IllegalStateException("failed to create: " + mOutput);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        delete(mOutput);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public boolean compile() {
+        List<String> options = new ArrayList<>(Arrays.asList(
+                "-classpath", System.getProperty("java.class.path"),
+                "-d", mOutput.getPath(),
+                "-s", mOutput.getPath(),
+                "-nowarn"));
+
+        if ("only".equals(proc)) {
+            options.add("-proc:only");
+        }
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        JavaCompiler.CompilationTask task = mCompiler.getTask(null, null, diagnostics, options, null, mSources);
+        task.setProcessors(Collections.singletonList(new ChannelProcessor()));
+
+        if (!task.call()) {
+            throw new IllegalStateException(diagnostics.getDiagnostics().toString());
+        }
+
+        return true;
+    }
+
+    private static final class Source extends SimpleJavaFileObject {
+        private final String mCode;
+
+        Source(String name, String code) {
+            super(URI.create("string:///bench/" + name + Kind.SOURCE.extension), Kind.SOURCE);
+            mCode = code;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return mCode;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package channel.helper.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import channel.helper.ChannelHelper;
+import channel.helper.Dispatcher;
+import channel.helper.DispatcherUtil;
+import channel.helper.Envelope;
+import channel.helper.Invocation;
+import channel.helper.RingBufferPipe;
+import channel.helper.TypedEmitter;
+
+/**
+ * Compares {@link RingBufferPipe} with a {@link BlockingQueue} based pipe of the same capacity.
+ * Both are bounded, so the producer throughput is limited by the consumer, it is the end-to-end
+ * throughput. Run with {@code -t 1} and {@code -t 4} to compare the producer contention.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RingBufferPipeBenchmark {
+    private static final int CAPACITY = 1024;
+
+    @Param({"RING_BUSY_SPIN", "RING_YIELD", "RING_PARK", "BLOCKING_QUEUE"})
+    public String pipeType;
+
+    private DuckReceiver mReceiver;
+    private RingBufferPipe mRingBufferPipe;
+    private BlockingQueuePipe mBlockingQueuePipe;
+    private Duck mEmitter;
+
+    @Setup
+    public void setup() {
+        mReceiver = new DuckReceiver();
+        Dispatcher dispatcher = ChannelHelper.newDispatcher(Duck.class, mReceiver);
+
+        TypedEmitter pipe;
+        switch (pipeType) {
+            case "RING_BUSY_SPIN":
+                pipe = mRingBufferPipe = new RingBufferPipe(dispatcher, CAPACITY, RingBufferPipe.WaitStrategy.BUSY_SPIN);
+                mRingBufferPipe.start();
+                break;
+            case "RING_YIELD":
+                pipe = mRingBufferPipe = new RingBufferPipe(dispatcher, CAPACITY, RingBufferPipe.WaitStrategy.YIELD);
+                mRingBufferPipe.start();
+                break;
+            case "RING_PARK":
+                pipe = mRingBufferPipe = new RingBufferPipe(dispatcher, CAPACITY, RingBufferPipe.WaitStrategy.PARK);
+                mRingBufferPipe.start();
+                break;
+            default:
+                pipe = mBlockingQueuePipe = new BlockingQueuePipe(dispatcher, CAPACITY);
+                mBlockingQueuePipe.start();
+                break;
+        }
+
+        mEmitter = ChannelHelper.newEmitter(Duck.class, pipe);
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        if (mRingBufferPipe != null) {
+            mRingBufferPipe.shutdown();
+            mRingBufferPipe.awaitTermination(1000);
+        }
+
+        if (mBlockingQueuePipe != null) {
+            mBlockingQueuePipe.shutdown();
+        }
+    }
+
+    @Benchmark
+    public void emit() {
+        mEmitter.quack(1);
+    }
+
+    /**
+     * The usual way: an {@link ArrayBlockingQueue} and a consumer thread.
+     */
+    private static final class BlockingQueuePipe implements TypedEmitter, Runnable {
+        private final Dispatcher mDispatcher;
+        private final BlockingQueue<Object> mQueue;
+        private final Thread mConsumer;
+
+        BlockingQueuePipe(Dispatcher dispatcher, int capacity) {
+            mDispatcher = dispatcher;
+            mQueue = new ArrayBlockingQueue<>(capacity);
+            mConsumer = new Thread(this, "BlockingQueuePipe");
+            mConsumer.setDaemon(true);
+        }
+
+        void start() {
+            mConsumer.start();
+        }
+
+        void shutdown() {
+            mConsumer.interrupt();
+        }
+
+        @Override
+        public void emit(Map<String, Object> data) {
+            put(data);
+        }
+
+        @Override
+        public void emit(Invocation invocation) {
+            put(invocation);
+        }
+
+        private void put(Object message) {
+            try {
+                mQueue.put(message);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void run() {
+            try {
+                while (true) {
+                    Object message = mQueue.take();
+                    if (message instanceof Invocation) {
+                        Invocation invocation = (Invocation) message;
+                        DispatcherUtil.dispatch(mDispatcher, invocation);
+                        invocation.recycle();
+                    } else {
+                        Map<String, Object> data = (Map<String, Object>) message;
+                        mDispatcher.dispatch(data);
+                        Envelope.recycle(data);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // shutdown
+            }
+        }
+    }
+}
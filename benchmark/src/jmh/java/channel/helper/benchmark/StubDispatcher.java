@@ -0,0 +1,63 @@
+package channel.helper.benchmark;
+
+import java.util.Map;
+
+import channel.helper.ChannelCodec;
+import channel.helper.Header;
+import channel.helper.Invocation;
+import channel.helper.TypedDispatcher;
+
+/**
+ * The dispatcher of another channel, does what the generated dispatcher does before invoking the
+ * receiver.
+ */
+final class StubDispatcher implements TypedDispatcher {
+    private final int mChannelId;
+    private long mCount;
+
+    StubDispatcher(int channelId) {
+        mChannelId = channelId;
+    }
+
+    @Override
+    public boolean dispatch(Map<String, Object> data) {
+        if (Header.getChannelId(data) != mChannelId) {
+            return false;
+        }
+
+        mCount += Header.getMethodId(data);
+        return true;
+    }
+
+    @Override
+    public boolean match(Map<String, Object> data) {
+        return Header.getChannelId(data) == mChannelId;
+    }
+
+    @Override
+    public boolean dispatch(Invocation invocation) {
+        if (invocation.getChannelId() != mChannelId) {
+            return false;
+        }
+
+        mCount += invocation.getMethodId();
+        return true;
+    }
+
+    @Override
+    public boolean match(Invocation invocation) {
+        return invocation.getChannelId() == mChannelId;
+    }
+
+    @Override
+    public ChannelCodec getCodec(int channelId) {
+        return null;
+    }
+
+    /**
+     * Spreads the ids like the hash code based channel ids.
+     */
+    static int channelId(int index) {
+        return (index + 1) * 0x61C88647;
+    }
+}
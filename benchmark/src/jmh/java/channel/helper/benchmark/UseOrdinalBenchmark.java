@@ -0,0 +1,99 @@
+package channel.helper.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import channel.helper.BufferWire;
+import channel.helper.ChannelHelper;
+import channel.helper.Dispatcher;
+import channel.helper.Emitter;
+import channel.helper.Invocation;
+import channel.helper.TypedEmitter;
+import channel.helper.UseOrdinal;
+
+/**
+ * Decodes the same enum param sent by value and by {@link UseOrdinal}: from the map by the generated
+ * dispatcher, and from the wire by the generated codec.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UseOrdinalBenchmark {
+    private Dispatcher mDispatcher;
+
+    private Map<String, Object> mByValueMap;
+    private Map<String, Object> mByOrdinalMap;
+
+    private int mByValueMethodId;
+    private int mByOrdinalMethodId;
+    private byte[] mByValueWire;
+    private byte[] mByOrdinalWire;
+
+    @Setup
+    public void setup() {
+        mDispatcher = ChannelHelper.newDispatcher(Units.class, new UnitsReceiver());
+
+        Units mapEmitter = ChannelHelper.newEmitter(Units.class, new Emitter() {
+            @Override
+            public void emit(Map<String, Object> data) {
+                mByOrdinalMap = mByValueMap;
+                mByValueMap = data;
+            }
+        });
+        mapEmitter.byOrdinal(TimeUnit.SECONDS);
+        mapEmitter.byValue(TimeUnit.SECONDS);
+
+        Units typedEmitter = ChannelHelper.newEmitter(Units.class, new TypedEmitter() {
+            @Override
+            public void emit(Invocation invocation) {
+                BufferWire wire = new BufferWire();
+                invocation.writeTo(wire);
+
+                mByOrdinalMethodId = mByValueMethodId;
+                mByOrdinalWire = mByValueWire;
+                mByValueMethodId = invocation.getMethodId();
+                mByValueWire = wire.toByteArray();
+            }
+
+            @Override
+            public void emit(Map<String, Object> data) {
+            }
+        });
+        typedEmitter.byOrdinal(TimeUnit.SECONDS);
+        typedEmitter.byValue(TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public boolean dispatchMap_byValue() {
+        return mDispatcher.dispatch(mByValueMap);
+    }
+
+    @Benchmark
+    public boolean dispatchMap_byOrdinal() {
+        return mDispatcher.dispatch(mByOrdinalMap);
+    }
+
+    @Benchmark
+    public Invocation decode_byValue() {
+        return read(mByValueMethodId, mByValueWire);
+    }
+
+    @Benchmark
+    public Invocation decode_byOrdinal() {
+        return read(mByOrdinalMethodId, mByOrdinalWire);
+    }
+
+    private static Invocation read(int methodId, byte[] wire) {
+        Invocation invocation = Units__ChannelHelper.CODEC.read(methodId, new BufferWire(wire));
+        invocation.recycle();
+        return invocation;
+    }
+}
@@ -0,0 +1,33 @@
+package channel.helper.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import channel.helper.Channel;
+import channel.helper.UseOrdinal;
+
+/**
+ * A copy of the {@code channel.helper.test.Bar} fixture of the app module.
+ */
+@Channel
+public interface Bar extends Foo {
+    void noParam();
+
+    void byteParam(byte aByte);
+
+    void shortParam(short aShort);
+
+    void intParam(int aInt);
+
+    void longParam(long aLong);
+
+    void floatParam(float aFloat);
+
+    void doubleParam(double aDouble);
+
+    void stringParam(String aString);
+
+    void enumParam(TimeUnit aEnum1, @UseOrdinal TimeUnit aEnum2);
+
+    void manyParam(byte aByte, short aShort, int aInt, long aLong, float aFloat, double aDouble,
+                   String aString, TimeUnit aEnum1, @UseOrdinal TimeUnit aEnum2);
+}
@@ -0,0 +1,66 @@
+package channel.helper.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A receiver that only accumulates the arguments, so the calls can't be eliminated.
+ */
+public class BarReceiver implements Bar {
+    public long sum;
+
+    @Override
+    public void extendsTest(String value) {
+        sum += value.length();
+    }
+
+    @Override
+    public void noParam() {
+        sum++;
+    }
+
+    @Override
+    public void byteParam(byte aByte) {
+        sum += aByte;
+    }
+
+    @Override
+    public void shortParam(short aShort) {
+        sum += aShort;
+    }
+
+    @Override
+    public void intParam(int aInt) {
+        sum += aInt;
+    }
+
+    @Override
+    public void longParam(long aLong) {
+        sum += aLong;
+    }
+
+    @Override
+    public void floatParam(float aFloat) {
+        sum += (long) aFloat;
+    }
+
+    @Override
+    public void doubleParam(double aDouble) {
+        sum += (long) aDouble;
+    }
+
+    @Override
+    public void stringParam(String aString) {
+        sum += aString.length();
+    }
+
+    @Override
+    public void enumParam(TimeUnit aEnum1, TimeUnit aEnum2) {
+        sum += aEnum1.ordinal() + aEnum2.ordinal();
+    }
+
+    @Override
+    public void manyParam(byte aByte, short aShort, int aInt, long aLong, float aFloat, double aDouble,
+                          String aString, TimeUnit aEnum1, TimeUnit aEnum2) {
+        sum += aByte + aShort + aInt + aLong + aString.length() + aEnum1.ordinal() + aEnum2.ordinal();
+    }
+}
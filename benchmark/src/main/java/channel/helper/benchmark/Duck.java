@@ -0,0 +1,14 @@
+package channel.helper.benchmark;
+
+import channel.helper.Channel;
+
+@Channel
+public interface Duck {
+    void eat();
+
+    void quack(int voice);
+
+    void swing(int speed);
+
+    void fly(int high, int speed);
+}
@@ -0,0 +1,28 @@
+package channel.helper.benchmark;
+
+/**
+ * A receiver that only accumulates the arguments, so the calls can't be eliminated.
+ */
+public class DuckReceiver implements Duck {
+    public long sum;
+
+    @Override
+    public void eat() {
+        sum++;
+    }
+
+    @Override
+    public void quack(int voice) {
+        sum += voice;
+    }
+
+    @Override
+    public void swing(int speed) {
+        sum += speed;
+    }
+
+    @Override
+    public void fly(int high, int speed) {
+        sum += high + speed;
+    }
+}
@@ -0,0 +1,8 @@
+package channel.helper.benchmark;
+
+/**
+ * A copy of {@code channel.helper.test.Foo}.
+ */
+public interface Foo {
+    void extendsTest(String value);
+}
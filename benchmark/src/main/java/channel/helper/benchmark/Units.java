@@ -0,0 +1,16 @@
+package channel.helper.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import channel.helper.Channel;
+import channel.helper.UseOrdinal;
+
+/**
+ * The same enum param sent by value and by ordinal.
+ */
+@Channel
+public interface Units {
+    void byValue(TimeUnit unit);
+
+    void byOrdinal(@UseOrdinal TimeUnit unit);
+}
@@ -0,0 +1,17 @@
+package channel.helper.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+public class UnitsReceiver implements Units {
+    public long sum;
+
+    @Override
+    public void byValue(TimeUnit unit) {
+        sum += unit.ordinal();
+    }
+
+    @Override
+    public void byOrdinal(TimeUnit unit) {
+        sum += unit.ordinal();
+    }
+}
@@ -0,0 +1,14 @@
+package channel.helper;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Target;
+
+/**
+ * The call is sent as an asynchronous message, so it isn't blocked by the sync barriers of the
+ * Looper, for example during layout. Only works on Android 5.1 (API 22) and above.
+ * <p>
+ * It's a hint, the pipe that doesn't support it delivers the call as usual.
+ */
+@Target(ElementType.METHOD)
+public @interface Async {
+}
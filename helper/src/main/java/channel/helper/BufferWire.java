@@ -0,0 +1,361 @@
+package channel.helper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link WireWriter} and {@link WireReader} for the plain JVM. The arguments are written to a heap
+ * buffer, and every {@link LargePayload} is put in a memory-mapped temp file, only the size and the
+ * path are written. The reader maps the file read-only, without copying, and deletes the file. If the
+ * written data is dropped, call {@link #discardLargePayloads()} so the files are deleted too.
+ * <p>
+ * It is the stand-in of the shared memory transport of the pipe module, so the generated codecs
+ * can be tested off-device:
+ * <pre>
+ * BufferWire writer = new BufferWire();
+ * invocation.writeTo(writer);
+ *
+ * BufferWire reader = new BufferWire(writer.toByteArray());
+ * Invocation copy = codec.read(invocation.getMethodId(), reader);
+ * </pre>
+ * {@link #writeValue(Object)} uses Java serialization, the value must be {@link Serializable}.
+ */
+public final class BufferWire implements WireWriter, WireReader {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int NULL_LENGTH = -1;
+
+    private ByteBuffer mBuffer;
+    // the view returned by toByteBuffer(), dropped when mBuffer is replaced
+    private ByteBuffer mView;
+    // the temp files written since the last reset, they are deleted by the reader
+    private List<File> mLargePayloads;
+
+    /**
+     * Creates a wire for writing.
+     */
+    public BufferWire() {
+        mBuffer = ByteBuffer.allocate(256);
+    }
+
+    /**
+     * Creates a wire for reading the data returned by {@link #toByteArray()}.
+     */
+    public BufferWire(byte[] data) {
+        if (data == null) {
+            throw new IllegalArgumentException("data is null");
+        }
+
+        mBuffer = ByteBuffer.wrap(data);
+    }
+
+    /**
+     * Returns the written data, the large payloads are not included.
+     */
+    public byte[] toByteArray() {
+        byte[] data = new byte[mBuffer.position()];
+        System.arraycopy(mBuffer.array(), 0, data, 0, data.length);
+        return data;
+    }
+
+    /**
+     * Returns the written data without copying, it is valid until the wire is written again. The
+     * returned buffer is reused by the next call.
+     */
+    public ByteBuffer toByteBuffer() {
+        if (mView == null) {
+            mView = mBuffer.duplicate();
+        }
+
+        mView.limit(mBuffer.position());
+        mView.position(0);
+        return mView;
+    }
+
+    /**
+     * Replaces the data with the remaining bytes of the buffer, to be read. The wire is reused, it
+     * allocates only if the data doesn't fit.
+     */
+    public void load(ByteBuffer data) {
+        if (data == null) {
+            throw new IllegalArgumentException("data is null");
+        }
+
+        reset();
+        ensureCapacity(data.remaining()).put(data);
+        mBuffer.flip();
+    }
+
+    /**
+     * Discards the written data, so the wire can be written again without allocating. The temp files of
+     * the large payloads are kept for the reader, see {@link #discardLargePayloads()}.
+     */
+    public void reset() {
+        mBuffer.clear();
+        if (mLargePayloads != null) {
+            mLargePayloads.clear();
+        }
+    }
+
+    /**
+     * Deletes the temp files of the large payloads written since the last {@link #reset()}, call it
+     * when the written data is dropped and will never be read.
+     */
+    public void discardLargePayloads() {
+        if (mLargePayloads == null) {
+            return;
+        }
+
+        for (File file : mLargePayloads) {
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+        mLargePayloads.clear();
+    }
+
+    private ByteBuffer ensureCapacity(int size) {
+        if (mBuffer.remaining() < size) {
+            int capacity = Math.max(mBuffer.capacity() * 2, mBuffer.position() + size);
+            ByteBuffer buffer = ByteBuffer.allocate(capacity);
+            mBuffer.flip();
+            buffer.put(mBuffer);
+            mBuffer = buffer;
+            mView = null;
+        }
+
+        return mBuffer;
+    }
+
+    @Override
+    public void writeBoolean(boolean value) {
+        ensureCapacity(1).put((byte) (value ? 1 : 0));
+    }
+
+    @Override
+    public void writeByte(byte value) {
+        ensureCapacity(1).put(value);
+    }
+
+    @Override
+    public void writeShort(short value) {
+        ensureCapacity(2).putShort(value);
+    }
+
+    @Override
+    public void writeChar(char value) {
+        ensureCapacity(2).putChar(value);
+    }
+
+    @Override
+    public void writeInt(int value) {
+        ensureCapacity(4).putInt(value);
+    }
+
+    @Override
+    public void writeLong(long value) {
+        ensureCapacity(8).putLong(value);
+    }
+
+    @Override
+    public void writeFloat(float value) {
+        ensureCapacity(4).putFloat(value);
+    }
+
+    @Override
+    public void writeDouble(double value) {
+        ensureCapacity(8).putDouble(value);
+    }
+
+    @Override
+    public void writeString(String value) {
+        writeBytes(value == null ? null : value.getBytes(UTF_8));
+    }
+
+    private void writeBytes(byte[] bytes) {
+        if (bytes == null) {
+            writeInt(NULL_LENGTH);
+            return;
+        }
+
+        writeInt(bytes.length);
+        ensureCapacity(bytes.length).put(bytes);
+    }
+
+    @Override
+    public void writeLargePayload(ByteBuffer value) {
+        if (value == null) {
+            writeInt(NULL_LENGTH);
+            return;
+        }
+
+        File file = null;
+        try {
+            file = File.createTempFile("channel-helper", ".payload");
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                MappedByteBuffer mapped = randomAccessFile.getChannel()
+                        .map(FileChannel.MapMode.READ_WRITE, 0, value.remaining());
+                mapped.put(value.duplicate());
+            } finally {
+                randomAccessFile.close();
+            }
+
+            if (mLargePayloads == null) {
+                mLargePayloads = new ArrayList<>();
+            }
+            mLargePayloads.add(file);
+
+            writeInt(value.remaining());
+            writeString(file.getAbsolutePath());
+        } catch (IOException e) {
+            if (file != null && !file.delete()) {
+                file.deleteOnExit();
+            }
+            throw new IllegalStateException("failed to write large payload", e);
+        }
+    }
+
+    /**
+     * Not supported, the wire doesn't know where to send the result.
+     */
+    @Override
+    public void writeReply(Reply<?> reply) {
+        throw new UnsupportedOperationException("BufferWire doesn't support Reply");
+    }
+
+    @Override
+    public void writeValue(Object value) {
+        if (value == null) {
+            writeBytes(null);
+            return;
+        }
+
+        if (!(value instanceof Serializable)) {
+            throw new IllegalArgumentException("value is not Serializable: " + value.getClass().getName());
+        }
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(value);
+            out.close();
+
+            writeBytes(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to write value", e);
+        }
+    }
+
+    @Override
+    public boolean readBoolean() {
+        return mBuffer.get() != 0;
+    }
+
+    @Override
+    public byte readByte() {
+        return mBuffer.get();
+    }
+
+    @Override
+    public short readShort() {
+        return mBuffer.getShort();
+    }
+
+    @Override
+    public char readChar() {
+        return mBuffer.getChar();
+    }
+
+    @Override
+    public int readInt() {
+        return mBuffer.getInt();
+    }
+
+    @Override
+    public long readLong() {
+        return mBuffer.getLong();
+    }
+
+    @Override
+    public float readFloat() {
+        return mBuffer.getFloat();
+    }
+
+    @Override
+    public double readDouble() {
+        return mBuffer.getDouble();
+    }
+
+    @Override
+    public String readString() {
+        byte[] bytes = readBytes();
+        return bytes == null ? null : new String(bytes, UTF_8);
+    }
+
+    private byte[] readBytes() {
+        int length = readInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        mBuffer.get(bytes);
+        return bytes;
+    }
+
+    @Override
+    public ByteBuffer readLargePayload() {
+        int size = readInt();
+        if (size == NULL_LENGTH) {
+            return null;
+        }
+
+        File file = new File(readString());
+        try {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+                return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } finally {
+                randomAccessFile.close();
+                // the mapping is still valid after the file is deleted
+                if (!file.delete()) {
+                    file.deleteOnExit();
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to read large payload", e);
+        }
+    }
+
+    @Override
+    public Reply<?> readReply() {
+        throw new UnsupportedOperationException("BufferWire doesn't support Reply");
+    }
+
+    @Override
+    public Object readValue() {
+        byte[] bytes = readBytes();
+        if (bytes == null) {
+            return null;
+        }
+
+        try {
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            return in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("failed to read value", e);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package channel.helper;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts the {@link LargePayload} arguments, used by the generated code.
+ */
+public final class ByteBuffers {
+    private ByteBuffers() {
+        throw new AssertionError();
+    }
+
+    public static ByteBuffer wrap(byte[] bytes) {
+        return bytes == null ? null : ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Copies the remaining bytes, the position of the buffer is not changed.
+     */
+    public static byte[] toByteArray(ByteBuffer buffer) {
+        if (buffer == null) {
+            return null;
+        }
+
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
@@ -8,4 +8,22 @@ public @interface Channel {
     @Deprecated
     String name() default "";
     String inspector() default "";
+
+    /**
+     * Channel id, it is sent with every message to route it to the dispatcher.
+     * <p>
+     * Default is {@code 0}, which means the id is derived from the hash code of the qualified name
+     * of the interface. Only set it when two channel interfaces have the same id.
+     */
+    int id() default 0;
+
+    /**
+     * Schema version, from {@code 0} to {@code 255}, it is a part of every method id.
+     * <p>
+     * The method ids are derived from the method signatures, so adding, removing or reordering methods
+     * doesn't break the clients and the services built at different times, and a changed signature
+     * doesn't match the old one. Bump the version when the meaning of the methods changes but the
+     * signatures don't, then the calls of the other version are rejected by the dispatcher.
+     */
+    int version() default 0;
 }
@@ -0,0 +1,17 @@
+package channel.helper;
+
+/**
+ * Decodes the {@link Invocation} of a {@link Channel} interface, generated by the processor.
+ * <p>
+ * The invocation is written by {@link Invocation#writeTo(WireWriter)}: the transport writes the
+ * channel id and the method id, and then the invocation writes every argument with the typed
+ * method of {@link WireWriter} in a fixed order.
+ */
+public interface ChannelCodec {
+    int getChannelId();
+
+    /**
+     * Reads the arguments of the method, returns {@code null} if the method id is unknown.
+     */
+    Invocation read(int methodId, WireReader reader);
+}
@@ -0,0 +1,40 @@
+package channel.helper;
+
+/**
+ * Emitter and dispatcher factory of a {@link Channel} interface.
+ * <p>
+ * The processor generates a factory for every {@link Channel} interface, it can be accessed
+ * by the {@code FACTORY} field of the generated {@code __ChannelHelper} class, example:
+ * {@code Duck__ChannelHelper.FACTORY}.
+ */
+public interface ChannelFactory<T> {
+    /**
+     * The channel id of the {@link Channel} interface.
+     */
+    int getChannelId();
+
+    /**
+     * The qualified name of the {@link Channel} interface.
+     */
+    String getChannelName();
+
+    /**
+     * The name of the method, or {@code null} if the method id is unknown.
+     */
+    String getMethodName(int methodId);
+
+    /**
+     * The codec of the invocations, or {@code null} if the helper is generated by an older processor.
+     */
+    ChannelCodec getCodec();
+
+    T newEmitter(Emitter pipe);
+
+    Dispatcher newDispatcher(T receiver);
+
+    /**
+     * Creates a dispatcher that calls the receiver on the dispatching thread, the {@link RunOn} of the
+     * methods is ignored. Used to copy the calls, see {@link InvocationPublisher}.
+     */
+    Dispatcher newDirectDispatcher(T receiver);
+}
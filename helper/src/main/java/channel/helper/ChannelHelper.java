@@ -1,43 +1,264 @@
 package channel.helper;
 
 import java.lang.reflect.Constructor;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public final class ChannelHelper {
+    private static final String SUFFIX_CHANNEL_HELPER = "__ChannelHelper";
+    private static final String FIELD_FACTORY = "FACTORY";
+    private static final String FIELD_CHANNEL_ID = "CHANNEL_ID";
+    private static final String FIELD_CODEC = "CODEC";
+
+    private static final ConcurrentMap<Class<?>, ChannelFactory<?>> FACTORIES = new ConcurrentHashMap<>();
+    // channel id -> codec, the receivers decode the invocations without a TypedDispatcher
+    private static final ConcurrentMap<Integer, ChannelCodec> CODECS = new ConcurrentHashMap<>();
+
+    private static volatile boolean sIndexesLoaded;
+
     private ChannelHelper() {
         throw new AssertionError();
     }
 
-    @SuppressWarnings("unchecked cast")
     public static <T> T newEmitter(Class<T> clazz, Emitter pipe) {
         if (pipe == null) {
             throw new IllegalArgumentException("pipe is null");
         }
 
-        String emitterName = clazz.getName() + "__ChannelHelper$Emitter";
-
-        try {
-            Class<? extends T> emitter = (Class<? extends T>) Class.forName(emitterName);
-            Constructor<? extends T> constructor = emitter.getConstructor(Emitter.class);
-            return (T) constructor.newInstance(pipe);
-        } catch (Exception e) {
-            throw new IllegalStateException("emitter create failed", e);
-        }
+        return getFactory(clazz).newEmitter(pipe);
     }
 
-    @SuppressWarnings("unchecked cast")
     public static <T> Dispatcher newDispatcher(Class<T> clazz, T receiver) {
         if (receiver == null) {
             throw new IllegalArgumentException("receiver is null");
         }
 
-        String dispatcherName = clazz.getName() + "__ChannelHelper$Dispatcher";
+        return getFactory(clazz).newDispatcher(receiver);
+    }
+
+    /**
+     * Register the factory of a {@link Channel} interface, it replaces the factory found in the
+     * generated {@link ChannelIndex}.
+     * <p>
+     * Example: {@code ChannelHelper.register(Duck.class, Duck__ChannelHelper.FACTORY)}
+     */
+    public static <T> void register(Class<T> clazz, ChannelFactory<T> factory) {
+        if (clazz == null) {
+            throw new IllegalArgumentException("clazz is null");
+        }
+
+        if (factory == null) {
+            throw new IllegalArgumentException("factory is null");
+        }
+
+        FACTORIES.put(clazz, factory);
+        putCodec(factory);
+    }
+
+    /**
+     * Get the codec of a channel by channel id, used to decode the invocations sent by another process
+     * when the dispatcher is not a {@link TypedDispatcher}, see {@link DispatcherUtil#findCodec(Dispatcher, int)}.
+     *
+     * @return the codec, or {@code null} if the channel is not in a {@link ChannelIndex} and its factory
+     * is not registered or looked up yet.
+     */
+    public static ChannelCodec getCodec(int channelId) {
+        ChannelCodec codec = CODECS.get(channelId);
+        if (codec == null && !sIndexesLoaded) {
+            loadIndexes();
+            codec = CODECS.get(channelId);
+        }
+
+        return codec;
+    }
+
+    private static void putCodec(ChannelFactory<?> factory) {
+        ChannelCodec codec = factory.getCodec();
+        if (codec != null) {
+            CODECS.put(codec.getChannelId(), codec);
+        }
+    }
+
+    /**
+     * Get the factory of a {@link Channel} interface.
+     * <p>
+     * The factories are found in the {@link ChannelIndex} generated by the processor, the indexes are
+     * loaded once on the first lookup. If the factory is not in an index (the helper is generated by an
+     * older processor, or the services file is stripped), it will be found by reflection only once, and
+     * then cached. The reflective fallback needs the names of the interface and its helper to be kept.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ChannelFactory<T> getFactory(Class<T> clazz) {
+        ChannelFactory<T> factory = (ChannelFactory<T>) FACTORIES.get(clazz);
+        if (factory != null) {
+            return factory;
+        }
+
+        if (!sIndexesLoaded) {
+            loadIndexes();
+
+            factory = (ChannelFactory<T>) FACTORIES.get(clazz);
+            if (factory != null) {
+                return factory;
+            }
+        }
+
+        factory = findFactory(clazz);
+
+        ChannelFactory<T> exists = (ChannelFactory<T>) FACTORIES.putIfAbsent(clazz, factory);
+        if (exists != null) {
+            return exists;
+        }
+
+        putCodec(factory);
+        return factory;
+    }
+
+    private static void loadIndexes() {
+        synchronized (ChannelIndex.class) {
+            if (sIndexesLoaded) {
+                return;
+            }
+
+            Map<Class<?>, ChannelFactory<?>> factories = new HashMap<>();
+            // the class literal and its class loader, R8 only rewrites this form
+            for (ChannelIndex index : ServiceLoader.load(ChannelIndex.class, ChannelIndex.class.getClassLoader())) {
+                index.getFactories(factories);
+            }
+
+            // the registered factories are kept
+            for (Map.Entry<Class<?>, ChannelFactory<?>> entry : factories.entrySet()) {
+                if (FACTORIES.putIfAbsent(entry.getKey(), entry.getValue()) == null) {
+                    putCodec(entry.getValue());
+                }
+            }
 
+            sIndexesLoaded = true;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> ChannelFactory<T> findFactory(Class<T> clazz) {
+        String helperName = clazz.getName() + SUFFIX_CHANNEL_HELPER;
+
+        Class<?> helper;
         try {
-            Class<? extends Dispatcher> dispatcher = (Class<? extends Dispatcher>) Class.forName(dispatcherName);
-            Constructor<? extends Dispatcher> constructor = dispatcher.getConstructor(clazz);
-            return constructor.newInstance(receiver);
-        } catch (Exception e) {
-            throw new IllegalStateException("dispatcher create failed", e);
+            helper = Class.forName(helperName, true, clazz.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("channel helper not found: " + helperName, e);
+        }
+
+        try {
+            return (ChannelFactory<T>) helper.getField(FIELD_FACTORY).get(null);
+        } catch (NoSuchFieldException e) {
+            // generated by an older processor
+            return new ReflectFactory<>(clazz, helperName);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("channel helper factory access failed: " + helperName, e);
+        }
+    }
+
+    /**
+     * Reflective fallback, the constructors are resolved only once.
+     */
+    private static final class ReflectFactory<T> implements ChannelFactory<T> {
+        private final String mChannelName;
+        private final int mChannelId;
+        private final ChannelCodec mCodec;
+        private final Constructor<? extends T> mEmitterConstructor;
+        private final Constructor<? extends Dispatcher> mDispatcherConstructor;
+
+        @SuppressWarnings("unchecked")
+        ReflectFactory(Class<T> clazz, String helperName) {
+            ClassLoader classLoader = clazz.getClassLoader();
+
+            mChannelName = clazz.getCanonicalName();
+            mChannelId = findChannelId(helperName, classLoader);
+            mCodec = findCodec(helperName, classLoader);
+
+            try {
+                Class<? extends T> emitter =
+                        (Class<? extends T>) Class.forName(helperName + "$Emitter", true, classLoader);
+                Class<? extends Dispatcher> dispatcher =
+                        (Class<? extends Dispatcher>) Class.forName(helperName + "$Dispatcher", true, classLoader);
+
+                mEmitterConstructor = emitter.getConstructor(Emitter.class);
+                mDispatcherConstructor = dispatcher.getConstructor(clazz);
+            } catch (ClassNotFoundException | NoSuchMethodException e) {
+                throw new IllegalStateException("channel helper is broken: " + helperName, e);
+            }
+        }
+
+        private static int findChannelId(String helperName, ClassLoader classLoader) {
+            try {
+                return Class.forName(helperName, true, classLoader)
+                        .getField(FIELD_CHANNEL_ID)
+                        .getInt(null);
+            } catch (Exception e) {
+                return Header.NO_CHANNEL;
+            }
+        }
+
+        private static ChannelCodec findCodec(String helperName, ClassLoader classLoader) {
+            try {
+                return (ChannelCodec) Class.forName(helperName, true, classLoader)
+                        .getField(FIELD_CODEC)
+                        .get(null);
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        @Override
+        public int getChannelId() {
+            return mChannelId;
+        }
+
+        @Override
+        public ChannelCodec getCodec() {
+            return mCodec;
+        }
+
+        @Override
+        public String getChannelName() {
+            return mChannelName;
+        }
+
+        /**
+         * The older processor doesn't generate the method names.
+         */
+        @Override
+        public String getMethodName(int methodId) {
+            return null;
+        }
+
+        @Override
+        public T newEmitter(Emitter pipe) {
+            try {
+                return mEmitterConstructor.newInstance(pipe);
+            } catch (Exception e) {
+                throw new IllegalStateException("emitter create failed", e);
+            }
+        }
+
+        @Override
+        public Dispatcher newDispatcher(T receiver) {
+            try {
+                return mDispatcherConstructor.newInstance(receiver);
+            } catch (Exception e) {
+                throw new IllegalStateException("dispatcher create failed", e);
+            }
+        }
+
+        /**
+         * The older processor doesn't support {@link RunOn}, its dispatcher is direct already.
+         */
+        @Override
+        public Dispatcher newDirectDispatcher(T receiver) {
+            return newDispatcher(receiver);
         }
     }
 }
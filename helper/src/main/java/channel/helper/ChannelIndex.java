@@ -0,0 +1,18 @@
+package channel.helper;
+
+import java.util.Map;
+
+/**
+ * The {@link Channel} interfaces of a package, generated by the processor and listed in
+ * {@code META-INF/services/channel.helper.ChannelIndex}.
+ * <p>
+ * {@link ChannelHelper} loads the indexes by {@link java.util.ServiceLoader} on the first lookup, so the
+ * factories are found without reflection. R8 replaces the {@link java.util.ServiceLoader} call with
+ * direct instantiations, the generated helpers can be shrunk and renamed.
+ */
+public interface ChannelIndex {
+    /**
+     * Puts the factory of every {@link Channel} interface of the index, keyed by the interface.
+     */
+    void getFactories(Map<Class<?>, ChannelFactory<?>> factories);
+}
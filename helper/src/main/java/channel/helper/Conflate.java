@@ -0,0 +1,15 @@
+package channel.helper;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Target;
+
+/**
+ * Latest value wins: if a call of the method is still waiting in the pipe, a new call replaces it
+ * instead of being enqueued. Use it for the methods that only the latest value matters, for example
+ * {@code onProgress(long position)}.
+ * <p>
+ * It's a hint, the pipe that doesn't support it delivers every call.
+ */
+@Target(ElementType.METHOD)
+public @interface Conflate {
+}
@@ -0,0 +1,199 @@
+package channel.helper;
+
+import java.util.Map;
+
+/**
+ * A mutable dispatcher that routes messages by channel id.
+ * <p>
+ * Unlike {@link DispatcherUtil#merge(Dispatcher, Dispatcher...)}, which asks every dispatcher in
+ * turn, the registry finds the dispatcher with a hash index, so the cost of a lookup does not
+ * grow with the number of registered channels.
+ * <p>
+ * It's thread safe: {@link #register(int, Dispatcher)} and {@link #unregister(int)} copy the
+ * index and publish the new one, the lookup reads the current index without any lock.
+ * <p>
+ * <b>Example:</b>
+ * <pre>
+ * DispatcherRegistry registry = new DispatcherRegistry();
+ * registry.register(Duck.class, mDuckReceiver);
+ * registry.register(Chicken.class, mChickenReceiver);
+ *
+ * HandlerPipe handlerPipe = new HandlerPipe(registry);
+ * </pre>
+ */
+public final class DispatcherRegistry implements TypedDispatcher {
+    private final Object mLock = new Object();
+    private volatile Table mTable = Table.EMPTY;
+
+    /**
+     * Register a receiver, it will replace the dispatcher that registered with the same channel.
+     * Must hold a strong reference of receiver.
+     */
+    public <T> void register(Class<T> clazz, T receiver) {
+        if (receiver == null) {
+            throw new IllegalArgumentException("receiver is null");
+        }
+
+        ChannelFactory<T> factory = ChannelHelper.getFactory(clazz);
+        register(factory.getChannelId(), factory.newDispatcher(receiver));
+    }
+
+    /**
+     * Register a dispatcher, it will replace the dispatcher that registered with the same channel id.
+     *
+     * @param channelId the channel id, see the {@code CHANNEL_ID} field of the generated
+     *                  {@code __ChannelHelper} class.
+     */
+    public void register(int channelId, Dispatcher dispatcher) {
+        if (channelId == Header.NO_CHANNEL) {
+            throw new IllegalArgumentException("illegal channel id: " + channelId);
+        }
+
+        if (dispatcher == null) {
+            throw new IllegalArgumentException("dispatcher is null");
+        }
+
+        synchronized (mLock) {
+            mTable = mTable.put(channelId, dispatcher);
+        }
+    }
+
+    public void unregister(Class<?> clazz) {
+        unregister(ChannelHelper.getFactory(clazz).getChannelId());
+    }
+
+    public void unregister(int channelId) {
+        synchronized (mLock) {
+            mTable = mTable.remove(channelId);
+        }
+    }
+
+    /**
+     * Returns the dispatcher registered with the channel id, or {@code null}.
+     */
+    public Dispatcher get(int channelId) {
+        return mTable.get(channelId);
+    }
+
+    public int size() {
+        return mTable.size;
+    }
+
+    @Override
+    public boolean dispatch(Map<String, Object> data) {
+        Dispatcher dispatcher = mTable.get(Header.getChannelId(data));
+        return dispatcher != null && dispatcher.dispatch(data);
+    }
+
+    @Override
+    public boolean match(Map<String, Object> data) {
+        Dispatcher dispatcher = mTable.get(Header.getChannelId(data));
+        return dispatcher != null && dispatcher.match(data);
+    }
+
+    @Override
+    public boolean dispatch(Invocation invocation) {
+        Dispatcher dispatcher = mTable.get(invocation.getChannelId());
+        return dispatcher != null && DispatcherUtil.dispatch(dispatcher, invocation);
+    }
+
+    @Override
+    public boolean match(Invocation invocation) {
+        Dispatcher dispatcher = mTable.get(invocation.getChannelId());
+        return dispatcher != null && DispatcherUtil.match(dispatcher, invocation);
+    }
+
+    @Override
+    public ChannelCodec getCodec(int channelId) {
+        Dispatcher dispatcher = mTable.get(channelId);
+        return dispatcher == null ? null : DispatcherUtil.getCodec(dispatcher, channelId);
+    }
+
+    /**
+     * Immutable open addressing hash table (linear probing), the load factor is at most 0.5.
+     * {@link Header#NO_CHANNEL} is used as the empty key.
+     */
+    private static final class Table {
+        static final Table EMPTY = new Table(new int[2], new Dispatcher[2], 0);
+
+        final int[] keys;
+        final Dispatcher[] values;
+        final int mask;
+        final int size;
+
+        Table(int[] keys, Dispatcher[] values, int size) {
+            this.keys = keys;
+            this.values = values;
+            this.mask = keys.length - 1;
+            this.size = size;
+        }
+
+        static int hash(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        Dispatcher get(int key) {
+            if (key == Header.NO_CHANNEL) {
+                return null;
+            }
+
+            int[] keys = this.keys;
+            for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+                int k = keys[i];
+                if (k == key) {
+                    return values[i];
+                }
+
+                if (k == Header.NO_CHANNEL) {
+                    return null;
+                }
+            }
+        }
+
+        Table put(int key, Dispatcher value) {
+            int newSize = get(key) == null ? size + 1 : size;
+
+            int capacity = keys.length;
+            while (newSize * 2 > capacity) {
+                capacity *= 2;
+            }
+
+            Table table = new Table(new int[capacity], new Dispatcher[capacity], newSize);
+            table.copyFrom(this, Header.NO_CHANNEL);
+            table.insert(key, value);
+
+            return table;
+        }
+
+        Table remove(int key) {
+            if (get(key) == null) {
+                return this;
+            }
+
+            Table table = new Table(new int[keys.length], new Dispatcher[keys.length], size - 1);
+            table.copyFrom(this, key);
+
+            return table;
+        }
+
+        private void copyFrom(Table other, int exclude) {
+            for (int i = 0; i < other.keys.length; i++) {
+                int k = other.keys[i];
+                if (k != Header.NO_CHANNEL && k != exclude) {
+                    insert(k, other.values[i]);
+                }
+            }
+        }
+
+        private void insert(int key, Dispatcher value) {
+            for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+                if (keys[i] == Header.NO_CHANNEL || keys[i] == key) {
+                    keys[i] = key;
+                    values[i] = value;
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -4,7 +4,7 @@ import java.util.Map;
 
 public class DispatcherUtil {
     public static Dispatcher merge(final Dispatcher dispatcher, final Dispatcher... others) {
-        return new Dispatcher() {
+        return new TypedDispatcher() {
             @Override
             public boolean dispatch(Map<String, Object> data) {
                 if (dispatcher.dispatch(data)) {
@@ -34,6 +34,102 @@ public class DispatcherUtil {
 
                 return false;
             }
+
+            @Override
+            public boolean dispatch(Invocation invocation) {
+                if (DispatcherUtil.dispatch(dispatcher, invocation)) {
+                    return true;
+                }
+
+                for (Dispatcher d : others) {
+                    if (DispatcherUtil.dispatch(d, invocation)) {
+                        return true;
+                    }
+                }
+
+                return false;
+            }
+
+            @Override
+            public boolean match(Invocation invocation) {
+                if (DispatcherUtil.match(dispatcher, invocation)) {
+                    return true;
+                }
+
+                for (Dispatcher d : others) {
+                    if (DispatcherUtil.match(d, invocation)) {
+                        return true;
+                    }
+                }
+
+                return false;
+            }
+
+            @Override
+            public ChannelCodec getCodec(int channelId) {
+                ChannelCodec codec = DispatcherUtil.getCodec(dispatcher, channelId);
+                if (codec != null) {
+                    return codec;
+                }
+
+                for (Dispatcher d : others) {
+                    codec = DispatcherUtil.getCodec(d, channelId);
+                    if (codec != null) {
+                        return codec;
+                    }
+                }
+
+                return null;
+            }
         };
     }
+
+    /**
+     * Dispatch a {@link Invocation}. If the dispatcher is not a {@link TypedDispatcher}, the
+     * invocation will be converted to a map.
+     */
+    public static boolean dispatch(Dispatcher dispatcher, Invocation invocation) {
+        if (dispatcher instanceof TypedDispatcher) {
+            return ((TypedDispatcher) dispatcher).dispatch(invocation);
+        }
+
+        return dispatcher.dispatch(invocation.toMap());
+    }
+
+    public static boolean match(Dispatcher dispatcher, Invocation invocation) {
+        if (dispatcher instanceof TypedDispatcher) {
+            return ((TypedDispatcher) dispatcher).match(invocation);
+        }
+
+        return dispatcher.match(invocation.toMap());
+    }
+
+    /**
+     * Returns the codec of the channel, or {@code null} if the dispatcher is not a {@link TypedDispatcher}
+     * or doesn't handle the channel.
+     */
+    public static ChannelCodec getCodec(Dispatcher dispatcher, int channelId) {
+        if (dispatcher instanceof TypedDispatcher) {
+            return ((TypedDispatcher) dispatcher).getCodec(channelId);
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the codec to decode the invocations for the dispatcher: the codec of the dispatcher, or
+     * the codec registered in {@link ChannelHelper#getCodec(int)}, so the dispatchers that are not a
+     * {@link TypedDispatcher} (wrappers, helpers generated by an older processor) still receive the
+     * invocations as maps.
+     *
+     * @return the codec, or {@code null} if the channel is unknown in this process.
+     */
+    public static ChannelCodec findCodec(Dispatcher dispatcher, int channelId) {
+        ChannelCodec codec = getCodec(dispatcher, channelId);
+        if (codec != null) {
+            return codec;
+        }
+
+        return ChannelHelper.getCodec(channelId);
+    }
 }
@@ -0,0 +1,233 @@
+package channel.helper;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A recyclable map for the message data, the keys and values are kept in arrays.
+ * <p>
+ * Use {@link #obtain()} to get an envelope from the pool, and {@link #recycle()} to return it
+ * when no one uses it. The pipes recycle the envelope after {@link Dispatcher#dispatch(Map)}
+ * returns, so a dispatcher must not keep a reference to the map unless the recycle of the pipe is
+ * disabled.
+ */
+public final class Envelope extends AbstractMap<String, Object> {
+    private static final int DEFAULT_CAPACITY = 8;
+    private static final int POOL_CAPACITY = 32;
+
+    private static final ObjectPool<Envelope> POOL = new ObjectPool<>(POOL_CAPACITY);
+
+    private String[] mKeys;
+    private Object[] mValues;
+    private int mSize;
+
+    private boolean mRecycled;
+
+    public Envelope() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public Envelope(int capacity) {
+        mKeys = new String[Math.max(capacity, 1)];
+        mValues = new Object[mKeys.length];
+    }
+
+    /**
+     * Returns an envelope from the pool, or creates a new one if the pool is empty.
+     */
+    public static Envelope obtain() {
+        Envelope envelope = POOL.acquire();
+        if (envelope == null) {
+            return new Envelope();
+        }
+
+        envelope.mRecycled = false;
+        return envelope;
+    }
+
+    /**
+     * Recycle the data if it's an {@link Envelope} or a {@link FixedEnvelope}, otherwise do nothing.
+     */
+    public static void recycle(Map<String, Object> data) {
+        if (data instanceof Envelope) {
+            ((Envelope) data).recycle();
+        } else if (data instanceof FixedEnvelope) {
+            ((FixedEnvelope) data).recycle();
+        }
+    }
+
+    /**
+     * Clears this envelope and returns it to the pool. Must not use it after recycled.
+     */
+    public void recycle() {
+        if (mRecycled) {
+            return;
+        }
+
+        clear();
+        mRecycled = true;
+        POOL.release(this);
+    }
+
+    private int indexOf(Object key) {
+        String[] keys = mKeys;
+
+        // the keys are constants in most cases
+        for (int i = 0; i < mSize; i++) {
+            if (keys[i] == key) {
+                return i;
+            }
+        }
+
+        if (key == null) {
+            return -1;
+        }
+
+        for (int i = 0; i < mSize; i++) {
+            if (key.equals(keys[i])) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public Object get(Object key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+
+        return mValues[index];
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        int index = indexOf(key);
+        if (index >= 0) {
+            Object old = mValues[index];
+            mValues[index] = value;
+            return old;
+        }
+
+        if (mSize == mKeys.length) {
+            mKeys = Arrays.copyOf(mKeys, mSize * 2);
+            mValues = Arrays.copyOf(mValues, mSize * 2);
+        }
+
+        mKeys[mSize] = key;
+        mValues[mSize] = value;
+        mSize++;
+        return null;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+
+        Object old = mValues[index];
+        removeAt(index);
+        return old;
+    }
+
+    private void removeAt(int index) {
+        int moved = mSize - index - 1;
+        if (moved > 0) {
+            System.arraycopy(mKeys, index + 1, mKeys, index, moved);
+            System.arraycopy(mValues, index + 1, mValues, index, moved);
+        }
+
+        mSize--;
+        mKeys[mSize] = null;
+        mValues[mSize] = null;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(mKeys, 0, mSize, null);
+        Arrays.fill(mValues, 0, mSize, null);
+        mSize = 0;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new EntrySet();
+    }
+
+    private final class EntrySet extends AbstractSet<Entry<String, Object>> {
+        @Override
+        public int size() {
+            return mSize;
+        }
+
+        @Override
+        public Iterator<Entry<String, Object>> iterator() {
+            return new Iterator<Entry<String, Object>>() {
+                private int mNext;
+                private int mLast = -1;
+
+                @Override
+                public boolean hasNext() {
+                    return mNext < mSize;
+                }
+
+                @Override
+                public Entry<String, Object> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+
+                    mLast = mNext++;
+                    return new EnvelopeEntry(mLast);
+                }
+
+                @Override
+                public void remove() {
+                    if (mLast < 0) {
+                        throw new IllegalStateException();
+                    }
+
+                    removeAt(mLast);
+                    mNext = mLast;
+                    mLast = -1;
+                }
+            };
+        }
+    }
+
+    private final class EnvelopeEntry extends SimpleEntry<String, Object> {
+        private static final long serialVersionUID = 1L;
+
+        private final int mIndex;
+
+        EnvelopeEntry(int index) {
+            super(mKeys[index], mValues[index]);
+            mIndex = index;
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            mValues[mIndex] = value;
+            return super.setValue(value);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package channel.helper;
+
+/**
+ * Receives the exceptions that the pipes and the workers catch to keep running, such as a receiver
+ * that throws on a {@link RingBufferPipe}, install it by {@link Errors#setHandler(ErrorHandler)}.
+ * <p>
+ * It's called on the thread that caught the exception, keep it thread safe and don't throw, otherwise
+ * the pipe or the worker stops.
+ */
+public interface ErrorHandler {
+    /**
+     * @param message where the exception is caught.
+     * @param error   the exception.
+     */
+    void onError(String message, Throwable error);
+}
@@ -0,0 +1,44 @@
+package channel.helper;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reports the exceptions that the pipes and the workers catch to keep running.
+ * <p>
+ * They are logged by {@link java.util.logging} by default (to logcat on Android), install an
+ * {@link ErrorHandler} to report them in another way.
+ */
+public final class Errors {
+    private static final Logger LOGGER = Logger.getLogger("channel.helper");
+
+    private static volatile ErrorHandler sHandler;
+
+    private Errors() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Installs the handler, or uninstalls it by {@code null}.
+     */
+    public static void setHandler(ErrorHandler handler) {
+        sHandler = handler;
+    }
+
+    public static ErrorHandler getHandler() {
+        return sHandler;
+    }
+
+    /**
+     * Reports an exception caught to keep a pipe or a worker running.
+     */
+    public static void report(String message, Throwable error) {
+        ErrorHandler handler = sHandler;
+        if (handler != null) {
+            handler.onError(message, error);
+            return;
+        }
+
+        LOGGER.log(Level.WARNING, message, error);
+    }
+}
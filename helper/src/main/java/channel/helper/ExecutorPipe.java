@@ -0,0 +1,186 @@
+package channel.helper;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Dispatches the messages on an {@link Executor} (for example a thread pool), the messages with the
+ * same key are dispatched in FIFO order, and the messages with different keys can be dispatched in
+ * parallel.
+ * <p>
+ * The key is the channel id by default, so every channel interface is ordered and the unrelated
+ * channels don't wait for each other. Use {@link #withKey(int)} to order by another key, such as a
+ * session id.
+ * <p>
+ * The keys are hashed into a fixed number of stripes, each stripe is a serial queue that is
+ * scheduled on the executor only when it has messages, there is no global lock. The keys in the
+ * same stripe are serialized.
+ */
+public final class ExecutorPipe implements TypedEmitter {
+    /**
+     * The max count of messages that a stripe dispatches in one task, then the task is submitted
+     * again, so a busy stripe does not occupy a thread of the executor forever.
+     */
+    private static final int MAX_BATCH = 64;
+
+    private final Executor mExecutor;
+    private final Dispatcher mDispatcher;
+    private final Stripe[] mStripes;
+    private final int mMask;
+    private volatile boolean mRecycleEnabled = true;
+
+    /**
+     * Use 4 stripes per available processor.
+     */
+    public ExecutorPipe(Executor executor, Dispatcher dispatcher) {
+        this(executor, dispatcher, Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    /**
+     * @param stripes the count of the serial queues, it will be rounded up to a power of two.
+     */
+    public ExecutorPipe(Executor executor, Dispatcher dispatcher, int stripes) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor is null");
+        }
+
+        if (dispatcher == null) {
+            throw new IllegalArgumentException("dispatcher is null");
+        }
+
+        if (stripes < 1 || stripes > (1 << 16)) {
+            throw new IllegalArgumentException("illegal stripes: " + stripes);
+        }
+
+        mExecutor = executor;
+        mDispatcher = dispatcher;
+
+        int size = stripes == 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        mStripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            mStripes[i] = new Stripe();
+        }
+        mMask = size - 1;
+    }
+
+    /**
+     * Whether to recycle the {@link Envelope} and {@link Invocation} after dispatched, default is true.
+     * <p>
+     * Disable it if the dispatcher keeps a reference to the map.
+     */
+    public void setRecycleEnabled(boolean enabled) {
+        mRecycleEnabled = enabled;
+    }
+
+    /**
+     * Returns an emitter that orders the messages by the given key instead of the channel id.
+     * For example, one emitter per session:
+     * <pre>
+     * Foo emitter = ChannelHelper.newEmitter(Foo.class, pipe.withKey(sessionId.hashCode()));
+     * </pre>
+     */
+    public TypedEmitter withKey(final int key) {
+        return new TypedEmitter() {
+            @Override
+            public void emit(Invocation invocation) {
+                Metrics.stamp(invocation);
+                enqueue(key, invocation);
+            }
+
+            @Override
+            public void emit(Map<String, Object> data) {
+                Metrics.stamp(data);
+                enqueue(key, data);
+            }
+        };
+    }
+
+    @Override
+    public void emit(Map<String, Object> data) {
+        Metrics.stamp(data);
+        enqueue(Header.getChannelId(data), data);
+    }
+
+    @Override
+    public void emit(Invocation invocation) {
+        Metrics.stamp(invocation);
+        enqueue(invocation.getChannelId(), invocation);
+    }
+
+    private void enqueue(int key, Object message) {
+        int hash = key * 0x9E3779B9;
+        Stripe stripe = mStripes[(hash ^ (hash >>> 16)) & mMask];
+
+        stripe.mQueue.offer(message);
+        stripe.schedule();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void dispatch(Object message) {
+        try {
+            if (message instanceof Invocation) {
+                Invocation invocation = (Invocation) message;
+                Metrics.record(invocation, -1);
+                DispatcherUtil.dispatch(mDispatcher, invocation);
+
+                if (mRecycleEnabled) {
+                    invocation.recycle();
+                }
+                return;
+            }
+
+            Map<String, Object> data = (Map<String, Object>) message;
+            Metrics.record(data, -1);
+            mDispatcher.dispatch(data);
+
+            if (mRecycleEnabled) {
+                Envelope.recycle(data);
+            }
+        } catch (RuntimeException e) {
+            // keep the stripe alive, otherwise its messages will never be dispatched
+            Errors.report("ExecutorPipe receiver failed", e);
+        }
+    }
+
+    /**
+     * A serial queue, at most one task of it is running or waiting in the executor.
+     */
+    private final class Stripe implements Runnable {
+        private final Queue<Object> mQueue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean mScheduled = new AtomicBoolean();
+
+        void schedule() {
+            if (mScheduled.compareAndSet(false, true)) {
+                try {
+                    mExecutor.execute(this);
+                } catch (RuntimeException e) {
+                    // rejected, the next message will try again
+                    mScheduled.set(false);
+                    throw e;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < MAX_BATCH; i++) {
+                Object message = mQueue.poll();
+                if (message == null) {
+                    break;
+                }
+
+                dispatch(message);
+            }
+
+            mScheduled.set(false);
+
+            // a message may be enqueued after the last poll but before the flag is cleared
+            if (!mQueue.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+}
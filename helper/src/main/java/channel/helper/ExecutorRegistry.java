@@ -0,0 +1,217 @@
+package channel.helper;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * The targets of {@link RunOn}, by name.
+ * <p>
+ * Register the executors before the calls are dispatched, for example in
+ * {@code Application.onCreate()}:
+ * <pre>
+ * final Handler mainHandler = new Handler(Looper.getMainLooper());
+ * ExecutorRegistry.register(RunOn.MAIN, new Executor() {
+ *     public void execute(Runnable command) {
+ *         mainHandler.post(command);
+ *     }
+ * }, Looper.getMainLooper().getThread());
+ *
+ * ExecutorRegistry.register("network", networkThreadPool);
+ * </pre>
+ * A name that is not registered gets its own worker thread on first use, the calls on it run in
+ * FIFO order. {@link RunOn#MAIN} is the exception: if it is not registered, the calls run inline on
+ * the thread of the pipe.
+ */
+public final class ExecutorRegistry {
+    private static final ConcurrentMap<String, Target> TARGETS = new ConcurrentHashMap<>();
+
+    private ExecutorRegistry() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Register an executor, it will replace the target registered with the same name.
+     * <p>
+     * The calls dispatched on other threads always hop to the executor, use
+     * {@link #register(String, Executor, Thread)} if the executor runs on a single thread.
+     */
+    public static void register(String name, Executor executor) {
+        register(name, executor, null);
+    }
+
+    /**
+     * Register an executor that runs its tasks on the given thread, such as a {@code Handler}, the
+     * calls dispatched on that thread run inline.
+     */
+    public static void register(String name, Executor executor, Thread thread) {
+        if (name == null) {
+            throw new IllegalArgumentException("name is null");
+        }
+
+        if (executor == null) {
+            throw new IllegalArgumentException("executor is null");
+        }
+
+        getTarget(name).bind(new Binding(executor, thread));
+    }
+
+    /**
+     * Unregister the target of the name, a worker thread is stopped after its pending calls.
+     */
+    public static void unregister(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("name is null");
+        }
+
+        Target target = TARGETS.get(name);
+        if (target != null) {
+            target.bind(null);
+        }
+    }
+
+    /**
+     * Returns the executor to run a call of the {@link RunOn} method on, or {@code null} if it should
+     * run inline because the current thread is the target.
+     */
+    public static Executor resolve(String name) {
+        return getTarget(name).resolve();
+    }
+
+    /**
+     * Used by the generated dispatcher, which keeps the target of every {@link RunOn} method, so the
+     * name is looked up only once. The target follows the later {@link #register(String, Executor)}
+     * and {@link #unregister(String)} of the name.
+     */
+    public static Target getTarget(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("name is null");
+        }
+
+        Target target = TARGETS.get(name);
+        if (target != null) {
+            return target;
+        }
+
+        target = new Target(name);
+        Target current = TARGETS.putIfAbsent(name, target);
+        return current != null ? current : target;
+    }
+
+    /**
+     * The target of a name, it is unbound until an executor is registered or a worker is started.
+     */
+    public static final class Target {
+        private final String mName;
+        private volatile Binding mBinding;
+
+        Target(String name) {
+            mName = name;
+        }
+
+        /**
+         * Returns the executor to run a call of the {@link RunOn} method on, or {@code null} if it should
+         * run inline because the current thread is the target.
+         */
+        public Executor resolve() {
+            Binding binding = mBinding;
+
+            if (binding == null) {
+                if (RunOn.MAIN.equals(mName)) {
+                    return null;
+                }
+
+                binding = startWorker();
+            }
+
+            return binding.mThread == Thread.currentThread() ? null : binding.mExecutor;
+        }
+
+        // the worker is created only by the thread that binds it, it is started after bound
+        private synchronized Binding startWorker() {
+            if (mBinding == null) {
+                Worker worker = new Worker(mName);
+                mBinding = new Binding(worker, worker.mThread);
+                worker.mThread.start();
+            }
+
+            return mBinding;
+        }
+
+        private void bind(Binding binding) {
+            Binding replaced;
+            synchronized (this) {
+                replaced = mBinding;
+                mBinding = binding;
+            }
+
+            if (replaced != null && replaced.mExecutor instanceof Worker) {
+                ((Worker) replaced.mExecutor).shutdown();
+            }
+        }
+    }
+
+    private static final class Binding {
+        final Executor mExecutor;
+        final Thread mThread;
+
+        Binding(Executor executor, Thread thread) {
+            mExecutor = executor;
+            mThread = thread;
+        }
+    }
+
+    /**
+     * A daemon thread that runs the calls in FIFO order.
+     */
+    private static final class Worker implements Executor, Runnable {
+        private final BlockingQueue<Runnable> mQueue = new LinkedBlockingQueue<>();
+        private final Thread mThread;
+        private volatile boolean mShutdown;
+
+        Worker(String name) {
+            mThread = new Thread(this, "ChannelHelper-" + name);
+            mThread.setDaemon(true);
+        }
+
+        void shutdown() {
+            mShutdown = true;
+            // wake it up if it is waiting
+            mQueue.offer(new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            mQueue.offer(command);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable command;
+                try {
+                    command = mShutdown ? mQueue.poll() : mQueue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                if (command == null) {
+                    return;
+                }
+
+                try {
+                    command.run();
+                } catch (RuntimeException e) {
+                    // keep the worker alive, otherwise the calls after it will never run
+                    Errors.report("@RunOn worker " + mThread.getName() + " failed", e);
+                }
+            }
+        }
+    }
+}
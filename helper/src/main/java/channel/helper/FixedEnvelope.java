@@ -0,0 +1,258 @@
+package channel.helper;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A recyclable map with a fixed set of keys, the generated emitter has one subclass per method: the
+ * arguments and the header entries are stored in the slots of an array, so the map never grows, and
+ * a key is found by comparing the constant keys by identity first.
+ * <p>
+ * The keys that are not in the schema, for example put by a custom pipe, are kept in an
+ * {@link Envelope}. Like {@link Envelope}, it's returned to its pool by {@link Envelope#recycle(Map)},
+ * and must not be used after recycled.
+ */
+public abstract class FixedEnvelope extends AbstractMap<String, Object> {
+    // the value of an empty slot, null is a valid value
+    private static final Object ABSENT = new Object();
+
+    private final String[] mKeys;
+    private final Object[] mValues;
+    private int mSize;
+    private Envelope mExtras;
+
+    private boolean mRecycled;
+
+    /**
+     * @param keys the constant keys, shared by all the instances of the subclass.
+     */
+    protected FixedEnvelope(String[] keys) {
+        mKeys = keys;
+        mValues = new Object[keys.length];
+        Arrays.fill(mValues, ABSENT);
+    }
+
+    /**
+     * Returns the slot of the key by comparing it with the constant keys by identity, or -1.
+     */
+    protected abstract int identityIndexOf(Object key);
+
+    /**
+     * Returns this map to the pool of the subclass.
+     */
+    protected abstract void release();
+
+    /**
+     * Must be called when this map is taken from the pool.
+     */
+    protected final void reuse() {
+        mRecycled = false;
+    }
+
+    /**
+     * Clears this map and returns it to the pool. Must not use it after recycled.
+     */
+    public final void recycle() {
+        if (mRecycled) {
+            return;
+        }
+
+        clear();
+        mRecycled = true;
+        release();
+    }
+
+    private int indexOf(Object key) {
+        int index = identityIndexOf(key);
+        if (index >= 0 || key == null) {
+            return index;
+        }
+
+        // a key that is equal but not the same instance, for example read from a Parcel
+        for (int i = 0; i < mKeys.length; i++) {
+            if (key.equals(mKeys[i])) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    @Override
+    public int size() {
+        return mExtras == null ? mSize : mSize + mExtras.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int index = indexOf(key);
+        if (index >= 0) {
+            return mValues[index] != ABSENT;
+        }
+
+        return mExtras != null && mExtras.containsKey(key);
+    }
+
+    @Override
+    public Object get(Object key) {
+        int index = indexOf(key);
+        if (index >= 0) {
+            Object value = mValues[index];
+            return value == ABSENT ? null : value;
+        }
+
+        return mExtras == null ? null : mExtras.get(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        int index = indexOf(key);
+        if (index < 0) {
+            if (mExtras == null) {
+                mExtras = Envelope.obtain();
+            }
+            return mExtras.put(key, value);
+        }
+
+        Object old = mValues[index];
+        mValues[index] = value;
+
+        if (old == ABSENT) {
+            mSize++;
+            return null;
+        }
+
+        return old;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return mExtras == null ? null : mExtras.remove(key);
+        }
+
+        return removeAt(index);
+    }
+
+    private Object removeAt(int index) {
+        Object old = mValues[index];
+        if (old == ABSENT) {
+            return null;
+        }
+
+        mValues[index] = ABSENT;
+        mSize--;
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(mValues, ABSENT);
+        mSize = 0;
+
+        if (mExtras != null) {
+            mExtras.recycle();
+            mExtras = null;
+        }
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new EntrySet();
+    }
+
+    private final class EntrySet extends AbstractSet<Entry<String, Object>> {
+        @Override
+        public int size() {
+            return FixedEnvelope.this.size();
+        }
+
+        @Override
+        public Iterator<Entry<String, Object>> iterator() {
+            return new Iterator<Entry<String, Object>>() {
+                private int mNext = nextSlot(0);
+                private int mLast = -1;
+                private Iterator<Entry<String, Object>> mExtrasIterator;
+
+                private int nextSlot(int from) {
+                    while (from < mValues.length && mValues[from] == ABSENT) {
+                        from++;
+                    }
+                    return from;
+                }
+
+                private Iterator<Entry<String, Object>> extrasIterator() {
+                    if (mExtrasIterator == null && mExtras != null) {
+                        mExtrasIterator = mExtras.entrySet().iterator();
+                    }
+                    return mExtrasIterator;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    if (mNext < mValues.length) {
+                        return true;
+                    }
+
+                    Iterator<Entry<String, Object>> extras = extrasIterator();
+                    return extras != null && extras.hasNext();
+                }
+
+                @Override
+                public Entry<String, Object> next() {
+                    if (mNext < mValues.length) {
+                        mLast = mNext;
+                        mNext = nextSlot(mNext + 1);
+                        return new SlotEntry(mLast);
+                    }
+
+                    Iterator<Entry<String, Object>> extras = extrasIterator();
+                    if (extras == null) {
+                        throw new NoSuchElementException();
+                    }
+
+                    mLast = -1;
+                    return extras.next();
+                }
+
+                @Override
+                public void remove() {
+                    if (mLast >= 0) {
+                        removeAt(mLast);
+                        mLast = -1;
+                        return;
+                    }
+
+                    if (mExtrasIterator == null) {
+                        throw new IllegalStateException();
+                    }
+
+                    mExtrasIterator.remove();
+                }
+            };
+        }
+    }
+
+    private final class SlotEntry extends SimpleEntry<String, Object> {
+        private static final long serialVersionUID = 1L;
+
+        private final int mIndex;
+
+        SlotEntry(int index) {
+            super(mKeys[index], mValues[index]);
+            mIndex = index;
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            mValues[mIndex] = value;
+            return super.setValue(value);
+        }
+    }
+}
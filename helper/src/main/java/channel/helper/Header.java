@@ -0,0 +1,144 @@
+package channel.helper;
+
+import java.util.Map;
+
+/**
+ * The header keys of the message, and the helper methods to read them.
+ * <p>
+ * The channel id and the method id are packed in one {@code long}, the channel id in the high 32 bits.
+ * The method id carries the {@link Channel#version()} in the high 8 bits and the fingerprint of the
+ * method signature in the low 24 bits, so a call of another schema doesn't match any method id of the
+ * dispatcher.
+ */
+public final class Header {
+    /**
+     * The packed header, a {@link Long}, see {@link #pack(int, int)}.
+     */
+    public static final String KEY_HEADER = "__header";
+    public static final String KEY_FLAGS = "__flags";
+    public static final String KEY_DEADLINE = "__deadline";
+    public static final String KEY_EMIT_TIME = "__emit_time";
+
+    /**
+     * The method is annotated with {@link Conflate}.
+     */
+    public static final int FLAG_CONFLATE = 1;
+
+    /**
+     * The method is annotated with {@link Urgent}.
+     */
+    public static final int FLAG_URGENT = 1 << 1;
+
+    /**
+     * The method is annotated with {@link Async}.
+     */
+    public static final int FLAG_ASYNC = 1 << 2;
+
+    /**
+     * The method takes a {@link Reply} param, the pipe needs a way to carry the result back.
+     */
+    public static final int FLAG_REQUEST = 1 << 3;
+
+    /**
+     * The channel id of a message which has no header.
+     */
+    public static final int NO_CHANNEL = 0;
+
+    /**
+     * The shift of the schema version in the method id.
+     */
+    public static final int VERSION_SHIFT = 24;
+
+    /**
+     * The mask of the signature fingerprint in the method id.
+     */
+    public static final int FINGERPRINT_MASK = (1 << VERSION_SHIFT) - 1;
+
+    private Header() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Packs the channel id and the method id in one {@code long}, the routing of a message is decided
+     * by comparing it.
+     */
+    public static long pack(int channelId, int methodId) {
+        return ((long) channelId << 32) | (methodId & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Returns the packed header, or 0 if the message has no header.
+     */
+    public static long getHeader(Map<String, Object> data) {
+        Object header = data.get(KEY_HEADER);
+        if (header instanceof Long) {
+            return (Long) header;
+        }
+
+        return 0;
+    }
+
+    public static int getChannelId(long header) {
+        return (int) (header >>> 32);
+    }
+
+    public static int getMethodId(long header) {
+        return (int) header;
+    }
+
+    public static int getChannelId(Map<String, Object> data) {
+        return getChannelId(getHeader(data));
+    }
+
+    public static int getMethodId(Map<String, Object> data) {
+        return getMethodId(getHeader(data));
+    }
+
+    /**
+     * Returns the {@link Channel#version()} of the method id.
+     */
+    public static int getVersion(int methodId) {
+        return methodId >>> VERSION_SHIFT;
+    }
+
+    /**
+     * Returns the deadline of a call of a {@link Ttl} method, in {@link System#nanoTime()}, or 0 if
+     * the call doesn't expire.
+     */
+    public static long getDeadline(Map<String, Object> data) {
+        Object deadline = data.get(KEY_DEADLINE);
+        if (deadline instanceof Long) {
+            return (Long) deadline;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Returns the emit time stamped by the pipe, in {@link System#nanoTime()}, or 0. See {@link Metrics}.
+     */
+    public static long getEmitTime(Map<String, Object> data) {
+        Object emitTime = data.get(KEY_EMIT_TIME);
+        if (emitTime instanceof Long) {
+            return (Long) emitTime;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Returns {@code true} if the deadline is not 0 and has passed.
+     */
+    public static boolean isExpired(long deadline) {
+        return deadline != 0 && System.nanoTime() - deadline > 0;
+    }
+
+    public static int getFlags(Map<String, Object> data) {
+        Object flags = data.get(KEY_FLAGS);
+        if (flags instanceof Integer) {
+            return (Integer) flags;
+        }
+
+        return 0;
+    }
+}
@@ -0,0 +1,57 @@
+package channel.helper;
+
+import java.util.Map;
+
+/**
+ * A typed method call, generated by the processor for every method of a {@link Channel} interface.
+ * <p>
+ * Primitive arguments are kept in primitive fields, so an invocation can be sent through a
+ * {@link TypedEmitter} without boxing and hashing.
+ */
+public interface Invocation {
+    int getChannelId();
+
+    int getMethodId();
+
+    /**
+     * The flags of the method, see {@link Header#FLAG_CONFLATE}, {@link Header#FLAG_URGENT},
+     * {@link Header#FLAG_ASYNC} and {@link Header#FLAG_REQUEST}.
+     */
+    int getFlags();
+
+    /**
+     * The deadline of the call if the method is annotated with {@link Ttl}, in {@link System#nanoTime()},
+     * otherwise 0. See {@link Header#isExpired(long)}.
+     */
+    long getDeadline();
+
+    /**
+     * Replaces the deadline, used when the call is copied, so the copy expires with the original.
+     * Does nothing if the method is not annotated with {@link Ttl}.
+     */
+    void setDeadline(long deadline);
+
+    /**
+     * The emit time stamped by the pipe, in {@link System#nanoTime()}, 0 if not stamped. See {@link Metrics}.
+     */
+    long getEmitTime();
+
+    void setEmitTime(long emitTime);
+
+    /**
+     * Converts this invocation to the map based representation, used when the receiver side
+     * is not a {@link TypedDispatcher}.
+     */
+    Map<String, Object> toMap();
+
+    /**
+     * Writes all arguments, it can be read by the {@link ChannelCodec} of the channel.
+     */
+    void writeTo(WireWriter writer);
+
+    /**
+     * Returns this invocation to the pool. Must not use it after recycled, and must not recycle it
+     * more than once.
+     */
+    void recycle();
+}
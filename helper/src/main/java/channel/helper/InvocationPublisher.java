@@ -0,0 +1,435 @@
+package channel.helper;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A dispatcher that doesn't push the calls to a receiver, but publishes them as {@link Invocation}s
+ * to an {@link InvocationSubscriber}, which pulls them by {@link Subscription#request(long)} at its
+ * own pace, for example in batches. It is the Java 7 counterpart of
+ * {@code java.util.concurrent.Flow.Publisher}.
+ * <p>
+ * The calls are copied into a bounded buffer by the generated emitter and dispatcher of the channel,
+ * so the pipe can recycle its own message as usual. A copy keeps the deadline of the original call. When the buffer is full, the
+ * {@link OverflowPolicy} decides: drop the oldest call, drop the new call, or block the dispatching
+ * thread until the subscriber requests more. The calls dispatched before {@link #subscribe(InvocationSubscriber)}
+ * are buffered too.
+ * <pre>
+ * InvocationPublisher&lt;Foo&gt; publisher = new InvocationPublisher&lt;&gt;(Foo.class);
+ * HandlerPipe pipe = new HandlerPipe(publisher);
+ *
+ * final Dispatcher dispatcher = ChannelHelper.newDispatcher(Foo.class, receiver);
+ * publisher.subscribe(new InvocationSubscriber() {
+ *     public void onSubscribe(Subscription subscription) {
+ *         subscription.request(16);
+ *     }
+ *
+ *     public void onNext(Invocation invocation) {
+ *         DispatcherUtil.dispatch(dispatcher, invocation);
+ *         invocation.recycle();
+ *     }
+ *     ...
+ * });
+ * </pre>
+ * Only one subscriber is allowed. If {@link InvocationSubscriber#onNext(Invocation)} throws, the
+ * subscription is cancelled and the exception is delivered to
+ * {@link InvocationSubscriber#onError(Throwable)}.
+ *
+ * @param <T> the channel interface
+ */
+public final class InvocationPublisher<T> implements TypedDispatcher {
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final int mChannelId;
+    private final int mCapacity;
+    private final OverflowPolicy mPolicy;
+
+    // copies the calls, the emitter is the receiver of the dispatcher, keep it strongly reachable
+    private final T mEmitter;
+    private final Dispatcher mCopier;
+    // the copy made by mCopier on the current thread, taken by the dispatch methods
+    private final ThreadLocal<Invocation[]> mCopy = new ThreadLocal<Invocation[]>() {
+        @Override
+        protected Invocation[] initialValue() {
+            return new Invocation[1];
+        }
+    };
+
+    // guards the buffer and the waiting of BLOCK
+    private final Object mLock = new Object();
+    private final ArrayDeque<Invocation> mBuffer = new ArrayDeque<>();
+    private int mWaiters;
+
+    private final AtomicReference<InvocationSubscriber> mSubscriber = new AtomicReference<>();
+    private volatile boolean mSubscribed;
+    private final AtomicLong mRequested = new AtomicLong();
+    // serializes the calls to the subscriber, only the thread that increases it from 0 drains
+    private final AtomicInteger mWip = new AtomicInteger();
+    private volatile Thread mDrainThread;
+
+    private volatile boolean mCancelled;
+    // written before mDone
+    private Throwable mError;
+    private volatile boolean mDone;
+    private boolean mTerminated;
+
+    private final AtomicLong mDroppedCount = new AtomicLong();
+    private final AtomicLong mExpiredCount = new AtomicLong();
+
+    public InvocationPublisher(Class<T> clazz) {
+        this(ChannelHelper.getFactory(clazz), DEFAULT_CAPACITY, OverflowPolicy.DROP_NEWEST);
+    }
+
+    /**
+     * @param capacity the max count of buffered calls.
+     * @param policy   what to do with a new call when the buffer is full.
+     */
+    public InvocationPublisher(ChannelFactory<T> factory, int capacity, OverflowPolicy policy) {
+        if (factory == null) {
+            throw new IllegalArgumentException("factory is null");
+        }
+
+        if (policy == null) {
+            throw new IllegalArgumentException("policy is null");
+        }
+
+        if (capacity < 1) {
+            throw new IllegalArgumentException("illegal capacity: " + capacity);
+        }
+
+        mChannelId = factory.getChannelId();
+        mCapacity = capacity;
+        mPolicy = policy;
+
+        mEmitter = factory.newEmitter(new TypedEmitter() {
+            @Override
+            public void emit(Invocation invocation) {
+                mCopy.get()[0] = invocation;
+            }
+
+            @Override
+            public void emit(Map<String, Object> data) {
+                // not called, the generated emitter prefers the typed path
+                Envelope.recycle(data);
+            }
+        });
+        // copies on the dispatching thread, a RunOn hop would reorder the calls
+        mCopier = factory.newDirectDispatcher(mEmitter);
+    }
+
+    /**
+     * Subscribes, a second subscriber receives {@link IllegalStateException} by
+     * {@link InvocationSubscriber#onError(Throwable)}.
+     */
+    public void subscribe(InvocationSubscriber subscriber) {
+        if (subscriber == null) {
+            throw new IllegalArgumentException("subscriber is null");
+        }
+
+        if (!mSubscriber.compareAndSet(null, subscriber)) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("only one subscriber is allowed"));
+            return;
+        }
+
+        subscriber.onSubscribe(new Subscription() {
+            @Override
+            public void request(long n) {
+                InvocationPublisher.this.request(n);
+            }
+
+            @Override
+            public void cancel() {
+                InvocationPublisher.this.cancel();
+            }
+        });
+
+        // the demand requested in onSubscribe() is delivered after it returns
+        mSubscribed = true;
+        drain();
+    }
+
+    /**
+     * No more calls are accepted, the subscriber receives {@link InvocationSubscriber#onComplete()}
+     * after the buffered calls.
+     */
+    public void complete() {
+        synchronized (mLock) {
+            mDone = true;
+            mLock.notifyAll();
+        }
+
+        drain();
+    }
+
+    /**
+     * Returns the count of the calls dropped by the {@link OverflowPolicy}.
+     */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    /**
+     * Returns the count of the {@link Ttl} calls expired before they were delivered.
+     */
+    public long getExpiredCount() {
+        return mExpiredCount.get();
+    }
+
+    private void request(long n) {
+        if (n <= 0) {
+            synchronized (mLock) {
+                if (!mDone) {
+                    mError = new IllegalArgumentException("illegal request: " + n);
+                    mDone = true;
+                }
+                clear();
+            }
+
+            drain();
+            return;
+        }
+
+        while (true) {
+            long requested = mRequested.get();
+            if (requested == Long.MAX_VALUE) {
+                break;
+            }
+
+            long next = requested + n;
+            if (next < 0) {
+                next = Long.MAX_VALUE;
+            }
+
+            if (mRequested.compareAndSet(requested, next)) {
+                break;
+            }
+        }
+
+        drain();
+    }
+
+    private void cancel() {
+        synchronized (mLock) {
+            mCancelled = true;
+            clear();
+        }
+    }
+
+    // must hold mLock
+    private void clear() {
+        Invocation invocation;
+        while ((invocation = mBuffer.poll()) != null) {
+            invocation.recycle();
+        }
+
+        mLock.notifyAll();
+    }
+
+    private void offer(Invocation invocation) {
+        synchronized (mLock) {
+            if (!makeRoom()) {
+                invocation.recycle();
+                mDroppedCount.incrementAndGet();
+                return;
+            }
+
+            if (mCancelled || mDone) {
+                invocation.recycle();
+                return;
+            }
+
+            mBuffer.offer(invocation);
+        }
+
+        drain();
+    }
+
+    // must hold mLock, returns false if the new call is dropped
+    private boolean makeRoom() {
+        while (!mCancelled && !mDone && mBuffer.size() >= mCapacity) {
+            switch (mPolicy) {
+                case DROP_OLDEST:
+                    mBuffer.poll().recycle();
+                    mDroppedCount.incrementAndGet();
+                    return true;
+                case DROP_NEWEST:
+                    return false;
+                case BLOCK:
+                    // the subscriber may dispatch to this publisher in onNext(), it can't wait for itself
+                    if (mDrainThread == Thread.currentThread()) {
+                        return true;
+                    }
+
+                    try {
+                        mWaiters++;
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    } finally {
+                        mWaiters--;
+                    }
+                    break;
+            }
+        }
+
+        return true;
+    }
+
+    private Invocation poll() {
+        synchronized (mLock) {
+            Invocation invocation = mBuffer.poll();
+            if (invocation != null && mWaiters > 0) {
+                mLock.notifyAll();
+            }
+            return invocation;
+        }
+    }
+
+    private boolean isEmpty() {
+        synchronized (mLock) {
+            return mBuffer.isEmpty();
+        }
+    }
+
+    private void drain() {
+        if (mWip.getAndIncrement() != 0) {
+            return;
+        }
+
+        mDrainThread = Thread.currentThread();
+        try {
+            int missed = 1;
+            do {
+                if (mSubscribed && !mCancelled && !mTerminated) {
+                    drainSubscriber(mSubscriber.get());
+                }
+
+                missed = mWip.addAndGet(-missed);
+            } while (missed != 0);
+        } finally {
+            mDrainThread = null;
+        }
+    }
+
+    // only called by the drain thread
+    private void drainSubscriber(InvocationSubscriber subscriber) {
+        long requested = mRequested.get();
+        long emitted = 0;
+
+        while (emitted != requested && !mCancelled) {
+            Invocation invocation = poll();
+            if (invocation == null) {
+                break;
+            }
+
+            if (Header.isExpired(invocation.getDeadline())) {
+                mExpiredCount.incrementAndGet();
+                invocation.recycle();
+                continue;
+            }
+
+            try {
+                subscriber.onNext(invocation);
+            } catch (RuntimeException e) {
+                // the subscriber is broken, don't deliver to it any more
+                cancel();
+                mTerminated = true;
+                subscriber.onError(e);
+                return;
+            }
+            emitted++;
+        }
+
+        if (emitted != 0 && requested != Long.MAX_VALUE) {
+            mRequested.addAndGet(-emitted);
+        }
+
+        // an error is delivered at once, the completion after the buffer
+        if (!mCancelled && mDone && (mError != null || isEmpty())) {
+            mTerminated = true;
+            if (mError != null) {
+                subscriber.onError(mError);
+            } else {
+                subscriber.onComplete();
+            }
+        }
+    }
+
+    @Override
+    public boolean dispatch(Map<String, Object> data) {
+        if (Header.getChannelId(data) != mChannelId) {
+            return false;
+        }
+
+        if (Header.isExpired(Header.getDeadline(data))) {
+            mExpiredCount.incrementAndGet();
+            return true;
+        }
+
+        Invocation[] copy = mCopy.get();
+        boolean dispatched = mCopier.dispatch(data);
+        offerCopy(copy, Header.getDeadline(data));
+        return dispatched;
+    }
+
+    @Override
+    public boolean match(Map<String, Object> data) {
+        return Header.getChannelId(data) == mChannelId;
+    }
+
+    @Override
+    public boolean dispatch(Invocation invocation) {
+        if (invocation.getChannelId() != mChannelId) {
+            return false;
+        }
+
+        if (Header.isExpired(invocation.getDeadline())) {
+            mExpiredCount.incrementAndGet();
+            return true;
+        }
+
+        Invocation[] copy = mCopy.get();
+        boolean dispatched = DispatcherUtil.dispatch(mCopier, invocation);
+        offerCopy(copy, invocation.getDeadline());
+        return dispatched;
+    }
+
+    // the copy was emitted with a new deadline counted from now, restore the original one
+    private void offerCopy(Invocation[] copy, long deadline) {
+        Invocation invocation = copy[0];
+        if (invocation == null) {
+            return;
+        }
+
+        // cleared before offer(), the subscriber may dispatch to this publisher again
+        copy[0] = null;
+        if (deadline != 0) {
+            invocation.setDeadline(deadline);
+        }
+
+        offer(invocation);
+    }
+
+    @Override
+    public boolean match(Invocation invocation) {
+        return invocation.getChannelId() == mChannelId;
+    }
+
+    @Override
+    public ChannelCodec getCodec(int channelId) {
+        return DispatcherUtil.getCodec(mCopier, channelId);
+    }
+}
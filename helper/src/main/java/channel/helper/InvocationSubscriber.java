@@ -0,0 +1,31 @@
+package channel.helper;
+
+/**
+ * Receives the invocations of an {@link InvocationPublisher} at its own pace, like
+ * {@code java.util.concurrent.Flow.Subscriber} for Java 7.
+ * <p>
+ * The methods are never called concurrently, but they may be called on different threads: on the
+ * thread that dispatches to the publisher, or on the thread that calls {@link Subscription#request(long)}.
+ */
+public interface InvocationSubscriber {
+    /**
+     * Called once, before any other method. Nothing is delivered until
+     * {@link Subscription#request(long)} is called.
+     */
+    void onSubscribe(Subscription subscription);
+
+    /**
+     * The subscriber owns the invocation, call {@link Invocation#recycle()} after it is processed.
+     */
+    void onNext(Invocation invocation);
+
+    /**
+     * The subscription is terminated by an error, no more calls after it.
+     */
+    void onError(Throwable throwable);
+
+    /**
+     * The publisher is completed and all buffered invocations are delivered, no more calls after it.
+     */
+    void onComplete();
+}
@@ -0,0 +1,18 @@
+package channel.helper;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Target;
+
+/**
+ * The argument is sent out of band, only a handle is written: for example, {@code MessengerPipe}
+ * puts the bytes in a shared memory region, so the payload doesn't fill the Binder transaction
+ * buffer, and the receiver maps the region without copying.
+ * <p>
+ * Only for the param of type {@code byte[]} or {@link java.nio.ByteBuffer}. A {@code ByteBuffer}
+ * param is received as a read-only mapped buffer, a {@code byte[]} param is copied out of it once.
+ * <p>
+ * It's only used by the {@link ChannelCodec}, the other pipes pass the argument as usual.
+ */
+@Target(ElementType.PARAMETER)
+public @interface LargePayload {
+}
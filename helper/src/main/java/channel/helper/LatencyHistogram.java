@@ -0,0 +1,104 @@
+package channel.helper;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies in nanoseconds.
+ * <p>
+ * Every power of two is split into 4 buckets, so a recorded value is off by at most 25%, and the
+ * whole range of long fits in 248 buckets. Recording is an atomic increment, no lock and no
+ * allocation.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * Records a latency, the negative values are ignored.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+
+        mBuckets.incrementAndGet(indexOf(nanos));
+
+        long max;
+        while (nanos > (max = mMax.get())) {
+            if (mMax.compareAndSet(max, nanos)) {
+                break;
+            }
+        }
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += mBuckets.get(i);
+        }
+        return count;
+    }
+
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     * Returns the upper bound of the bucket that contains the given percentile, for example
+     * {@code getPercentile(0.99)}, or 0 if nothing is recorded.
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 1) {
+            throw new IllegalArgumentException("illegal percentile: " + percentile);
+        }
+
+        // a snapshot, the concurrent records may be missed
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = mBuckets.get(i);
+            total += counts[i];
+        }
+
+        if (total == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(percentile * total));
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts[i];
+            if (count >= target) {
+                return Math.min(upperBoundOf(i), getMax());
+            }
+        }
+
+        return getMax();
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = index % SUB_BUCKETS;
+        long lower = (long) (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+        return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,75 @@
+package channel.helper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+
+/**
+ * A {@link Wakeup} between two processes of the same machine by a UDP datagram on the loopback
+ * interface, for a {@link SharedRing} on the plain JVM. The datagrams are queued by the kernel, so a
+ * signal sent before the consumer waits is not lost.
+ * <p>
+ * The consumer binds a port and publishes it by {@link SharedRing#setWakeupId(int)}, the producer
+ * connects to it.
+ */
+public final class LoopbackWakeup implements Wakeup, Closeable {
+    private final DatagramSocket mSocket;
+    private final DatagramPacket mPacket;
+
+    private LoopbackWakeup(DatagramSocket socket, DatagramPacket packet) {
+        mSocket = socket;
+        mPacket = packet;
+    }
+
+    /**
+     * Binds a free port of the loopback interface, for the consumer.
+     */
+    public static LoopbackWakeup bind() throws IOException {
+        DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        return new LoopbackWakeup(socket, new DatagramPacket(new byte[1], 1));
+    }
+
+    /**
+     * Connects to the port of the consumer, for the producer.
+     */
+    public static LoopbackWakeup connect(int port) throws IOException {
+        DatagramSocket socket = new DatagramSocket();
+        return new LoopbackWakeup(socket, new DatagramPacket(new byte[1], 1, InetAddress.getLoopbackAddress(), port));
+    }
+
+    public int getPort() {
+        return mSocket.getLocalPort();
+    }
+
+    @Override
+    public void signal() {
+        try {
+            mSocket.send(mPacket);
+        } catch (IOException e) {
+            // the consumer is gone, or it will find the records by its time-out
+            Errors.report("LoopbackWakeup signal failed, port: " + mPacket.getPort(), e);
+        }
+    }
+
+    /**
+     * Waits for a signal, returns {@code false} if timed out. A signal may be left over from records
+     * that were already read, then the consumer finds the ring empty and waits again.
+     */
+    public boolean await(int timeoutMillis) throws IOException {
+        try {
+            mSocket.setSoTimeout(timeoutMillis);
+            mSocket.receive(mPacket);
+            return true;
+        } catch (SocketTimeoutException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        mSocket.close();
+    }
+}
@@ -0,0 +1,69 @@
+package channel.helper;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The metrics of a method recorded by {@link MetricsRecorder}.
+ */
+public final class MethodMetrics {
+    private final int mChannelId;
+    private final int mMethodId;
+
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSerializedCount = new AtomicLong();
+    private final AtomicLong mPayloadBytes = new AtomicLong();
+    private final LatencyHistogram mLatency = new LatencyHistogram();
+
+    MethodMetrics(int channelId, int methodId) {
+        mChannelId = channelId;
+        mMethodId = methodId;
+    }
+
+    void record(int payloadSize, long latencyNanos) {
+        mCount.incrementAndGet();
+
+        if (payloadSize >= 0) {
+            mSerializedCount.incrementAndGet();
+            mPayloadBytes.addAndGet(payloadSize);
+        }
+
+        mLatency.record(latencyNanos);
+    }
+
+    public int getChannelId() {
+        return mChannelId;
+    }
+
+    public int getMethodId() {
+        return mMethodId;
+    }
+
+    /**
+     * The count of the dispatched calls.
+     */
+    public long getCount() {
+        return mCount.get();
+    }
+
+    /**
+     * The total size of the serialized calls, in bytes.
+     */
+    public long getPayloadBytes() {
+        return mPayloadBytes.get();
+    }
+
+    /**
+     * The average size of the serialized calls, in bytes, or 0 if no call is serialized.
+     */
+    public long getAveragePayloadSize() {
+        long count = mSerializedCount.get();
+        return count == 0 ? 0 : mPayloadBytes.get() / count;
+    }
+
+    /**
+     * The emit-to-dispatch latencies, the calls emitted before the sink is installed are not included.
+     */
+    public LatencyHistogram getLatency() {
+        return mLatency;
+    }
+}
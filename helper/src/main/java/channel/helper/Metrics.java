@@ -0,0 +1,84 @@
+package channel.helper;
+
+import java.util.Map;
+
+/**
+ * The instrumentation of the pipes: a pipe stamps the emit time of every call, and reports the call
+ * to the installed {@link MetricsSink} when it is dispatched.
+ * <p>
+ * There is no sink by default, then the cost is a volatile read per call: no timestamp, no record.
+ */
+public final class Metrics {
+    private static volatile MetricsSink sSink;
+
+    private Metrics() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Installs the sink, or uninstalls it by {@code null}.
+     */
+    public static void setSink(MetricsSink sink) {
+        sSink = sink;
+    }
+
+    public static MetricsSink getSink() {
+        return sSink;
+    }
+
+    /**
+     * Stamps the emit time of the invocation, called by the pipe when the invocation is emitted.
+     */
+    public static void stamp(Invocation invocation) {
+        if (sSink != null) {
+            invocation.setEmitTime(System.nanoTime());
+        }
+    }
+
+    /**
+     * Stamps the emit time of the map, called by the pipe when the map is emitted.
+     */
+    public static void stamp(Map<String, Object> data) {
+        if (sSink != null) {
+            data.put(Header.KEY_EMIT_TIME, System.nanoTime());
+        }
+    }
+
+    /**
+     * Reports the invocation to the sink, called by the pipe before the invocation is dispatched.
+     *
+     * @param payloadSize the size of the serialized invocation in bytes, or -1.
+     */
+    public static void record(Invocation invocation, int payloadSize) {
+        MetricsSink sink = sSink;
+        if (sink == null) {
+            return;
+        }
+
+        sink.onDispatch(invocation.getChannelId(), invocation.getMethodId(), payloadSize,
+                getLatency(invocation.getEmitTime()));
+    }
+
+    /**
+     * Reports the map to the sink, called by the pipe before the map is dispatched.
+     *
+     * @param payloadSize the size of the serialized map in bytes, or -1.
+     */
+    public static void record(Map<String, Object> data, int payloadSize) {
+        MetricsSink sink = sSink;
+        if (sink == null) {
+            return;
+        }
+
+        sink.onDispatch(Header.getChannelId(data), Header.getMethodId(data), payloadSize,
+                getLatency(Header.getEmitTime(data)));
+    }
+
+    private static long getLatency(long emitTime) {
+        if (emitTime == 0) {
+            return -1;
+        }
+
+        return System.nanoTime() - emitTime;
+    }
+}
@@ -0,0 +1,166 @@
+package channel.helper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A {@link MetricsSink} that counts the calls, the payload sizes and the latencies of every method.
+ * <p>
+ * The metrics are kept in a fixed open-addressing table keyed by (channel id, method id), recording
+ * a call doesn't lock and doesn't allocate, except the first call of a method. The methods that
+ * don't fit in the table are not recorded, see {@link #getOverflowCount()}.
+ * <pre>
+ * MetricsRecorder recorder = new MetricsRecorder();
+ * Metrics.setSink(recorder);
+ * ...
+ * Log.d(TAG, recorder.report(Foo__ChannelHelper.FACTORY, Bar__ChannelHelper.FACTORY));
+ * </pre>
+ */
+public final class MetricsRecorder implements MetricsSink {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final AtomicReferenceArray<MethodMetrics> mTable;
+    private final int mMask;
+    private final AtomicLong mOverflowCount = new AtomicLong();
+
+    public MetricsRecorder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the max count of methods, it will be rounded up to a power of two.
+     */
+    public MetricsRecorder(int capacity) {
+        if (capacity < 1 || capacity > (1 << 20)) {
+            throw new IllegalArgumentException("illegal capacity: " + capacity);
+        }
+
+        int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        mTable = new AtomicReferenceArray<>(size);
+        mMask = size - 1;
+    }
+
+    @Override
+    public void onDispatch(int channelId, int methodId, int payloadSize, long latencyNanos) {
+        MethodMetrics metrics = getOrCreate(channelId, methodId);
+        if (metrics == null) {
+            mOverflowCount.incrementAndGet();
+            return;
+        }
+
+        metrics.record(payloadSize, latencyNanos);
+    }
+
+    private MethodMetrics getOrCreate(int channelId, int methodId) {
+        int hash = (channelId * 31 + methodId) * 0x9E3779B9;
+        int index = (hash ^ (hash >>> 16)) & mMask;
+
+        // linear probing, the entries are never removed
+        for (int i = 0; i <= mMask; i++) {
+            MethodMetrics metrics = mTable.get(index);
+            if (metrics == null) {
+                MethodMetrics created = new MethodMetrics(channelId, methodId);
+                if (mTable.compareAndSet(index, null, created)) {
+                    return created;
+                }
+                metrics = mTable.get(index);
+            }
+
+            if (metrics.getChannelId() == channelId && metrics.getMethodId() == methodId) {
+                return metrics;
+            }
+
+            index = (index + 1) & mMask;
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the metrics of the method, or {@code null} if no call is recorded.
+     */
+    public MethodMetrics get(int channelId, int methodId) {
+        for (int i = 0; i <= mMask; i++) {
+            MethodMetrics metrics = mTable.get(i);
+            if (metrics != null && metrics.getChannelId() == channelId && metrics.getMethodId() == methodId) {
+                return metrics;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the metrics of all recorded methods.
+     */
+    public List<MethodMetrics> getAll() {
+        List<MethodMetrics> all = new ArrayList<>();
+        for (int i = 0; i <= mMask; i++) {
+            MethodMetrics metrics = mTable.get(i);
+            if (metrics != null) {
+                all.add(metrics);
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Returns the count of the dispatched calls of the channel.
+     */
+    public long getChannelCount(int channelId) {
+        long count = 0;
+        for (MethodMetrics metrics : getAll()) {
+            if (metrics.getChannelId() == channelId) {
+                count += metrics.getCount();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the count of the calls not recorded because the table is full.
+     */
+    public long getOverflowCount() {
+        return mOverflowCount.get();
+    }
+
+    /**
+     * Returns a readable report, one line per method. The names are resolved by the factories,
+     * the methods of the other channels are shown by their ids.
+     */
+    public String report(ChannelFactory<?>... factories) {
+        Map<Integer, ChannelFactory<?>> factoryMap = new HashMap<>();
+        for (ChannelFactory<?> factory : factories) {
+            factoryMap.put(factory.getChannelId(), factory);
+        }
+
+        StringBuilder builder = new StringBuilder();
+        for (MethodMetrics metrics : getAll()) {
+            LatencyHistogram latency = metrics.getLatency();
+            builder.append(String.format(Locale.US,
+                    "%s count=%d bytes=%d p50=%dus p99=%dus max=%dus%n",
+                    getName(factoryMap.get(metrics.getChannelId()), metrics),
+                    metrics.getCount(),
+                    metrics.getPayloadBytes(),
+                    TimeUnit.NANOSECONDS.toMicros(latency.getPercentile(0.5)),
+                    TimeUnit.NANOSECONDS.toMicros(latency.getPercentile(0.99)),
+                    TimeUnit.NANOSECONDS.toMicros(latency.getMax())));
+        }
+        return builder.toString();
+    }
+
+    private static String getName(ChannelFactory<?> factory, MethodMetrics metrics) {
+        if (factory == null) {
+            return metrics.getChannelId() + "#" + metrics.getMethodId();
+        }
+
+        String methodName = factory.getMethodName(metrics.getMethodId());
+        return factory.getChannelName() + "#" + (methodName == null ? metrics.getMethodId() : methodName);
+    }
+}
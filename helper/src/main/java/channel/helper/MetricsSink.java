@@ -0,0 +1,20 @@
+package channel.helper;
+
+/**
+ * Receives a record for every call dispatched by the pipes, install it by
+ * {@link Metrics#setSink(MetricsSink)}. See {@link MetricsRecorder}.
+ * <p>
+ * It's called on the dispatching thread right before the receiver is invoked, keep it fast and
+ * thread safe.
+ */
+public interface MetricsSink {
+    /**
+     * @param channelId    the channel id, see {@link ChannelFactory#getChannelName()}.
+     * @param methodId     the method id, see {@link ChannelFactory#getMethodName(int)}.
+     * @param payloadSize  the size of the serialized call in bytes, or -1 if the call is not serialized
+     *                     (in-process pipe).
+     * @param latencyNanos the time from emit to dispatch (the time waiting in the queue and the
+     *                     transport), or -1 if the call was emitted before the sink is installed.
+     */
+    void onDispatch(int channelId, int methodId, int payloadSize, long latencyNanos);
+}
@@ -0,0 +1,229 @@
+package channel.helper;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+
+/**
+ * Delivers every call to all live receivers of the same channel interface, in the order they were
+ * registered.
+ * <p>
+ * The receivers are held weakly, the collected receivers are removed automatically through a
+ * {@link ReferenceQueue}. The receivers are kept in a linked list that can be iterated without lock
+ * and without snapshot: a receiver registered during a dispatch may or may not receive the call,
+ * and a receiver unregistered during a dispatch may still receive it.
+ *
+ * @param <T> the channel interface
+ */
+public final class MulticastDispatcher<T> implements TypedDispatcher {
+    private final ChannelFactory<T> mFactory;
+    private final int mChannelId;
+    private final ReferenceQueue<T> mQueue = new ReferenceQueue<>();
+
+    // guards the modification of the list, the readers don't take it
+    private final Object mLock = new Object();
+    private volatile Entry<T> mHead;
+    private Entry<T> mTail;
+    private int mSize;
+
+    public MulticastDispatcher(Class<T> clazz) {
+        this(ChannelHelper.getFactory(clazz));
+    }
+
+    public MulticastDispatcher(ChannelFactory<T> factory) {
+        if (factory == null) {
+            throw new IllegalArgumentException("factory is null");
+        }
+
+        mFactory = factory;
+        mChannelId = factory.getChannelId();
+    }
+
+    /**
+     * Registers a receiver, do nothing if it is already registered.
+     */
+    public void register(T receiver) {
+        if (receiver == null) {
+            throw new IllegalArgumentException("receiver is null");
+        }
+
+        synchronized (mLock) {
+            expungeStaleEntries();
+
+            if (find(receiver) != null) {
+                return;
+            }
+
+            Entry<T> entry = new Entry<>(receiver, mQueue, mFactory.newDispatcher(receiver));
+            if (mTail == null) {
+                mHead = entry;
+            } else {
+                mTail.mNext = entry;
+            }
+            mTail = entry;
+            mSize++;
+        }
+    }
+
+    /**
+     * Returns {@code true} if the receiver was registered.
+     */
+    public boolean unregister(T receiver) {
+        synchronized (mLock) {
+            expungeStaleEntries();
+
+            Entry<T> entry = find(receiver);
+            if (entry == null) {
+                return false;
+            }
+
+            remove(entry);
+            return true;
+        }
+    }
+
+    /**
+     * Returns the count of receivers, the collected receivers are not counted once they are
+     * removed from the list.
+     */
+    public int size() {
+        synchronized (mLock) {
+            expungeStaleEntries();
+            return mSize;
+        }
+    }
+
+    // must hold mLock
+    private Entry<T> find(T receiver) {
+        for (Entry<T> entry = mHead; entry != null; entry = entry.mNext) {
+            if (entry.get() == receiver) {
+                return entry;
+            }
+        }
+
+        return null;
+    }
+
+    // must hold mLock
+    private void remove(Entry<T> entry) {
+        if (entry.mRemoved) {
+            return;
+        }
+
+        Entry<T> previous = null;
+        for (Entry<T> e = mHead; e != entry; e = e.mNext) {
+            previous = e;
+        }
+
+        // the next of the removed entry is kept, so a reader standing on it can go on.
+        if (previous == null) {
+            mHead = entry.mNext;
+        } else {
+            previous.mNext = entry.mNext;
+        }
+
+        if (mTail == entry) {
+            mTail = previous;
+        }
+
+        entry.mRemoved = true;
+        mSize--;
+    }
+
+    // must hold mLock
+    private void expungeStaleEntries() {
+        Reference<? extends T> reference;
+        while ((reference = mQueue.poll()) != null) {
+            remove(cast(reference));
+        }
+    }
+
+    private void expungeStaleEntriesIfNeeded() {
+        // poll() doesn't lock if the queue is empty
+        Reference<? extends T> reference = mQueue.poll();
+        if (reference == null) {
+            return;
+        }
+
+        synchronized (mLock) {
+            remove(cast(reference));
+            expungeStaleEntries();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Entry<T> cast(Reference<? extends T> reference) {
+        return (Entry<T>) reference;
+    }
+
+    @Override
+    public boolean dispatch(Map<String, Object> data) {
+        if (Header.getChannelId(data) != mChannelId) {
+            return false;
+        }
+
+        expungeStaleEntriesIfNeeded();
+
+        boolean result = false;
+        for (Entry<T> entry = mHead; entry != null; entry = entry.mNext) {
+            result |= entry.mDispatcher.dispatch(data);
+        }
+
+        return result;
+    }
+
+    @Override
+    public boolean match(Map<String, Object> data) {
+        return Header.getChannelId(data) == mChannelId;
+    }
+
+    @Override
+    public boolean dispatch(Invocation invocation) {
+        if (invocation.getChannelId() != mChannelId) {
+            return false;
+        }
+
+        expungeStaleEntriesIfNeeded();
+
+        boolean result = false;
+        for (Entry<T> entry = mHead; entry != null; entry = entry.mNext) {
+            result |= DispatcherUtil.dispatch(entry.mDispatcher, invocation);
+        }
+
+        return result;
+    }
+
+    @Override
+    public boolean match(Invocation invocation) {
+        return invocation.getChannelId() == mChannelId;
+    }
+
+    @Override
+    public ChannelCodec getCodec(int channelId) {
+        if (channelId != mChannelId) {
+            return null;
+        }
+
+        for (Entry<T> entry = mHead; entry != null; entry = entry.mNext) {
+            ChannelCodec codec = DispatcherUtil.getCodec(entry.mDispatcher, channelId);
+            if (codec != null) {
+                return codec;
+            }
+        }
+
+        return null;
+    }
+
+    private static final class Entry<T> extends WeakReference<T> {
+        final Dispatcher mDispatcher;
+        volatile Entry<T> mNext;
+        // guarded by mLock
+        boolean mRemoved;
+
+        Entry(T receiver, ReferenceQueue<T> queue, Dispatcher dispatcher) {
+            super(receiver, queue);
+            mDispatcher = dispatcher;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package channel.helper;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, thread safe and lock free object pool.
+ * <p>
+ * The objects are kept in a fixed number of slots, {@link #acquire()} and {@link #release(Object)}
+ * only use compare-and-set, and never allocate.
+ */
+public final class ObjectPool<T> {
+    public static final int DEFAULT_CAPACITY = 16;
+
+    private final AtomicReferenceArray<T> mSlots;
+
+    public ObjectPool() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ObjectPool(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be greater than 0.");
+        }
+
+        mSlots = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Takes an object from the pool, returns {@code null} if the pool is empty.
+     */
+    public T acquire() {
+        for (int i = 0; i < mSlots.length(); i++) {
+            T object = mSlots.get(i);
+            if (object != null && mSlots.compareAndSet(i, object, null)) {
+                return object;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Puts an object into the pool, returns {@code false} if the pool is full.
+     */
+    public boolean release(T object) {
+        for (int i = 0; i < mSlots.length(); i++) {
+            if (mSlots.get(i) == null && mSlots.compareAndSet(i, null, object)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
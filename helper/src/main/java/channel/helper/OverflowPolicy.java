@@ -0,0 +1,22 @@
+package channel.helper;
+
+/**
+ * What a pipe or an {@link InvocationPublisher} does with a new message when its queue is full.
+ */
+public enum OverflowPolicy {
+    /**
+     * Removes the oldest waiting message to make room.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Discards the new message.
+     */
+    DROP_NEWEST,
+
+    /**
+     * Blocks the sending thread until there is room. The pipes never block their Looper thread,
+     * otherwise the queue would never be drained, the message is enqueued over the capacity instead.
+     */
+    BLOCK
+}
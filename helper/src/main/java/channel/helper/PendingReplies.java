@@ -0,0 +1,213 @@
+package channel.helper;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The bounded table of the requests waiting for a reply, used by the pipes that carry the
+ * {@link Reply} across processes.
+ * <p>
+ * The pipe adds the {@link Reply} of a request and sends the returned correlation id instead,
+ * the receiver sends the id back with the result, then the pipe completes the request by the id.
+ * Many requests can be in flight at the same time.
+ * <p>
+ * The table is a fixed array indexed by the correlation id, so adding and completing don't take a
+ * lock. If a request is not completed in time, it is removed from the table and its reply fails with
+ * {@link TimeoutException}, on the timer thread or on the executor given to the constructor. If the
+ * table is full, the reply fails with {@link RejectedExecutionException} at once.
+ */
+public final class PendingReplies {
+    public static final int DEFAULT_CAPACITY = 256;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 10_000;
+
+    private static final ScheduledThreadPoolExecutor TIMER;
+
+    static {
+        TIMER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "PendingReplies-Timer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // the completed requests cancel their time-out, don't keep them in the queue
+        TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    private final AtomicReferenceArray<Entry> mEntries;
+    private final int mMask;
+    private final long mTimeoutMillis;
+    private final Executor mTimeoutExecutor;
+    private final AtomicLong mNextId = new AtomicLong(1);
+
+    public PendingReplies() {
+        this(DEFAULT_CAPACITY, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param capacity      the max count of requests in flight, it will be rounded up to a power of two.
+     * @param timeoutMillis the time-out of every request.
+     */
+    public PendingReplies(int capacity, long timeoutMillis) {
+        this(capacity, timeoutMillis, null);
+    }
+
+    /**
+     * @param capacity        the max count of requests in flight, it will be rounded up to a power of two.
+     * @param timeoutMillis   the time-out of every request.
+     * @param timeoutExecutor the executor that fails the timed out replies, {@code null} to fail them on
+     *                        the timer thread. If it rejects a task, the reply fails on the timer thread.
+     */
+    public PendingReplies(int capacity, long timeoutMillis, Executor timeoutExecutor) {
+        if (capacity < 1 || capacity > (1 << 20)) {
+            throw new IllegalArgumentException("illegal capacity: " + capacity);
+        }
+
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("illegal timeout: " + timeoutMillis);
+        }
+
+        int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        mEntries = new AtomicReferenceArray<>(size);
+        mMask = size - 1;
+        mTimeoutMillis = timeoutMillis;
+        mTimeoutExecutor = timeoutExecutor;
+    }
+
+    /**
+     * Adds the reply of a request, returns its correlation id, or 0 if the table is full (the reply
+     * has been failed).
+     */
+    public long add(Reply<?> reply) {
+        if (reply == null) {
+            throw new IllegalArgumentException("reply is null");
+        }
+
+        // the slot of an id may be taken by an earlier request that is still in flight, try the next ids
+        for (int i = 0; i <= mMask; i++) {
+            long id = mNextId.getAndIncrement();
+            if (id == 0) {
+                continue;
+            }
+
+            int index = (int) id & mMask;
+            if (mEntries.get(index) != null) {
+                continue;
+            }
+
+            final Entry entry = new Entry(id, reply);
+            if (mEntries.compareAndSet(index, null, entry)) {
+                entry.mTimeout = TIMER.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (remove(entry)) {
+                            timeout(entry.mReply);
+                        }
+                    }
+                }, mTimeoutMillis, TimeUnit.MILLISECONDS);
+                return id;
+            }
+        }
+
+        reply.onFailure(new RejectedExecutionException("too many pending requests"));
+        return 0;
+    }
+
+    /**
+     * Completes the request with the result, returns {@code false} if the request is not pending,
+     * for example it is timed out.
+     */
+    @SuppressWarnings("unchecked")
+    public boolean complete(long id, Object result) {
+        Entry entry = take(id);
+        if (entry == null) {
+            return false;
+        }
+
+        ((Reply<Object>) entry.mReply).onResult(result);
+        return true;
+    }
+
+    /**
+     * Fails the request, returns {@code false} if the request is not pending.
+     */
+    public boolean fail(long id, Exception e) {
+        Entry entry = take(id);
+        if (entry == null) {
+            return false;
+        }
+
+        entry.mReply.onFailure(e);
+        return true;
+    }
+
+    /**
+     * Returns the count of the requests in flight.
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i <= mMask; i++) {
+            if (mEntries.get(i) != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    private void timeout(final Reply<?> reply) {
+        final TimeoutException e = new TimeoutException("no reply in " + mTimeoutMillis + "ms");
+        if (mTimeoutExecutor == null) {
+            reply.onFailure(e);
+            return;
+        }
+
+        try {
+            mTimeoutExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    reply.onFailure(e);
+                }
+            });
+        } catch (RejectedExecutionException rejected) {
+            reply.onFailure(e);
+        }
+    }
+
+    private Entry take(long id) {
+        Entry entry = mEntries.get((int) id & mMask);
+        if (entry == null || entry.mId != id || !remove(entry)) {
+            return null;
+        }
+
+        ScheduledFuture<?> timeout = entry.mTimeout;
+        if (timeout != null) {
+            timeout.cancel(false);
+        }
+
+        return entry;
+    }
+
+    private boolean remove(Entry entry) {
+        return mEntries.compareAndSet((int) entry.mId & mMask, entry, null);
+    }
+
+    private static final class Entry {
+        final long mId;
+        final Reply<?> mReply;
+        // set after the entry is added, it may be missed by a fast reply, then the time-out does nothing
+        volatile ScheduledFuture<?> mTimeout;
+
+        Entry(long id, Reply<?> reply) {
+            mId = id;
+            mReply = reply;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package channel.helper;
+
+/**
+ * The callback of a request method. A method of the {@link Channel} interface that takes a
+ * {@code Reply<T>} param is a request, the receiver calls {@link #onResult(Object)} (once) when the
+ * result is ready, and the result is carried back to the caller by the pipe.
+ * <p>
+ * Use {@link ReplyFuture} if a {@link java.util.concurrent.Future} is preferred.
+ * <p>
+ * The supported result types depend on the pipe, for example {@code MessengerPipe} supports the
+ * types of {@code Parcel#writeValue(Object)}.
+ */
+public interface Reply<T> {
+    void onResult(T result);
+
+    /**
+     * The request is failed, for example {@link java.util.concurrent.TimeoutException} if the result
+     * is not received in time.
+     */
+    void onFailure(Exception e);
+}
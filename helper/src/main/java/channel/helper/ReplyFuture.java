@@ -0,0 +1,115 @@
+package channel.helper;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A {@link Reply} that can be used as a {@link Future}:
+ * <pre>
+ * ReplyFuture&lt;String&gt; future = new ReplyFuture&lt;&gt;();
+ * emitter.query(id, future);
+ * String result = future.get(1, TimeUnit.SECONDS);
+ * </pre>
+ * Don't block the thread that delivers the reply, for example the main thread of a {@code MessengerPipe}.
+ */
+public final class ReplyFuture<T> implements Reply<T>, Future<T> {
+    private final CountDownLatch mDone = new CountDownLatch(1);
+    private final Object mLock = new Object();
+
+    // guarded by mLock
+    private T mResult;
+    private Exception mFailure;
+    private boolean mCancelled;
+    private boolean mCompleted;
+
+    @Override
+    public void onResult(T result) {
+        synchronized (mLock) {
+            if (mCompleted) {
+                return;
+            }
+
+            mResult = result;
+            mCompleted = true;
+        }
+
+        mDone.countDown();
+    }
+
+    @Override
+    public void onFailure(Exception e) {
+        synchronized (mLock) {
+            if (mCompleted) {
+                return;
+            }
+
+            mFailure = e;
+            mCompleted = true;
+        }
+
+        mDone.countDown();
+    }
+
+    /**
+     * Only marks the future as cancelled, the request has been sent, the reply will be ignored.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (mLock) {
+            if (mCompleted) {
+                return false;
+            }
+
+            mCancelled = true;
+            mCompleted = true;
+        }
+
+        mDone.countDown();
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        synchronized (mLock) {
+            return mCancelled;
+        }
+    }
+
+    @Override
+    public boolean isDone() {
+        return mDone.getCount() == 0;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        mDone.await();
+        return getResult();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!mDone.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+
+        return getResult();
+    }
+
+    private T getResult() throws ExecutionException {
+        synchronized (mLock) {
+            if (mCancelled) {
+                throw new CancellationException();
+            }
+
+            if (mFailure != null) {
+                throw new ExecutionException(mFailure);
+            }
+
+            return mResult;
+        }
+    }
+}
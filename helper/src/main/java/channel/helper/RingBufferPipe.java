@@ -0,0 +1,284 @@
+package channel.helper;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-process pipe for the plain JVM, backed by a preallocated multi-producer/single-consumer ring.
+ * <p>
+ * Any thread can emit, a consumer thread takes the messages in order and dispatches them. Each slot
+ * of the ring has a sequence number: a producer claims a slot by a CAS on the tail, writes the message
+ * and then publishes the slot by its sequence, so producers never take a lock. When the ring is full,
+ * producers wait until the consumer frees a slot.
+ * <p>
+ * Call {@link #start()} before emitting, and {@link #shutdown()} to stop the consumer thread after
+ * the pending messages are dispatched. The calls emitted concurrently with {@link #shutdown()} may
+ * not be delivered.
+ */
+public final class RingBufferPipe implements TypedEmitter {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * How the consumer waits for messages, and how the producers wait for a free slot.
+     */
+    public enum WaitStrategy {
+        /**
+         * Lowest latency, but keeps a core busy.
+         */
+        BUSY_SPIN,
+
+        /**
+         * Calls {@link Thread#yield()}, a compromise between latency and CPU usage.
+         */
+        YIELD,
+
+        /**
+         * Parks the consumer until a message arrives, lowest CPU usage.
+         */
+        PARK
+    }
+
+    private static final long PRODUCER_PARK_NANOS = 1000;
+
+    private final Dispatcher mDispatcher;
+    private final WaitStrategy mWaitStrategy;
+
+    private final int mCapacity;
+    private final int mMask;
+    private final AtomicReferenceArray<Object> mBuffer;
+    // the slot is free for the producer of sequence n if it is n, and readable if it is n + 1
+    private final AtomicLongArray mSequences;
+    private final AtomicLong mTail = new AtomicLong();
+
+    // only accessed by the consumer thread
+    private long mHead;
+
+    private final Thread mConsumer;
+    private volatile boolean mConsumerWaiting;
+    private volatile boolean mRunning;
+    private volatile boolean mRecycleEnabled = true;
+
+    public RingBufferPipe(Dispatcher dispatcher) {
+        this(dispatcher, DEFAULT_CAPACITY, WaitStrategy.PARK);
+    }
+
+    /**
+     * @param capacity     the capacity of the ring, it will be rounded up to a power of two.
+     * @param waitStrategy how to wait when the ring is empty or full.
+     */
+    public RingBufferPipe(Dispatcher dispatcher, int capacity, WaitStrategy waitStrategy) {
+        if (dispatcher == null) {
+            throw new IllegalArgumentException("dispatcher is null");
+        }
+
+        if (waitStrategy == null) {
+            throw new IllegalArgumentException("waitStrategy is null");
+        }
+
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("illegal capacity: " + capacity);
+        }
+
+        mDispatcher = dispatcher;
+        mWaitStrategy = waitStrategy;
+
+        mCapacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        mMask = mCapacity - 1;
+        mBuffer = new AtomicReferenceArray<>(mCapacity);
+        mSequences = new AtomicLongArray(mCapacity);
+        for (int i = 0; i < mCapacity; i++) {
+            mSequences.set(i, i);
+        }
+
+        mConsumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                consume();
+            }
+        }, "RingBufferPipe");
+        mConsumer.setDaemon(true);
+    }
+
+    /**
+     * Starts the consumer thread.
+     */
+    public void start() {
+        mRunning = true;
+        mConsumer.start();
+    }
+
+    /**
+     * Stops the consumer thread after the pending messages are dispatched.
+     */
+    public void shutdown() {
+        mRunning = false;
+        LockSupport.unpark(mConsumer);
+    }
+
+    /**
+     * Waits for the consumer thread to stop, returns {@code true} if it stopped.
+     */
+    public boolean awaitTermination(long millis) throws InterruptedException {
+        mConsumer.join(millis);
+        return !mConsumer.isAlive();
+    }
+
+    /**
+     * Whether to recycle the {@link Envelope} and {@link Invocation} after dispatched, default is true.
+     * <p>
+     * Disable it if the dispatcher keeps a reference to the map.
+     */
+    public void setRecycleEnabled(boolean enabled) {
+        mRecycleEnabled = enabled;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    @Override
+    public void emit(Map<String, Object> data) {
+        Metrics.stamp(data);
+        offer(data);
+    }
+
+    @Override
+    public void emit(Invocation invocation) {
+        Metrics.stamp(invocation);
+        offer(invocation);
+    }
+
+    private void offer(Object message) {
+        if (!mRunning) {
+            throw new IllegalStateException("pipe is not running");
+        }
+
+        int idle = 0;
+        while (true) {
+            long tail = mTail.get();
+            int index = (int) tail & mMask;
+            long diff = mSequences.get(index) - tail;
+
+            if (diff == 0) {
+                if (mTail.compareAndSet(tail, tail + 1)) {
+                    mBuffer.lazySet(index, message);
+                    // publish, the volatile write orders the message before the sequence
+                    mSequences.set(index, tail + 1);
+                    break;
+                }
+            } else if (diff < 0) {
+                // full, wait for the consumer
+                waitForSlot(idle++);
+            }
+            // else: claimed by another producer, retry
+        }
+
+        if (mConsumerWaiting) {
+            // only the first producer needs to wake the consumer up
+            mConsumerWaiting = false;
+            LockSupport.unpark(mConsumer);
+        }
+    }
+
+    private void waitForSlot(int idle) {
+        switch (mWaitStrategy) {
+            case BUSY_SPIN:
+                break;
+            case YIELD:
+                Thread.yield();
+                break;
+            case PARK:
+                // spin a little first, the consumer frees slots quickly
+                if (idle < 100) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(this, PRODUCER_PARK_NANOS);
+                }
+                break;
+        }
+    }
+
+    private Object poll() {
+        int index = (int) mHead & mMask;
+        if (mSequences.get(index) != mHead + 1) {
+            return null;
+        }
+
+        Object message = mBuffer.get(index);
+        mBuffer.lazySet(index, null);
+        // free the slot for the producer of the next round
+        mSequences.lazySet(index, mHead + mCapacity);
+        mHead++;
+
+        return message;
+    }
+
+    private boolean isEmpty() {
+        return mSequences.get((int) mHead & mMask) != mHead + 1;
+    }
+
+    private void consume() {
+        while (true) {
+            Object message = poll();
+            if (message != null) {
+                dispatch(message);
+                continue;
+            }
+
+            // all claimed slots are dispatched
+            if (!mRunning && mTail.get() == mHead) {
+                return;
+            }
+
+            waitForMessage();
+        }
+    }
+
+    private void waitForMessage() {
+        switch (mWaitStrategy) {
+            case BUSY_SPIN:
+                break;
+            case YIELD:
+                Thread.yield();
+                break;
+            case PARK:
+                mConsumerWaiting = true;
+                // check again after the flag is visible, otherwise a message may be missed
+                if (isEmpty() && mRunning) {
+                    LockSupport.park(this);
+                }
+                mConsumerWaiting = false;
+                break;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void dispatch(Object message) {
+        try {
+            if (message instanceof Invocation) {
+                Invocation invocation = (Invocation) message;
+                Metrics.record(invocation, -1);
+                DispatcherUtil.dispatch(mDispatcher, invocation);
+
+                if (mRecycleEnabled) {
+                    invocation.recycle();
+                }
+                return;
+            }
+
+            Map<String, Object> data = (Map<String, Object>) message;
+            Metrics.record(data, -1);
+            mDispatcher.dispatch(data);
+
+            if (mRecycleEnabled) {
+                Envelope.recycle(data);
+            }
+        } catch (RuntimeException e) {
+            // keep the consumer alive, otherwise the producers will wait forever
+            Errors.report("RingBufferPipe receiver failed", e);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package channel.helper;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Target;
+
+/**
+ * The thread that the generated dispatcher calls the receiver method on, instead of the thread that
+ * the pipe delivers the call on. Use it for the heavy methods, such as a cache write, so they don't
+ * block the other calls of the pipe:
+ * <pre>
+ * &#64;Channel
+ * public interface Foo {
+ *     void onProgress(int progress);          // the thread of the pipe
+ *
+ *     &#64;RunOn("disk")
+ *     void onSave(String key, byte[] value);  // the "disk" worker
+ *
+ *     &#64;RunOn(RunOn.MAIN)
+ *     void onStateChanged(int state);         // the main thread
+ * }
+ * </pre>
+ * The value is the name of a target of {@link ExecutorRegistry}: a registered {@link java.util.concurrent.Executor},
+ * or a worker thread that is created on first use. When the call is already on the target thread,
+ * it runs inline without any allocation.
+ */
+@Target(ElementType.METHOD)
+public @interface RunOn {
+    /**
+     * The main thread, register it by {@link ExecutorRegistry#register(String, java.util.concurrent.Executor, Thread)},
+     * otherwise the methods run on the thread of the pipe.
+     */
+    String MAIN = "main";
+
+    String value();
+}
@@ -0,0 +1,321 @@
+package channel.helper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * A single-producer/single-consumer ring of byte records in a buffer shared by two processes: a
+ * {@link java.nio.MappedByteBuffer} of a file on the JVM, or the mapping of a {@code SharedMemory}
+ * on Android.
+ * <p>
+ * The consumer creates the ring, the producer attaches to it. Writing and reading a record don't
+ * involve the kernel, the producer only signals the {@link Wakeup} of the consumer when the ring
+ * goes from empty to non-empty, a busy ring costs no system call at all.
+ * <p>
+ * Layout: a header with the magic, the capacity, the wakeup id, the head (written by the consumer)
+ * and the tail (written by the producer) on their own cache lines, and then the records. A record is
+ * its length and its bytes, aligned to 4 bytes, it is never split: if it doesn't fit at the end of the
+ * ring, a padding marker is written and the record starts over at the beginning. The positions are
+ * {@code int}s, so they are read and written atomically on every platform.
+ */
+public final class SharedRing {
+    private static final int MAGIC = 0x43485247;    // CHRG
+    private static final int PADDING = -1;
+    private static final int RECORD_HEADER = 4;
+
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_CAPACITY = 4;
+    private static final int OFFSET_WAKEUP_ID = 8;
+    private static final int OFFSET_HEAD = 64;
+    private static final int OFFSET_TAIL = 128;
+
+    public static final int HEADER_SIZE = 192;
+    public static final int MIN_CAPACITY = 64;
+    public static final int MAX_CAPACITY = 1 << 30;
+
+    private final ByteBuffer mBuffer;
+    // for the bulk get and put, the position is owned by the single producer or consumer
+    private final ByteBuffer mData;
+    private final int mCapacity;
+    private final int mMask;
+
+    // the producer owns the tail and the consumer owns the head, cache the own position
+    private int mTail;
+    private int mHead;
+
+    // The JMM doesn't cover the memory shared with another process. On the VMs we run on (HotSpot and
+    // ART), a volatile write is a full fence and a volatile read an acquire fence, also for the accesses
+    // of a direct buffer, so they order the records and the positions.
+    private volatile int mFence;
+
+    private SharedRing(ByteBuffer buffer, int capacity) {
+        mBuffer = buffer.duplicate().order(ByteOrder.nativeOrder());
+        mData = mBuffer.duplicate();
+        mCapacity = capacity;
+        mMask = capacity - 1;
+
+        mHead = mBuffer.getInt(OFFSET_HEAD);
+        mTail = mBuffer.getInt(OFFSET_TAIL);
+    }
+
+    /**
+     * Returns the size of the buffer of a ring, header included.
+     */
+    public static int sizeOf(int capacity) {
+        return HEADER_SIZE + capacity;
+    }
+
+    /**
+     * Initializes an empty ring in the buffer, for the consumer.
+     *
+     * @param capacity the capacity of the records in bytes, it will be rounded up to a power of two.
+     */
+    public static SharedRing create(ByteBuffer buffer, int capacity) {
+        if (buffer == null) {
+            throw new IllegalArgumentException("buffer is null");
+        }
+
+        if (capacity < 1 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("illegal capacity: " + capacity);
+        }
+
+        int size = Math.max(MIN_CAPACITY, Integer.highestOneBit(capacity - 1) << 1);
+        if (buffer.capacity() < sizeOf(size)) {
+            throw new IllegalArgumentException("buffer is too small: " + buffer.capacity());
+        }
+
+        ByteBuffer header = buffer.duplicate().order(ByteOrder.nativeOrder());
+        header.putInt(OFFSET_CAPACITY, size);
+        header.putInt(OFFSET_WAKEUP_ID, 0);
+        header.putInt(OFFSET_HEAD, 0);
+        header.putInt(OFFSET_TAIL, 0);
+
+        SharedRing ring = new SharedRing(buffer, size);
+        // the magic is written at last, the ring is not attachable before
+        ring.putIntRelease(OFFSET_MAGIC, MAGIC);
+        return ring;
+    }
+
+    /**
+     * Attaches to the ring created in the buffer by the consumer, for the producer.
+     */
+    public static SharedRing attach(ByteBuffer buffer) {
+        if (buffer == null) {
+            throw new IllegalArgumentException("buffer is null");
+        }
+
+        ByteBuffer header = buffer.duplicate().order(ByteOrder.nativeOrder());
+        if (header.capacity() < HEADER_SIZE || header.getInt(OFFSET_MAGIC) != MAGIC) {
+            throw new IllegalArgumentException("not a ring");
+        }
+
+        int capacity = header.getInt(OFFSET_CAPACITY);
+        if (Integer.bitCount(capacity) != 1 || header.capacity() < sizeOf(capacity)) {
+            throw new IllegalArgumentException("ring is broken, capacity: " + capacity);
+        }
+
+        return new SharedRing(buffer, capacity);
+    }
+
+    /**
+     * Creates the file and a ring in it, for the consumer. The file is mapped, the mapping is released
+     * when the ring is garbage collected.
+     */
+    public static SharedRing create(File file, int capacity) throws IOException {
+        if (capacity < 1 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("illegal capacity: " + capacity);
+        }
+
+        int size = Math.max(MIN_CAPACITY, Integer.highestOneBit(capacity - 1) << 1);
+        return create(map(file, sizeOf(size), true), size);
+    }
+
+    /**
+     * Attaches to the ring in the file created by {@link #create(File, int)}, for the producer.
+     */
+    public static SharedRing attach(File file) throws IOException {
+        return attach(map(file, file.length(), false));
+    }
+
+    private static ByteBuffer map(File file, long size, boolean truncate) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            if (truncate) {
+                // zero the old content
+                randomAccessFile.setLength(0);
+                randomAccessFile.setLength(size);
+            }
+
+            // the mapping is still valid after the file is closed
+            return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Returns the id the consumer published for the producer to find its {@link Wakeup}, for example
+     * the port of a {@link LoopbackWakeup}, or 0.
+     */
+    public int getWakeupId() {
+        return getIntAcquire(OFFSET_WAKEUP_ID);
+    }
+
+    public void setWakeupId(int wakeupId) {
+        putIntRelease(OFFSET_WAKEUP_ID, wakeupId);
+    }
+
+    /**
+     * Returns the max length of a record.
+     */
+    public int getMaxRecordLength() {
+        return mCapacity / 2 - RECORD_HEADER;
+    }
+
+    /**
+     * Writes the remaining bytes of the buffer as a record, producer only. Returns {@code false} if the
+     * ring is full. Signals the wakeup if the ring was empty.
+     */
+    public boolean offer(ByteBuffer record, Wakeup wakeup) {
+        int length = record.remaining();
+        if (length > getMaxRecordLength()) {
+            throw new IllegalArgumentException("record is too large: " + length);
+        }
+
+        int size = align(RECORD_HEADER + length);
+        int tail = mTail;
+        int index = tail & mMask;
+        int padding = mCapacity - index < size ? mCapacity - index : 0;
+
+        int head = getIntAcquire(OFFSET_HEAD);
+        if (mCapacity - (tail - head) < padding + size) {
+            return false;
+        }
+
+        if (padding > 0) {
+            mBuffer.putInt(HEADER_SIZE + index, PADDING);
+            index = 0;
+        }
+
+        mBuffer.putInt(HEADER_SIZE + index, length);
+        mData.position(HEADER_SIZE + index + RECORD_HEADER);
+
+        // the record is not consumed
+        int position = record.position();
+        mData.put(record);
+        record.position(position);
+
+        // publish, the record is written before the tail
+        mTail = tail + padding + size;
+        putIntRelease(OFFSET_TAIL, mTail);
+
+        // the consumer has read everything before this record, it may be waiting
+        if (getIntAcquire(OFFSET_HEAD) == tail && wakeup != null) {
+            wakeup.signal();
+        }
+
+        return true;
+    }
+
+    /**
+     * Reads a record, consumer only. Returns {@code null} if the ring is empty.
+     */
+    public byte[] poll() {
+        int length = peek();
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] record = new byte[length];
+        mData.get(record);
+        remove(length);
+
+        return record;
+    }
+
+    /**
+     * Reads a record into the wire, without allocating, consumer only. Returns the length of the record,
+     * or -1 if the ring is empty. See {@link BufferWire#load(ByteBuffer)}.
+     */
+    public int poll(BufferWire wire) {
+        int length = peek();
+        if (length < 0) {
+            return -1;
+        }
+
+        mData.limit(mData.position() + length);
+        try {
+            wire.load(mData);
+        } finally {
+            mData.limit(mData.capacity());
+        }
+        remove(length);
+
+        return length;
+    }
+
+    // returns the length of the next record and moves mData to its bytes, or -1 if the ring is empty
+    private int peek() {
+        int head = mHead;
+        int tail = getIntAcquire(OFFSET_TAIL);
+        if (head == tail) {
+            return -1;
+        }
+
+        int index = head & mMask;
+        int length = mBuffer.getInt(HEADER_SIZE + index);
+        if (length == PADDING) {
+            // a record always follows the padding, they are published together
+            mHead = head + mCapacity - index;
+            index = 0;
+            length = mBuffer.getInt(HEADER_SIZE);
+        }
+
+        mData.position(HEADER_SIZE + index + RECORD_HEADER);
+        return length;
+    }
+
+    // frees the space of the record that has been read
+    private void remove(int length) {
+        // the record is read before the head
+        mHead += align(RECORD_HEADER + length);
+        putIntRelease(OFFSET_HEAD, mHead);
+    }
+
+    /**
+     * Returns {@code true} if there is no record to read.
+     */
+    public boolean isEmpty() {
+        return getIntAcquire(OFFSET_HEAD) == getIntAcquire(OFFSET_TAIL);
+    }
+
+    // the accesses after it are not moved before it
+    private int getIntAcquire(int offset) {
+        int value = mBuffer.getInt(offset);
+        loadFence();
+        return value;
+    }
+
+    // the accesses before it are not moved after it, and the loads after it see the write
+    private void putIntRelease(int offset, int value) {
+        mFence = 0;
+        mBuffer.putInt(offset, value);
+        mFence = 0;
+    }
+
+    private int loadFence() {
+        return mFence;
+    }
+
+    private static int align(int size) {
+        return (size + 3) & ~3;
+    }
+}
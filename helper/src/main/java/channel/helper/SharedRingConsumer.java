@@ -0,0 +1,194 @@
+package channel.helper;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * The consumer side of a {@link SharedRing}, dispatches the calls written by
+ * {@link SharedRingEmitter} in order.
+ * <p>
+ * Call {@link #drain()} when the {@link Wakeup} is signaled, or {@link #start(LoopbackWakeup)} on the
+ * plain JVM to drain on a thread of its own:
+ * <pre>
+ * // consumer process
+ * SharedRing ring = SharedRing.create(file, 1 &lt;&lt; 20);
+ * LoopbackWakeup wakeup = LoopbackWakeup.bind();
+ * ring.setWakeupId(wakeup.getPort());
+ * new SharedRingConsumer(ring, dispatcher).start(wakeup);
+ *
+ * // producer process
+ * SharedRing ring = SharedRing.attach(file);
+ * LoopbackWakeup wakeup = LoopbackWakeup.connect(ring.getWakeupId());
+ * Foo foo = ChannelHelper.newEmitter(Foo.class, new SharedRingEmitter(ring, wakeup));
+ * </pre>
+ */
+public final class SharedRingConsumer {
+    /**
+     * The max time to wait for a signal, the ring is checked anyway after it.
+     */
+    private static final int WAIT_MILLIS = 100;
+
+    private final SharedRing mRing;
+    private final Dispatcher mDispatcher;
+    // the record being dispatched, reused, only accessed by the draining thread
+    private final BufferWire mWire = new BufferWire();
+
+    private Thread mThread;
+    private volatile boolean mRunning;
+
+    public SharedRingConsumer(SharedRing ring, Dispatcher dispatcher) {
+        if (ring == null) {
+            throw new IllegalArgumentException("ring is null");
+        }
+
+        if (dispatcher == null) {
+            throw new IllegalArgumentException("dispatcher is null");
+        }
+
+        mRing = ring;
+        mDispatcher = dispatcher;
+    }
+
+    /**
+     * Dispatches all the calls in the ring, returns the count. Must not be called concurrently.
+     */
+    public int drain() {
+        int count = 0;
+
+        int length;
+        while ((length = mRing.poll(mWire)) >= 0) {
+            try {
+                dispatch(mWire, length);
+            } catch (RuntimeException e) {
+                // keep draining, otherwise the producer will drop everything
+                Errors.report("SharedRingConsumer receiver failed", e);
+            }
+            count++;
+        }
+
+        return count;
+    }
+
+    private void dispatch(BufferWire wire, int length) {
+        if (wire.readByte() == SharedRingEmitter.TAG_MAP) {
+            Map<String, Object> data = readMap(wire);
+            Metrics.record(data, length);
+            if (!Header.isExpired(Header.getDeadline(data))) {
+                mDispatcher.dispatch(data);
+            }
+            return;
+        }
+
+        long header = wire.readLong();
+        long emitTime = wire.readLong();
+
+        ChannelCodec codec = DispatcherUtil.findCodec(mDispatcher, Header.getChannelId(header));
+        if (codec == null) {
+            return;
+        }
+
+        Invocation invocation = codec.read(Header.getMethodId(header), wire);
+        if (invocation == null) {
+            return;
+        }
+
+        invocation.setEmitTime(emitTime);
+        Metrics.record(invocation, length);
+        if (!Header.isExpired(invocation.getDeadline())) {
+            DispatcherUtil.dispatch(mDispatcher, invocation);
+        }
+        invocation.recycle();
+    }
+
+    private static Map<String, Object> readMap(BufferWire wire) {
+        int size = wire.readInt();
+        Map<String, Object> data = new Envelope(size);
+        for (int i = 0; i < size; i++) {
+            data.put(wire.readString(), readMapValue(wire));
+        }
+        return data;
+    }
+
+    private static Object readMapValue(BufferWire wire) {
+        switch (wire.readByte()) {
+            case SharedRingEmitter.VALUE_NULL:
+                return null;
+            case SharedRingEmitter.VALUE_BOOLEAN:
+                return wire.readBoolean();
+            case SharedRingEmitter.VALUE_BYTE:
+                return wire.readByte();
+            case SharedRingEmitter.VALUE_SHORT:
+                return wire.readShort();
+            case SharedRingEmitter.VALUE_CHAR:
+                return wire.readChar();
+            case SharedRingEmitter.VALUE_INT:
+                return wire.readInt();
+            case SharedRingEmitter.VALUE_LONG:
+                return wire.readLong();
+            case SharedRingEmitter.VALUE_FLOAT:
+                return wire.readFloat();
+            case SharedRingEmitter.VALUE_DOUBLE:
+                return wire.readDouble();
+            case SharedRingEmitter.VALUE_STRING:
+                return wire.readString();
+            default:
+                return wire.readValue();
+        }
+    }
+
+    /**
+     * Starts a thread that drains the ring every time the wakeup is signaled.
+     */
+    public synchronized void start(final LoopbackWakeup wakeup) {
+        if (wakeup == null) {
+            throw new IllegalArgumentException("wakeup is null");
+        }
+
+        if (mThread != null) {
+            throw new IllegalStateException("already started");
+        }
+
+        mRunning = true;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (mRunning) {
+                    drain();
+                    try {
+                        wakeup.await(WAIT_MILLIS);
+                    } catch (IOException e) {
+                        // closed
+                        break;
+                    }
+                }
+                drain();
+            }
+        }, "SharedRingConsumer");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Stops the thread after the calls in the ring are dispatched.
+     */
+    public synchronized void shutdown() {
+        mRunning = false;
+    }
+
+    /**
+     * Waits for the thread to stop, returns {@code true} if it stopped.
+     */
+    public boolean awaitTermination(long millis) throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            thread = mThread;
+        }
+
+        if (thread == null) {
+            return true;
+        }
+
+        thread.join(millis);
+        return !thread.isAlive();
+    }
+}
@@ -0,0 +1,150 @@
+package channel.helper;
+
+import java.util.Map;
+
+/**
+ * The producer side of a {@link SharedRing}: writes the calls to the ring without a system call, and
+ * only signals the {@link Wakeup} of the consumer when the ring goes from empty to non-empty. For
+ * high-frequency calls between processes, such as audio levels and position ticks.
+ * <p>
+ * The invocations are written by {@link BufferWire}: the channel id and the method id, the emit time,
+ * and then the arguments, the non-primitive arguments must be {@link java.io.Serializable}. The
+ * request methods are not supported. A map is a slow fallback for the interfaces without
+ * {@link TypedDispatcher}: every entry is written with its key, the primitive wrappers and the strings
+ * with a tag, the other values by Java serialization, and the map is rebuilt on the consumer side.
+ * <p>
+ * The calls are dropped when the ring is full, the producer never waits for the consumer, see
+ * {@link #getDroppedCount()}. The ring has a single producer, the emit methods are synchronized so
+ * the threads of the producer process can share the emitter.
+ */
+public final class SharedRingEmitter implements TypedEmitter {
+    static final byte TAG_INVOCATION = 1;
+    static final byte TAG_MAP = 2;
+
+    // the types of the map values
+    static final byte VALUE_NULL = 0;
+    static final byte VALUE_BOOLEAN = 1;
+    static final byte VALUE_BYTE = 2;
+    static final byte VALUE_SHORT = 3;
+    static final byte VALUE_CHAR = 4;
+    static final byte VALUE_INT = 5;
+    static final byte VALUE_LONG = 6;
+    static final byte VALUE_FLOAT = 7;
+    static final byte VALUE_DOUBLE = 8;
+    static final byte VALUE_STRING = 9;
+    static final byte VALUE_SERIALIZABLE = 10;
+
+    private final SharedRing mRing;
+    private final Wakeup mWakeup;
+
+    // reused for every call, guarded by this
+    private final BufferWire mWire = new BufferWire();
+    private long mDroppedCount;
+
+    /**
+     * @param wakeup signals the consumer, may be null if the consumer polls the ring.
+     */
+    public SharedRingEmitter(SharedRing ring, Wakeup wakeup) {
+        if (ring == null) {
+            throw new IllegalArgumentException("ring is null");
+        }
+
+        mRing = ring;
+        mWakeup = wakeup;
+    }
+
+    /**
+     * Returns the count of the calls dropped because the ring was full.
+     */
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    @Override
+    public synchronized void emit(Invocation invocation) {
+        Metrics.stamp(invocation);
+        boolean offered = false;
+        try {
+            mWire.reset();
+            mWire.writeByte(TAG_INVOCATION);
+            mWire.writeLong(Header.pack(invocation.getChannelId(), invocation.getMethodId()));
+            mWire.writeLong(invocation.getEmitTime());
+            invocation.writeTo(mWire);
+
+            offered = offer();
+        } finally {
+            if (!offered) {
+                // never read, the consumer won't delete the temp files
+                mWire.discardLargePayloads();
+            }
+            invocation.recycle();
+        }
+    }
+
+    @Override
+    public synchronized void emit(Map<String, Object> data) {
+        Metrics.stamp(data);
+        try {
+            mWire.reset();
+            mWire.writeByte(TAG_MAP);
+            writeMap(mWire, data);
+
+            offer();
+        } finally {
+            Envelope.recycle(data);
+        }
+    }
+
+    private static void writeMap(BufferWire wire, Map<String, Object> data) {
+        wire.writeInt(data.size());
+        for (Map.Entry<String, Object> entry : data.entrySet()) {
+            wire.writeString(entry.getKey());
+            writeMapValue(wire, entry.getValue());
+        }
+    }
+
+    private static void writeMapValue(BufferWire wire, Object value) {
+        if (value == null) {
+            wire.writeByte(VALUE_NULL);
+        } else if (value instanceof Integer) {
+            wire.writeByte(VALUE_INT);
+            wire.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            wire.writeByte(VALUE_LONG);
+            wire.writeLong((Long) value);
+        } else if (value instanceof String) {
+            wire.writeByte(VALUE_STRING);
+            wire.writeString((String) value);
+        } else if (value instanceof Boolean) {
+            wire.writeByte(VALUE_BOOLEAN);
+            wire.writeBoolean((Boolean) value);
+        } else if (value instanceof Float) {
+            wire.writeByte(VALUE_FLOAT);
+            wire.writeFloat((Float) value);
+        } else if (value instanceof Double) {
+            wire.writeByte(VALUE_DOUBLE);
+            wire.writeDouble((Double) value);
+        } else if (value instanceof Byte) {
+            wire.writeByte(VALUE_BYTE);
+            wire.writeByte((Byte) value);
+        } else if (value instanceof Short) {
+            wire.writeByte(VALUE_SHORT);
+            wire.writeShort((Short) value);
+        } else if (value instanceof Character) {
+            wire.writeByte(VALUE_CHAR);
+            wire.writeChar((Character) value);
+        } else {
+            wire.writeByte(VALUE_SERIALIZABLE);
+            wire.writeValue(value);
+        }
+    }
+
+    private boolean offer() {
+        if (!mRing.offer(mWire.toByteBuffer(), mWakeup)) {
+            mDroppedCount++;
+            return false;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,20 @@
+package channel.helper;
+
+/**
+ * The link between an {@link InvocationPublisher} and its {@link InvocationSubscriber}, like
+ * {@code java.util.concurrent.Flow.Subscription} for Java 7.
+ */
+public interface Subscription {
+    /**
+     * Adds {@code n} to the count of invocations the subscriber is ready to receive. The demand is
+     * cumulative, {@link Long#MAX_VALUE} means unbounded. A non-positive {@code n} cancels the
+     * subscription with {@link IllegalArgumentException}.
+     */
+    void request(long n);
+
+    /**
+     * Stops the delivery, the buffered invocations are recycled. It may still receive the invocation
+     * being delivered.
+     */
+    void cancel();
+}
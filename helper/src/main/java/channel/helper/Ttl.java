@@ -0,0 +1,17 @@
+package channel.helper;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Target;
+
+/**
+ * The time to live of the calls of the method, in milliseconds. A call that is still waiting in the
+ * pipe when it expires is discarded at dispatch time, the receiver is not invoked. Use it for the
+ * methods that are useless if delivered late, for example {@code onFrameReady()}.
+ * <p>
+ * The deadline is measured by {@link System#nanoTime()}, which is shared by the processes of an
+ * Android device. It's a hint, the pipe that doesn't support it delivers every call.
+ */
+@Target(ElementType.METHOD)
+public @interface Ttl {
+    long value();
+}
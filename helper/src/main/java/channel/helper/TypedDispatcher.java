@@ -0,0 +1,15 @@
+package channel.helper;
+
+/**
+ * A {@link Dispatcher} that also accepts {@link Invocation}.
+ */
+public interface TypedDispatcher extends Dispatcher {
+    boolean dispatch(Invocation invocation);
+
+    boolean match(Invocation invocation);
+
+    /**
+     * Returns the codec of the channel, or {@code null} if this dispatcher doesn't handle the channel.
+     */
+    ChannelCodec getCodec(int channelId);
+}
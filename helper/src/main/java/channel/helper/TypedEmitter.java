@@ -0,0 +1,9 @@
+package channel.helper;
+
+/**
+ * An {@link Emitter} that also accepts {@link Invocation}. The generated emitter will use
+ * {@link #emit(Invocation)} instead of {@link #emit(java.util.Map)} if the pipe is a TypedEmitter.
+ */
+public interface TypedEmitter extends Emitter {
+    void emit(Invocation invocation);
+}
@@ -0,0 +1,15 @@
+package channel.helper;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Target;
+
+/**
+ * The call is put at the front of the message queue, so it doesn't wait behind the other calls.
+ * Use it for a few latency-critical methods only, the urgent calls may be reordered with the
+ * other calls.
+ * <p>
+ * It's a hint, the pipe that doesn't support it delivers the call in order.
+ */
+@Target(ElementType.METHOD)
+public @interface Urgent {
+}
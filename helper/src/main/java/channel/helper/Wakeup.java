@@ -0,0 +1,10 @@
+package channel.helper;
+
+/**
+ * Wakes up the consumer of a {@link SharedRing}, it is only signaled when the ring goes from empty
+ * to non-empty. The signal must not be lost if the consumer is not waiting yet, for example a
+ * datagram or a message queued for it.
+ */
+public interface Wakeup {
+    void signal();
+}
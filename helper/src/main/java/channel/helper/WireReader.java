@@ -0,0 +1,40 @@
+package channel.helper;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the arguments written by a {@link WireWriter}, in the same order.
+ */
+public interface WireReader {
+    boolean readBoolean();
+
+    byte readByte();
+
+    short readShort();
+
+    char readChar();
+
+    int readInt();
+
+    long readLong();
+
+    float readFloat();
+
+    double readDouble();
+
+    String readString();
+
+    /**
+     * Reads a {@link LargePayload} argument, the returned buffer may be a read-only mapping of the
+     * shared memory.
+     */
+    ByteBuffer readLargePayload();
+
+    /**
+     * Reads the {@link Reply} of a request method, a transport that crosses processes returns a
+     * reply that sends the result back to the caller.
+     */
+    Reply<?> readReply();
+
+    Object readValue();
+}
@@ -0,0 +1,44 @@
+package channel.helper;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes the arguments of an {@link Invocation} with typed calls, implemented by the transport,
+ * for example a Parcel.
+ */
+public interface WireWriter {
+    void writeBoolean(boolean value);
+
+    void writeByte(byte value);
+
+    void writeShort(short value);
+
+    void writeChar(char value);
+
+    void writeInt(int value);
+
+    void writeLong(long value);
+
+    void writeFloat(float value);
+
+    void writeDouble(double value);
+
+    void writeString(String value);
+
+    /**
+     * Writes the remaining bytes of a {@link LargePayload} argument out of band if the transport
+     * supports it, otherwise writes them inline. The position of the buffer is not changed.
+     */
+    void writeLargePayload(ByteBuffer value);
+
+    /**
+     * Writes the {@link Reply} of a request method. A transport that crosses processes keeps the
+     * reply in its {@link PendingReplies} and writes the correlation id instead.
+     */
+    void writeReply(Reply<?> reply);
+
+    /**
+     * Writes any other type, the supported types depend on the transport.
+     */
+    void writeValue(Object value);
+}
@@ -0,0 +1,156 @@
+package channel.helper;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class BufferWireTest {
+
+    @Channel
+    public interface Payloads {
+        void onPayload(@LargePayload byte[] bytes, @LargePayload ByteBuffer buffer, int tag);
+    }
+
+    @Test
+    public void largePayload_roundTrip() {
+        byte[] bytes = newBytes(4096, 1);
+        ByteBuffer buffer = ByteBuffer.wrap(newBytes(1000, 7));
+
+        PayloadsReceiver receiver = roundTrip(newInvocation(bytes, buffer, 42), newWriter());
+
+        assertArrayEquals(bytes, receiver.mBytes);
+        assertEquals(ByteBuffer.wrap(newBytes(1000, 7)), receiver.mBuffer);
+        assertTrue(receiver.mBuffer.isReadOnly());
+        assertEquals(42, receiver.mTag);
+        // the argument is not consumed by the writer
+        assertEquals(1000, buffer.remaining());
+    }
+
+    @Test
+    public void largePayload_nullAndEmpty() {
+        PayloadsReceiver receiver = roundTrip(newInvocation(null, null, 1), newWriter());
+        assertNull(receiver.mBytes);
+        assertNull(receiver.mBuffer);
+
+        receiver = roundTrip(newInvocation(new byte[0], ByteBuffer.allocate(0), 2), newWriter());
+        assertArrayEquals(new byte[0], receiver.mBytes);
+        assertEquals(0, receiver.mBuffer.remaining());
+    }
+
+    @Test
+    public void largePayload_tempFilesDeleted() {
+        Set<File> before = listPayloadFiles();
+
+        // deleted by the reader
+        roundTrip(newInvocation(newBytes(100, 3), ByteBuffer.wrap(newBytes(100, 5)), 1), newWriter());
+        assertEquals(before, listPayloadFiles());
+
+        // deleted when the written data is dropped
+        BufferWire writer = newWriter();
+        Invocation invocation = newInvocation(newBytes(100, 3), ByteBuffer.wrap(newBytes(100, 5)), 1);
+        invocation.writeTo(writer);
+        invocation.recycle();
+        assertEquals(before.size() + 2, listPayloadFiles().size());
+
+        writer.discardLargePayloads();
+        assertEquals(before, listPayloadFiles());
+    }
+
+    @Test
+    public void reset_reusesTheWire() {
+        BufferWire writer = newWriter();
+
+        roundTrip(newInvocation(newBytes(10, 1), null, 1), writer);
+        writer.reset();
+        PayloadsReceiver receiver = roundTrip(newInvocation(newBytes(20, 2), null, 2), writer);
+
+        assertArrayEquals(newBytes(20, 2), receiver.mBytes);
+        assertEquals(2, receiver.mTag);
+    }
+
+    private static BufferWire newWriter() {
+        return new BufferWire();
+    }
+
+    private static Invocation newInvocation(byte[] bytes, ByteBuffer buffer, int tag) {
+        final Invocation[] captured = new Invocation[1];
+        Payloads emitter = ChannelHelper.newEmitter(Payloads.class, new TypedEmitter() {
+            @Override
+            public void emit(Invocation invocation) {
+                captured[0] = invocation;
+            }
+
+            @Override
+            public void emit(Map<String, Object> data) {
+                fail("the typed path is expected");
+            }
+        });
+
+        emitter.onPayload(bytes, buffer, tag);
+        assertNotNull(captured[0]);
+        return captured[0];
+    }
+
+    private static PayloadsReceiver roundTrip(Invocation invocation, BufferWire writer) {
+        PayloadsReceiver receiver = new PayloadsReceiver();
+        Dispatcher dispatcher = ChannelHelper.newDispatcher(Payloads.class, receiver);
+        ChannelCodec codec = DispatcherUtil.getCodec(dispatcher, invocation.getChannelId());
+        assertNotNull(codec);
+
+        invocation.writeTo(writer);
+        BufferWire reader = new BufferWire(writer.toByteArray());
+        Invocation copy = codec.read(invocation.getMethodId(), reader);
+        assertNotNull(copy);
+
+        assertTrue(DispatcherUtil.dispatch(dispatcher, copy));
+        assertEquals(1, receiver.mCount);
+
+        invocation.recycle();
+        copy.recycle();
+        return receiver;
+    }
+
+    private static byte[] newBytes(int size, int seed) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (i * 31 + seed);
+        }
+        return bytes;
+    }
+
+    private static Set<File> listPayloadFiles() {
+        Set<File> files = new HashSet<>();
+        File[] all = new File(System.getProperty("java.io.tmpdir")).listFiles();
+        if (all == null) {
+            return files;
+        }
+
+        for (File file : all) {
+            if (file.getName().startsWith("channel-helper") && file.getName().endsWith(".payload")) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    private static class PayloadsReceiver implements Payloads {
+        int mCount;
+        byte[] mBytes;
+        ByteBuffer mBuffer;
+        int mTag;
+
+        @Override
+        public void onPayload(byte[] bytes, ByteBuffer buffer, int tag) {
+            mCount++;
+            mBytes = bytes;
+            mBuffer = buffer;
+            mTag = tag;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package channel.helper;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+import static org.junit.Assert.*;
+
+public class ChannelHelperTest {
+    @Channel
+    interface Hidden {
+        void onHidden(int value);
+    }
+
+    @Test
+    public void index_listsTheChannelsOfThePackage() {
+        Map<Class<?>, ChannelFactory<?>> factories = new HashMap<>();
+        for (ChannelIndex index : ServiceLoader.load(ChannelIndex.class, ChannelIndex.class.getClassLoader())) {
+            index.getFactories(factories);
+        }
+
+        // the interface is not public, the index is generated in its package
+        assertSame(ChannelHelperTest$Hidden__ChannelHelper.FACTORY, factories.get(Hidden.class));
+    }
+
+    @Test
+    public void getFactory_returnsTheIndexedFactory() {
+        assertSame(ChannelHelperTest$Hidden__ChannelHelper.FACTORY, ChannelHelper.getFactory(Hidden.class));
+    }
+
+    @Test
+    public void findCodec_fallsBackToTheIndex() {
+        int channelId = ChannelHelperTest$Hidden__ChannelHelper.CHANNEL_ID;
+
+        assertSame(ChannelHelperTest$Hidden__ChannelHelper.CODEC, ChannelHelper.getCodec(channelId));
+        // a wrapper is not a TypedDispatcher, it doesn't know the codec
+        assertSame(ChannelHelperTest$Hidden__ChannelHelper.CODEC,
+                DispatcherUtil.findCodec(new MapDispatcher(), channelId));
+    }
+
+    @Test
+    public void mapDispatcher_receivesTheTypedInvocation() {
+        SharedRing ring = SharedRing.create(ByteBuffer.allocate(SharedRing.sizeOf(1024)), 1024);
+        Hidden emitter = ChannelHelper.newEmitter(Hidden.class, new SharedRingEmitter(ring, null));
+
+        MapDispatcher dispatcher = new MapDispatcher();
+        SharedRingConsumer consumer = new SharedRingConsumer(ring, dispatcher);
+
+        emitter.onHidden(7);
+        emitter.onHidden(8);
+
+        assertEquals(2, consumer.drain());
+        assertEquals(2, dispatcher.mValues.size());
+        assertEquals(7, dispatcher.mValues.get(0));
+        assertEquals(8, dispatcher.mValues.get(1));
+    }
+
+    /**
+     * A user-written wrapper of the generated dispatcher.
+     */
+    private static class MapDispatcher implements Dispatcher {
+        final List<Object> mValues = new ArrayList<>();
+
+        // the generated dispatcher holds the receiver weakly
+        private final Hidden mReceiver = new Hidden() {
+            @Override
+            public void onHidden(int value) {
+                mValues.add(value);
+            }
+        };
+
+        private final Dispatcher mDispatcher = ChannelHelper.newDispatcher(Hidden.class, mReceiver);
+
+        @Override
+        public boolean dispatch(Map<String, Object> data) {
+            return mDispatcher.dispatch(data);
+        }
+
+        @Override
+        public boolean match(Map<String, Object> data) {
+            return mDispatcher.match(data);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package channel.helper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import channel.processor.ChannelProcessor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs {@link ChannelProcessor} on the sources below through {@code javax.tools}.
+ */
+public class ChannelProcessorTest {
+    private File mOutput;
+
+    @Before
+    public void setUp() throws IOException {
+        mOutput = File.createTempFile("channel-processor", "");
+        assertTrue(mOutput.delete());
+        assertTrue(mOutput.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        delete(mOutput);
+    }
+
+    @Test
+    public void sameFingerprint_isACompileError() {
+        // "Aa" and "BB" have the same String.hashCode(), so the two signatures have the same fingerprint
+        assertEquals("onAa(int)".hashCode(), "onBB(int)".hashCode());
+
+        List<String> errors = compile("test.Collide",
+                "package test;\n"
+                        + "@channel.helper.Channel\n"
+                        + "public interface Collide {\n"
+                        + "    void onAa(int value);\n"
+                        + "    void onBB(int value);\n"
+                        + "}\n");
+
+        assertEquals(errors.toString(), 1, errors.size());
+        assertTrue(errors.get(0), errors.get(0).contains("Method id conflict"));
+        assertTrue(errors.get(0), errors.get(0).contains("onAa(int)"));
+        assertTrue(errors.get(0), errors.get(0).contains("onBB(int)"));
+    }
+
+    @Test
+    public void overloads_haveDifferentFingerprints() {
+        List<String> errors = compile("test.Overload",
+                "package test;\n"
+                        + "@channel.helper.Channel\n"
+                        + "public interface Overload {\n"
+                        + "    void onValue(int value);\n"
+                        + "    void onValue(long value);\n"
+                        + "    void onValue(String value, int count);\n"
+                        + "}\n");
+
+        assertEquals(Collections.emptyList(), errors);
+        assertTrue(new File(mOutput, "test/Overload__ChannelHelper.class").isFile());
+    }
+
+    /**
+     * Returns the error messages.
+     */
+    private List<String> compile(String className, String source) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertNotNull("no system compiler, run the tests on a JDK", compiler);
+
+        List<String> options = Arrays.asList(
+                "-classpath", getLocation(Channel.class),
+                "-d", mOutput.getPath(),
+                "-s", mOutput.getPath(),
+                "-nowarn");
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics, options, null,
+                Collections.singletonList(new Source(className, source)));
+        task.setProcessors(Collections.singletonList(new ChannelProcessor()));
+        task.call();
+
+        List<String> errors = new ArrayList<>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                errors.add(diagnostic.getMessage(null));
+            }
+        }
+        return errors;
+    }
+
+    private static String getLocation(Class<?> clazz) {
+        try {
+            return new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI()).getAbsolutePath();
+        } catch (Exception e) {
+            throw new IllegalStateException("no location of " + clazz.getName(), e);
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    private static final class Source extends SimpleJavaFileObject {
+        private final String mSource;
+
+        Source(String className, String source) {
+            super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            mSource = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return mSource;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package channel.helper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+public class ExecutorPipeTest {
+    private static final String KEY_KEY = "key";
+    private static final String KEY_SEQ = "seq";
+
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() {
+        mExecutor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test(timeout = 60_000)
+    public void sameKey_fifoOnThreadPool() throws InterruptedException {
+        // the dispatcher yields, so the stripes interleave on the pool threads
+        run(16, 4, 10_000, true);
+    }
+
+    @Test(timeout = 120_000)
+    public void fiftyKeys_millionMessages() throws InterruptedException {
+        run(50, 4, 1_000_000 / 50, false);
+    }
+
+    /**
+     * Every key is emitted by one producer thread, so its messages must be dispatched as 1, 2, 3...,
+     * and never on two threads at once.
+     */
+    private void run(final int keys, final int producers, final int countPerKey, boolean yield)
+            throws InterruptedException {
+        final Checker checker = new Checker(keys, keys * countPerKey, yield);
+        final ExecutorPipe pipe = new ExecutorPipe(mExecutor, checker);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < producers; i++) {
+            final int producer = i;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    List<TypedEmitter> emitters = new ArrayList<>();
+                    for (int key = producer; key < keys; key += producers) {
+                        emitters.add(pipe.withKey(key));
+                    }
+
+                    for (int seq = 1; seq <= countPerKey; seq++) {
+                        for (int j = 0; j < emitters.size(); j++) {
+                            checker.mInFlight.acquireUninterruptibly();
+                            emitters.get(j).emit(newMessage(producer + j * producers, seq));
+                        }
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(checker.mDone.await(60, TimeUnit.SECONDS));
+
+        assertEquals(Collections.emptyList(), checker.getErrors());
+        for (int key = 0; key < keys; key++) {
+            assertEquals(countPerKey, checker.mCounts[key]);
+        }
+    }
+
+    private static Map<String, Object> newMessage(int key, int seq) {
+        Map<String, Object> data = new HashMap<>();
+        data.put(KEY_KEY, key);
+        data.put(KEY_SEQ, seq);
+        return data;
+    }
+
+    private static class Checker implements Dispatcher {
+        // bounds the queued messages, the producers are faster than the pool
+        final Semaphore mInFlight = new Semaphore(10_000);
+        final CountDownLatch mDone;
+
+        // a key is dispatched by one thread at a time, so no lock is needed
+        final int[] mCounts;
+        final AtomicIntegerArray mRunning;
+
+        private final boolean mYield;
+        private final List<String> mErrors = Collections.synchronizedList(new ArrayList<String>());
+
+        Checker(int keys, int total, boolean yield) {
+            mCounts = new int[keys];
+            mRunning = new AtomicIntegerArray(keys);
+            mDone = new CountDownLatch(total);
+            mYield = yield;
+        }
+
+        List<String> getErrors() {
+            synchronized (mErrors) {
+                return new ArrayList<>(mErrors);
+            }
+        }
+
+        @Override
+        public boolean dispatch(Map<String, Object> data) {
+            int key = (int) data.get(KEY_KEY);
+            int seq = (int) data.get(KEY_SEQ);
+
+            if (mRunning.incrementAndGet(key) != 1) {
+                addError("key " + key + " is dispatched on two threads");
+            }
+
+            if (seq != mCounts[key] + 1) {
+                addError("key " + key + ": expected " + (mCounts[key] + 1) + ", got " + seq);
+            }
+            mCounts[key]++;
+
+            if (mYield) {
+                Thread.yield();
+            }
+
+            mRunning.decrementAndGet(key);
+            mInFlight.release();
+            mDone.countDown();
+            return true;
+        }
+
+        private void addError(String error) {
+            if (mErrors.size() < 10) {
+                mErrors.add(error);
+            }
+        }
+
+        @Override
+        public boolean match(Map<String, Object> data) {
+            return true;
+        }
+    }
+}
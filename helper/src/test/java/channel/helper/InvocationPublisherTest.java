@@ -0,0 +1,221 @@
+package channel.helper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class InvocationPublisherTest {
+    @Channel
+    public interface Ticks {
+        void onTick(int seq);
+    }
+
+    @Test
+    public void request_isHonoured() {
+        InvocationPublisher<Ticks> publisher = newPublisher(16, OverflowPolicy.DROP_NEWEST);
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        Ticks emitter = newEmitter(publisher);
+
+        emit(emitter, 1, 5);
+        assertEquals(seqs(), recorder.getSeqs());
+
+        recorder.mSubscription.request(2);
+        assertEquals(seqs(1, 2), recorder.getSeqs());
+
+        recorder.mSubscription.request(10);
+        assertEquals(seqs(1, 2, 3, 4, 5), recorder.getSeqs());
+
+        // 7 requested are left, delivered at once
+        emit(emitter, 6, 6);
+        assertEquals(seqs(1, 2, 3, 4, 5, 6), recorder.getSeqs());
+        assertEquals(0, publisher.getDroppedCount());
+    }
+
+    @Test
+    public void dropOldest_keepsTheNewCalls() {
+        InvocationPublisher<Ticks> publisher = newPublisher(3, OverflowPolicy.DROP_OLDEST);
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+
+        emit(newEmitter(publisher), 1, 5);
+        recorder.mSubscription.request(Long.MAX_VALUE);
+
+        assertEquals(seqs(3, 4, 5), recorder.getSeqs());
+        assertEquals(2, publisher.getDroppedCount());
+    }
+
+    @Test
+    public void dropNewest_keepsTheBufferedCalls() {
+        InvocationPublisher<Ticks> publisher = newPublisher(3, OverflowPolicy.DROP_NEWEST);
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+
+        emit(newEmitter(publisher), 1, 5);
+        recorder.mSubscription.request(Long.MAX_VALUE);
+
+        assertEquals(seqs(1, 2, 3), recorder.getSeqs());
+        assertEquals(2, publisher.getDroppedCount());
+    }
+
+    @Test(timeout = 30_000)
+    public void block_waitsForDemand() throws InterruptedException {
+        final InvocationPublisher<Ticks> publisher = newPublisher(2, OverflowPolicy.BLOCK);
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                emit(newEmitter(publisher), 1, 10);
+            }
+        });
+        producer.start();
+
+        // the third call waits for a free slot
+        while (producer.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        assertTrue(producer.isAlive());
+        assertEquals(seqs(), recorder.getSeqs());
+
+        recorder.mSubscription.request(Long.MAX_VALUE);
+        producer.join();
+
+        assertEquals(seqs(1, 2, 3, 4, 5, 6, 7, 8, 9, 10), recorder.getSeqs());
+        assertEquals(0, publisher.getDroppedCount());
+    }
+
+    @Test
+    public void onNextThrows_cancelsAndCallsOnError() {
+        InvocationPublisher<Ticks> publisher = newPublisher(16, OverflowPolicy.DROP_NEWEST);
+        Recorder recorder = new Recorder() {
+            @Override
+            public void onTick(int seq) {
+                super.onTick(seq);
+                if (seq == 2) {
+                    throw new IllegalStateException("broken at 2");
+                }
+            }
+        };
+        publisher.subscribe(recorder);
+        recorder.mSubscription.request(Long.MAX_VALUE);
+
+        emit(newEmitter(publisher), 1, 5);
+
+        assertEquals(seqs(1, 2), recorder.getSeqs());
+        assertEquals(1, recorder.mErrors.size());
+        assertEquals("broken at 2", recorder.mErrors.get(0).getMessage());
+        assertFalse(recorder.mCompleted);
+    }
+
+    @Test
+    public void complete_afterTheBufferedCalls() {
+        InvocationPublisher<Ticks> publisher = newPublisher(16, OverflowPolicy.DROP_NEWEST);
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+
+        emit(newEmitter(publisher), 1, 2);
+        publisher.complete();
+        assertFalse(recorder.mCompleted);
+
+        recorder.mSubscription.request(Long.MAX_VALUE);
+        assertEquals(seqs(1, 2), recorder.getSeqs());
+        assertTrue(recorder.mCompleted);
+    }
+
+    @Test
+    public void illegalRequest_isAnError() {
+        InvocationPublisher<Ticks> publisher = newPublisher(16, OverflowPolicy.DROP_NEWEST);
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+
+        recorder.mSubscription.request(0);
+
+        assertEquals(1, recorder.mErrors.size());
+        assertTrue(recorder.mErrors.get(0) instanceof IllegalArgumentException);
+    }
+
+    private static InvocationPublisher<Ticks> newPublisher(int capacity, OverflowPolicy policy) {
+        return new InvocationPublisher<>(ChannelHelper.getFactory(Ticks.class), capacity, policy);
+    }
+
+    // dispatches every call to the publisher, like a pipe on the emitting thread
+    private static Ticks newEmitter(final InvocationPublisher<Ticks> publisher) {
+        return ChannelHelper.newEmitter(Ticks.class, new TypedEmitter() {
+            @Override
+            public void emit(Invocation invocation) {
+                DispatcherUtil.dispatch(publisher, invocation);
+                invocation.recycle();
+            }
+
+            @Override
+            public void emit(Map<String, Object> data) {
+                publisher.dispatch(data);
+            }
+        });
+    }
+
+    private static void emit(Ticks emitter, int from, int to) {
+        for (int seq = from; seq <= to; seq++) {
+            emitter.onTick(seq);
+        }
+    }
+
+    private static List<Integer> seqs(Integer... seqs) {
+        return Arrays.asList(seqs);
+    }
+
+    /**
+     * Subscribes without demand, and dispatches the invocations to itself.
+     */
+    private static class Recorder implements InvocationSubscriber, Ticks {
+        private final Dispatcher mDispatcher = ChannelHelper.newDispatcher(Ticks.class, this);
+        private final List<Integer> mSeqs = Collections.synchronizedList(new ArrayList<Integer>());
+
+        volatile Subscription mSubscription;
+        final List<Throwable> mErrors = Collections.synchronizedList(new ArrayList<Throwable>());
+        volatile boolean mCompleted;
+
+        List<Integer> getSeqs() {
+            synchronized (mSeqs) {
+                return new ArrayList<>(mSeqs);
+            }
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            mSubscription = subscription;
+        }
+
+        @Override
+        public void onNext(Invocation invocation) {
+            try {
+                DispatcherUtil.dispatch(mDispatcher, invocation);
+            } finally {
+                invocation.recycle();
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            mErrors.add(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            mCompleted = true;
+        }
+
+        @Override
+        public void onTick(int seq) {
+            mSeqs.add(seq);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package channel.helper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class MulticastDispatcherTest {
+    @Channel
+    public interface Events {
+        void onEvent(int value);
+    }
+
+    private final MulticastDispatcher<Events> mMulticast = new MulticastDispatcher<>(Events.class);
+    private final Events mEmitter = ChannelHelper.newEmitter(Events.class, new TypedEmitter() {
+        @Override
+        public void emit(Invocation invocation) {
+            DispatcherUtil.dispatch(mMulticast, invocation);
+        }
+
+        @Override
+        public void emit(Map<String, Object> data) {
+            mMulticast.dispatch(data);
+        }
+    });
+
+    @Test
+    public void dispatch_reachesEveryReceiverInOrder() {
+        List<String> calls = new ArrayList<>();
+        Recorder first = new Recorder("first", calls);
+        Recorder second = new Recorder("second", calls);
+
+        mMulticast.register(first);
+        mMulticast.register(second);
+        // registered already
+        mMulticast.register(first);
+
+        mEmitter.onEvent(1);
+        assertTrue(mMulticast.unregister(first));
+        assertFalse(mMulticast.unregister(first));
+        mEmitter.onEvent(2);
+
+        assertEquals(1, mMulticast.size());
+        assertEquals(list("first:1", "second:1", "second:2"), calls);
+    }
+
+    @Test(timeout = 30_000)
+    public void collectedReceivers_arePruned() throws InterruptedException {
+        List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+        Recorder live = new Recorder("live", calls);
+
+        registerShortLived(100, calls);
+        mMulticast.register(live);
+        assertEquals(101, mMulticast.size());
+
+        while (mMulticast.size() > 1) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        calls.clear();
+        mEmitter.onEvent(7);
+        assertEquals(list("live:7"), calls);
+        // keeps the live receiver reachable until here
+        assertTrue(mMulticast.unregister(live));
+    }
+
+    @Test
+    public void registerDuringDispatch_doesNotBreakTheIteration() {
+        final List<String> calls = new ArrayList<>();
+        // keeps the added receivers reachable, they are held weakly
+        final List<Recorder> added = new ArrayList<>();
+
+        Recorder registrar = new Recorder("registrar", calls) {
+            @Override
+            public void onEvent(int value) {
+                super.onEvent(value);
+                Recorder recorder = new Recorder("added" + value, calls);
+                added.add(recorder);
+                mMulticast.register(recorder);
+            }
+        };
+        mMulticast.register(registrar);
+
+        mEmitter.onEvent(1);
+        mEmitter.onEvent(2);
+
+        // a receiver registered during a dispatch may or may not receive that call, but all later ones
+        assertEquals(3, mMulticast.size());
+        assertEquals("registrar:1", calls.get(0));
+        assertTrue(calls.contains("registrar:2"));
+        assertTrue(calls.contains("added1:2"));
+        assertFalse(calls.contains("added2:1"));
+        assertTrue(mMulticast.unregister(registrar));
+    }
+
+    @Test(timeout = 60_000)
+    public void concurrentRegister_keepsTheOthersReceivingEveryCall() throws InterruptedException {
+        final int count = 20_000;
+        final CountingReceiver stable = new CountingReceiver();
+        mMulticast.register(stable);
+
+        final AtomicBoolean done = new AtomicBoolean();
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread registrar = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    List<CountingReceiver> receivers = new ArrayList<>();
+                    while (!done.get()) {
+                        CountingReceiver receiver = new CountingReceiver();
+                        receivers.add(receiver);
+                        mMulticast.register(receiver);
+
+                        if (receivers.size() > 16) {
+                            mMulticast.unregister(receivers.remove(0));
+                        }
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }
+        });
+        registrar.start();
+
+        try {
+            for (int i = 1; i <= count; i++) {
+                mEmitter.onEvent(i);
+            }
+        } finally {
+            done.set(true);
+            registrar.join();
+        }
+
+        assertEquals(Collections.emptyList(), errors);
+        assertEquals(count, stable.mCount);
+        assertEquals(count, stable.mLastValue);
+        assertTrue(mMulticast.unregister(stable));
+    }
+
+    private void registerShortLived(int count, List<String> calls) {
+        for (int i = 0; i < count; i++) {
+            mMulticast.register(new Recorder("dead" + i, calls));
+        }
+    }
+
+    private static List<String> list(String... calls) {
+        List<String> list = new ArrayList<>();
+        Collections.addAll(list, calls);
+        return list;
+    }
+
+    private static class Recorder implements Events {
+        private final String mName;
+        private final List<String> mCalls;
+
+        Recorder(String name, List<String> calls) {
+            mName = name;
+            mCalls = calls;
+        }
+
+        @Override
+        public void onEvent(int value) {
+            mCalls.add(mName + ":" + value);
+        }
+    }
+
+    // only called on the emitting thread
+    private static class CountingReceiver implements Events {
+        int mCount;
+        int mLastValue;
+
+        @Override
+        public void onEvent(int value) {
+            mCount++;
+            mLastValue = value;
+        }
+    }
+}
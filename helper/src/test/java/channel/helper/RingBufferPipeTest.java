@@ -0,0 +1,203 @@
+package channel.helper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RingBufferPipeTest {
+    private static final String KEY_PRODUCER = "producer";
+    private static final String KEY_SEQ = "seq";
+
+    @Test(timeout = 60_000)
+    public void multiProducers_keepOrderPerProducer() throws InterruptedException {
+        final int producers = 4;
+        final int count = 50_000;
+
+        Recorder recorder = new Recorder(producers);
+        final RingBufferPipe pipe = new RingBufferPipe(recorder, 64, RingBufferPipe.WaitStrategy.PARK);
+        pipe.start();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < producers; i++) {
+            final int producer = i;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int seq = 1; seq <= count; seq++) {
+                        pipe.emit(newMessage(producer, seq));
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        pipe.shutdown();
+        assertTrue(pipe.awaitTermination(10_000));
+
+        assertEquals(Collections.emptyList(), recorder.mErrors);
+        for (int i = 0; i < producers; i++) {
+            assertEquals(count, recorder.mCounts[i]);
+        }
+    }
+
+    @Test(timeout = 60_000)
+    public void wrapAround_losesNothing() throws InterruptedException {
+        for (RingBufferPipe.WaitStrategy strategy : RingBufferPipe.WaitStrategy.values()) {
+            if (strategy == RingBufferPipe.WaitStrategy.BUSY_SPIN
+                    && Runtime.getRuntime().availableProcessors() < 2) {
+                // starves the consumer on a single core
+                continue;
+            }
+
+            int count = 100_000;
+            Recorder recorder = new Recorder(1);
+            RingBufferPipe pipe = new RingBufferPipe(recorder, 8, strategy);
+            pipe.start();
+
+            // the ring wraps around every 8 messages
+            for (int seq = 1; seq <= count; seq++) {
+                pipe.emit(newMessage(0, seq));
+            }
+            pipe.shutdown();
+            assertTrue(pipe.awaitTermination(10_000));
+
+            assertEquals(strategy.name(), Collections.emptyList(), recorder.mErrors);
+            assertEquals(strategy.name(), count, recorder.mCounts[0]);
+        }
+    }
+
+    @Test(timeout = 60_000)
+    public void shutdown_drainsPendingMessages() throws InterruptedException {
+        final CountDownLatch first = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Recorder recorder = new Recorder(1);
+
+        RingBufferPipe pipe = new RingBufferPipe(new Dispatcher() {
+            @Override
+            public boolean dispatch(Map<String, Object> data) {
+                if ((int) data.get(KEY_SEQ) == 1) {
+                    // hold the consumer, so the other messages stay in the ring
+                    first.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return recorder.dispatch(data);
+            }
+
+            @Override
+            public boolean match(Map<String, Object> data) {
+                return true;
+            }
+        }, 16, RingBufferPipe.WaitStrategy.PARK);
+        pipe.start();
+
+        pipe.emit(newMessage(0, 1));
+        assertTrue(first.await(10, TimeUnit.SECONDS));
+
+        int count = 1 + pipe.getCapacity();
+        for (int seq = 2; seq <= count; seq++) {
+            pipe.emit(newMessage(0, seq));
+        }
+
+        pipe.shutdown();
+        release.countDown();
+        assertTrue(pipe.awaitTermination(10_000));
+
+        assertEquals(Collections.emptyList(), recorder.mErrors);
+        assertEquals(count, recorder.mCounts[0]);
+    }
+
+    @Test(timeout = 60_000)
+    public void receiverThrows_reportedAndKeepsRunning() throws InterruptedException {
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Errors.setHandler(new ErrorHandler() {
+            @Override
+            public void onError(String message, Throwable error) {
+                errors.add(error);
+            }
+        });
+
+        try {
+            final Recorder recorder = new Recorder(1);
+            RingBufferPipe pipe = new RingBufferPipe(new Dispatcher() {
+                @Override
+                public boolean dispatch(Map<String, Object> data) {
+                    recorder.dispatch(data);
+                    if ((int) data.get(KEY_SEQ) % 2 == 0) {
+                        throw new IllegalStateException("seq " + data.get(KEY_SEQ));
+                    }
+                    return true;
+                }
+
+                @Override
+                public boolean match(Map<String, Object> data) {
+                    return true;
+                }
+            });
+            pipe.start();
+
+            for (int seq = 1; seq <= 10; seq++) {
+                pipe.emit(newMessage(0, seq));
+            }
+            pipe.shutdown();
+            assertTrue(pipe.awaitTermination(10_000));
+
+            assertEquals(10, recorder.mCounts[0]);
+            assertEquals(5, errors.size());
+            assertEquals("seq 2", errors.get(0).getMessage());
+        } finally {
+            Errors.setHandler(null);
+        }
+    }
+
+    private static Map<String, Object> newMessage(int producer, int seq) {
+        Map<String, Object> data = new HashMap<>();
+        data.put(KEY_PRODUCER, producer);
+        data.put(KEY_SEQ, seq);
+        return data;
+    }
+
+    /**
+     * Checks that the messages of every producer arrive as 1, 2, 3..., only called on the consumer thread.
+     */
+    private static class Recorder implements Dispatcher {
+        final int[] mCounts;
+        final List<String> mErrors = new ArrayList<>();
+
+        Recorder(int producers) {
+            mCounts = new int[producers];
+        }
+
+        @Override
+        public boolean dispatch(Map<String, Object> data) {
+            int producer = (int) data.get(KEY_PRODUCER);
+            int seq = (int) data.get(KEY_SEQ);
+
+            if (seq != mCounts[producer] + 1 && mErrors.size() < 10) {
+                mErrors.add("producer " + producer + ": expected " + (mCounts[producer] + 1) + ", got " + seq);
+            }
+            mCounts[producer]++;
+            return true;
+        }
+
+        @Override
+        public boolean match(Map<String, Object> data) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package channel.helper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * The producer runs in a child process, the ring is shared by a memory-mapped file.
+ */
+public class SharedRingProcessTest {
+    private static final String MODE_ALL = "all";
+    private static final String MODE_FLOOD = "flood";
+    private static final String MODE_WAKEUP = "wakeup";
+
+    @Channel
+    public interface Ticks {
+        void onTick(int seq, String text);
+    }
+
+    private File mFile;
+    private LoopbackWakeup mWakeup;
+    private final List<Integer> mSeqs = Collections.synchronizedList(new ArrayList<Integer>());
+    private final List<String> mErrors = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("channel-helper", ".ring");
+        mWakeup = LoopbackWakeup.bind();
+    }
+
+    @After
+    public void tearDown() {
+        mWakeup.close();
+        if (!mFile.delete()) {
+            mFile.deleteOnExit();
+        }
+    }
+
+    @Test(timeout = 60_000)
+    public void wrapAround_deliversAllInOrder() throws Exception {
+        int count = 20_000;
+        SharedRing ring = newRing(1024);
+        SharedRingConsumer consumer = new SharedRingConsumer(ring, newDispatcher());
+        consumer.start(mWakeup);
+
+        // the producer retries the dropped calls, so the small ring wraps around many times
+        runProducer(MODE_ALL, count);
+
+        while (mSeqs.size() < count) {
+            Thread.sleep(10);
+        }
+        consumer.shutdown();
+        assertTrue(consumer.awaitTermination(5_000));
+
+        assertEquals(Collections.emptyList(), mErrors);
+        assertSequence(count);
+    }
+
+    @Test(timeout = 60_000)
+    public void fullRing_dropsTheNewCalls() throws Exception {
+        int count = 1_000;
+        SharedRing ring = newRing(1024);
+        SharedRingConsumer consumer = new SharedRingConsumer(ring, newDispatcher());
+
+        // nothing is drained while the producer runs
+        long dropped = runProducer(MODE_FLOOD, count);
+        int delivered = consumer.drain();
+
+        assertTrue("nothing dropped", dropped > 0);
+        assertEquals(count, delivered + dropped);
+        assertEquals(Collections.emptyList(), mErrors);
+        // a smaller call may still fit after a larger one is dropped, but the order is kept
+        assertEquals(delivered, mSeqs.size());
+        for (int i = 1; i < delivered; i++) {
+            assertTrue(mSeqs.get(i) > mSeqs.get(i - 1));
+        }
+        assertEquals(1, (int) mSeqs.get(0));
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test(timeout = 60_000)
+    public void emptyToNonEmpty_signalsTheConsumer() throws Exception {
+        final int count = 5;
+        final SharedRing ring = newRing(1024);
+        final SharedRingConsumer consumer = new SharedRingConsumer(ring, newDispatcher());
+
+        // the producer emits a call only when the ring is empty, every call must signal
+        final List<Boolean> signaled = Collections.synchronizedList(new ArrayList<Boolean>());
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < count; i++) {
+                        signaled.add(mWakeup.await(10_000));
+                        consumer.drain();
+                    }
+                } catch (IOException e) {
+                    mErrors.add(e.toString());
+                }
+            }
+        });
+        waiter.start();
+
+        runProducer(MODE_WAKEUP, count);
+        waiter.join();
+
+        assertEquals(Collections.nCopies(count, true), signaled);
+        assertEquals(Collections.emptyList(), mErrors);
+        assertSequence(count);
+    }
+
+    private SharedRing newRing(int capacity) throws IOException {
+        SharedRing ring = SharedRing.create(mFile, capacity);
+        ring.setWakeupId(mWakeup.getPort());
+        return ring;
+    }
+
+    // the generated dispatcher holds the receiver weakly
+    private final Ticks mReceiver = new Ticks() {
+        @Override
+        public void onTick(int seq, String text) {
+            if (!getText(seq).equals(text)) {
+                mErrors.add("broken text of " + seq);
+            }
+            mSeqs.add(seq);
+        }
+    };
+
+    private Dispatcher newDispatcher() {
+        return ChannelHelper.newDispatcher(Ticks.class, mReceiver);
+    }
+
+    private void assertSequence(int count) {
+        assertEquals(count, mSeqs.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i + 1, (int) mSeqs.get(i));
+        }
+    }
+
+    // runs the producer to the end, returns its dropped count
+    private long runProducer(String mode, int count) throws IOException, InterruptedException {
+        String classPath = getLocation(SharedRingProcessTest.class) + File.pathSeparator + getLocation(SharedRing.class);
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+
+        Process process = new ProcessBuilder(java, "-cp", classPath, Producer.class.getName(),
+                mode, mFile.getAbsolutePath(), String.valueOf(count))
+                .redirectErrorStream(true)
+                .start();
+
+        StringBuilder output = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.append(line).append('\n');
+            }
+        } finally {
+            reader.close();
+        }
+
+        assertEquals(output.toString(), 0, process.waitFor());
+        String lines = output.toString().trim();
+        return Long.parseLong(lines.substring(lines.lastIndexOf('\n') + 1));
+    }
+
+    private static String getLocation(Class<?> clazz) {
+        try {
+            return new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI()).getAbsolutePath();
+        } catch (Exception e) {
+            throw new IllegalStateException("no location of " + clazz.getName(), e);
+        }
+    }
+
+    // a record size that varies, so the records are padded at the end of the ring
+    static String getText(int seq) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < seq % 37; i++) {
+            text.append((char) ('a' + i % 26));
+        }
+        return text.toString();
+    }
+
+    /**
+     * The child process, prints the dropped count at the end.
+     */
+    public static final class Producer {
+        public static void main(String[] args) throws Exception {
+            String mode = args[0];
+            SharedRing ring = SharedRing.attach(new File(args[1]));
+            int count = Integer.parseInt(args[2]);
+
+            LoopbackWakeup wakeup = LoopbackWakeup.connect(ring.getWakeupId());
+            SharedRingEmitter emitter = new SharedRingEmitter(ring, wakeup);
+            Ticks ticks = ChannelHelper.newEmitter(Ticks.class, emitter);
+
+            for (int seq = 1; seq <= count; seq++) {
+                if (MODE_WAKEUP.equals(mode)) {
+                    while (!ring.isEmpty()) {
+                        Thread.sleep(1);
+                    }
+                    // let the consumer wait
+                    Thread.sleep(20);
+                }
+
+                long dropped = emitter.getDroppedCount();
+                ticks.onTick(seq, getText(seq));
+
+                while (MODE_ALL.equals(mode) && emitter.getDroppedCount() != dropped) {
+                    // full, retry until the consumer catches up
+                    Thread.sleep(1);
+                    dropped = emitter.getDroppedCount();
+                    ticks.onTick(seq, getText(seq));
+                }
+            }
+
+            wakeup.close();
+            System.out.println(emitter.getDroppedCount());
+        }
+    }
+}
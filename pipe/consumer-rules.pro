@@ -1,4 +1,13 @@
--keep @channel.helper.Channel interface * { *; }
--keep class **__ChannelHelper { *; }
--keep class **__ChannelHelper$Emitter { *; }
--keep class **__ChannelHelper$Dispatcher { *; }
\ No newline at end of file
+# the generated indexes are loaded by ServiceLoader, R8 rewrites the call, keep them for ProGuard
+-keep class * implements channel.helper.ChannelIndex { public <init>(); }
+
+# The reflective fallback of ChannelHelper is only used for the helpers generated by an older
+# processor (without the index), add these rules to your app if you still use them:
+#
+# -keepnames @channel.helper.Channel interface *
+# -keep class **__ChannelHelper {
+#     public static final channel.helper.ChannelFactory FACTORY;
+#     public static final int CHANNEL_ID;
+# }
+# -keep class **__ChannelHelper$Emitter { public <init>(channel.helper.Emitter); }
+# -keep class **__ChannelHelper$Dispatcher { public <init>(...); }
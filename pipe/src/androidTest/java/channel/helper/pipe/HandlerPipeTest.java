@@ -0,0 +1,150 @@
+package channel.helper.pipe;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import channel.helper.Dispatcher;
+import channel.helper.OverflowPolicy;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class HandlerPipeTest {
+    private static final String KEY_SOURCE = "source";
+    private static final String KEY_SEQ = "seq";
+
+    private static final int SOURCE_PRODUCER = 1;
+    private static final int SOURCE_LOOPER = 2;
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+
+    // only accessed on the Looper thread until the test joins it
+    private final List<int[]> mEvents = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        mThread = new HandlerThread("HandlerPipeTest");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    @After
+    public void tearDown() {
+        mThread.quit();
+    }
+
+    @Test
+    public void dropOldest_inlineEmitsKeepOrder() throws InterruptedException {
+        final int producerCount = 20_000;
+        final int looperCount = 2_000;
+
+        final HandlerPipe pipe = new HandlerPipe(mThread.getLooper(), new Dispatcher() {
+            @Override
+            public boolean dispatch(Map<String, Object> data) {
+                mEvents.add(new int[]{(int) data.get(KEY_SOURCE), (int) data.get(KEY_SEQ)});
+                return true;
+            }
+
+            @Override
+            public boolean match(Map<String, Object> data) {
+                return true;
+            }
+        });
+        pipe.setCapacity(4, OverflowPolicy.DROP_OLDEST);
+        pipe.setInlineEnabled(true);
+
+        // the last producer call that is in the queue, or dropped
+        final AtomicInteger enqueued = new AtomicInteger();
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int seq = 1; seq <= producerCount; seq++) {
+                    pipe.emit(newCall(SOURCE_PRODUCER, seq));
+                    enqueued.set(seq);
+                }
+            }
+        });
+
+        // the calls emitted on the Looper thread, every one carries the producer calls emitted before it
+        final CountDownLatch looperDone = new CountDownLatch(1);
+        mHandler.post(new Runnable() {
+            private int mCount;
+
+            @Override
+            public void run() {
+                pipe.emit(newCall(SOURCE_LOOPER, enqueued.get()));
+
+                if (++mCount < looperCount) {
+                    mHandler.post(this);
+                } else {
+                    looperDone.countDown();
+                }
+            }
+        });
+
+        producer.start();
+        producer.join();
+        assertTrue(looperDone.await(30, TimeUnit.SECONDS));
+
+        // all the calls have been handled, a call emitted on the Looper thread now runs inline
+        final CountDownLatch drained = new CountDownLatch(1);
+        final boolean[] inline = new boolean[1];
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                int size = mEvents.size();
+                pipe.emit(newCall(SOURCE_LOOPER, producerCount));
+                inline[0] = mEvents.size() == size + 1;
+                drained.countDown();
+            }
+        });
+        assertTrue(drained.await(30, TimeUnit.SECONDS));
+        assertTrue("the queued count is broken", inline[0]);
+
+        // every call is either dispatched or dropped
+        assertEquals(producerCount + looperCount + 1, mEvents.size() + pipe.getDroppedCount());
+
+        int lastSeq = 0;
+        for (int i = 0; i < mEvents.size(); i++) {
+            int[] event = mEvents.get(i);
+            if (event[0] == SOURCE_PRODUCER) {
+                assertTrue("producer calls out of order", event[1] > lastSeq);
+                lastSeq = event[1];
+                continue;
+            }
+
+            // no producer call emitted before this one is dispatched after it
+            for (int j = i + 1; j < mEvents.size(); j++) {
+                int[] later = mEvents.get(j);
+                if (later[0] == SOURCE_PRODUCER) {
+                    assertTrue("an inline call overtook a queued call", later[1] > event[1]);
+                    break;
+                }
+            }
+        }
+    }
+
+    private static Map<String, Object> newCall(int source, int seq) {
+        Map<String, Object> data = new HashMap<>();
+        data.put(KEY_SOURCE, source);
+        data.put(KEY_SEQ, seq);
+        return data;
+    }
+}
@@ -0,0 +1,111 @@
+package channel.helper.pipe;
+
+import android.os.HandlerThread;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import channel.helper.Dispatcher;
+import channel.helper.OverflowPolicy;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class MessengerPipeTest {
+    private static final String KEY_SEQ = "seq";
+
+    private HandlerThread mThread;
+
+    @Before
+    public void setUp() {
+        mThread = new HandlerThread("MessengerPipeTest");
+        mThread.start();
+    }
+
+    @After
+    public void tearDown() {
+        mThread.quit();
+    }
+
+    @Test
+    public void bounded_onlyLimitsTheCalls() throws InterruptedException {
+        final AtomicInteger calls = new AtomicInteger();
+        MessengerPipe pipe = new MessengerPipe(mThread.getLooper(), new Dispatcher() {
+            @Override
+            public boolean dispatch(Map<String, Object> data) {
+                if (data.containsKey(KEY_SEQ)) {
+                    calls.incrementAndGet();
+                }
+                return true;
+            }
+
+            @Override
+            public boolean match(Map<String, Object> data) {
+                return true;
+            }
+        });
+        pipe.setCapacity(1, OverflowPolicy.DROP_NEWEST);
+
+        // hold the Looper, so everything below stays in the queue
+        final CountDownLatch release = new CountDownLatch(1);
+        pipe.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        final AtomicInteger runs = new AtomicInteger();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(pipe.post(new Runnable() {
+                @Override
+                public void run() {
+                    runs.incrementAndGet();
+                }
+            }));
+        }
+
+        Object obj = new Object();
+        assertTrue(pipe.sendMessage(pipe.obtainMessage(7, obj)));
+        assertTrue(pipe.hasMessages(7, obj));
+
+        for (int seq = 1; seq <= 3; seq++) {
+            pipe.emit(newCall(seq));
+        }
+
+        final CountDownLatch done = new CountDownLatch(1);
+        pipe.post(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        assertEquals(10, runs.get());
+        assertEquals(1, calls.get());
+        assertEquals(2, pipe.getDroppedCount());
+    }
+
+    private static Map<String, Object> newCall(int seq) {
+        Map<String, Object> data = new HashMap<>();
+        data.put(KEY_SEQ, seq);
+        return data;
+    }
+}
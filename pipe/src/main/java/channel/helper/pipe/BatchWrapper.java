@@ -0,0 +1,146 @@
+package channel.helper.pipe;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.Map;
+
+import channel.helper.Dispatcher;
+import channel.helper.DispatcherUtil;
+import channel.helper.Envelope;
+import channel.helper.Header;
+import channel.helper.Invocation;
+import channel.helper.Metrics;
+import channel.helper.PendingReplies;
+
+/**
+ * A batch of messages, the messages have been written to the payload Parcel in order.
+ */
+final class BatchWrapper implements Parcelable {
+    private static final int TAG_MAP = 0;
+    private static final int TAG_INVOCATION = 1;
+
+    private final int mCount;
+    private final Parcel mPayload;
+    // not parcelled, the sender puts it in Message.arg1
+    private final int mFlags;
+
+    BatchWrapper(int count, Parcel payload, int flags) {
+        mCount = count;
+        mPayload = payload;
+        mFlags = flags;
+    }
+
+    private BatchWrapper(Parcel in) {
+        mCount = in.readInt();
+        mFlags = 0;
+        int size = in.readInt();
+
+        int position = in.dataPosition();
+        mPayload = Parcel.obtain();
+        mPayload.appendFrom(in, position, size);
+
+        in.setDataPosition(position + size);
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(mCount);
+        dest.writeInt(mPayload.dataSize());
+        dest.appendFrom(mPayload, 0, mPayload.dataSize());
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<BatchWrapper> CREATOR = new Creator<BatchWrapper>() {
+        @Override
+        public BatchWrapper createFromParcel(Parcel in) {
+            return new BatchWrapper(in);
+        }
+
+        @Override
+        public BatchWrapper[] newArray(int size) {
+            return new BatchWrapper[size];
+        }
+    };
+
+    static void writeMap(Parcel dest, Map<String, Object> data) {
+        dest.writeInt(TAG_MAP);
+        dest.writeMap(data);
+    }
+
+    static void writeInvocation(Parcel dest, Invocation invocation, PendingReplies pendingReplies) {
+        dest.writeInt(TAG_INVOCATION);
+        InvocationWrapper.write(dest, invocation, pendingReplies);
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public int getFlags() {
+        return mFlags;
+    }
+
+    /**
+     * Dispatch all messages in order, and then recycle the payload. The expired messages are
+     * discarded.
+     *
+     * @param replyChannel where to send the replies of the requests, may be null.
+     * @return the count of the expired messages.
+     */
+    public int dispatch(Dispatcher dispatcher, boolean recycleEnabled, ReplyChannel replyChannel) {
+        mPayload.setDataPosition(0);
+        int expired = 0;
+
+        for (int i = 0; i < mCount; i++) {
+            int start = mPayload.dataPosition();
+            if (mPayload.readInt() == TAG_INVOCATION) {
+                Invocation invocation = InvocationWrapper.read(mPayload, dispatcher, replyChannel);
+                if (invocation == null) {
+                    continue;
+                }
+
+                if (Header.isExpired(invocation.getDeadline())) {
+                    expired++;
+                    invocation.recycle();
+                    continue;
+                }
+
+                Metrics.record(invocation, mPayload.dataPosition() - start);
+                DispatcherUtil.dispatch(dispatcher, invocation);
+
+                if (recycleEnabled) {
+                    invocation.recycle();
+                }
+                continue;
+            }
+
+            Envelope envelope = Envelope.obtain();
+            mPayload.readMap(envelope, Thread.currentThread().getContextClassLoader());
+
+            if (Header.isExpired(Header.getDeadline(envelope))) {
+                expired++;
+                envelope.recycle();
+                continue;
+            }
+
+            Metrics.record(envelope, mPayload.dataPosition() - start);
+            dispatcher.dispatch(envelope);
+
+            if (recycleEnabled) {
+                envelope.recycle();
+            }
+        }
+
+        recycle();
+        return expired;
+    }
+
+    public void recycle() {
+        mPayload.recycle();
+    }
+}
@@ -0,0 +1,326 @@
+package channel.helper.pipe;
+
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.Parcel;
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import channel.helper.Envelope;
+import channel.helper.Header;
+import channel.helper.Invocation;
+import channel.helper.Metrics;
+import channel.helper.TypedEmitter;
+
+/**
+ * Sends every call to many {@link MessengerPipe}s in other processes, for example a service that
+ * pushes the same state to all its bound clients.
+ * <p>
+ * A call is written to a Parcel only once, then every client gets a copy of the bytes in a
+ * {@link Message}, the arguments are not parcelled again per client. The receivers are plain
+ * {@link MessengerPipe}s:
+ * <pre>
+ * // service
+ * BroadcastPipe broadcastPipe = new BroadcastPipe();
+ * Foo foo = ChannelHelper.newEmitter(Foo.class, broadcastPipe);
+ *
+ * // when a client is bound, for example by a registration message
+ * broadcastPipe.register(clientMessenger);
+ *
+ * // client
+ * MessengerPipe clientPipe = new MessengerPipe(dispatcher);
+ * // send clientPipe.getMessenger() to the service
+ * </pre>
+ * Each client has a serial queue that is drained on the executor, so a slow client doesn't hold up
+ * the others, and the calls of a client are delivered in order. When a queue is full, the new calls of
+ * that client are dropped, see {@link #getDroppedCount()}. The clients whose process died are
+ * unregistered automatically.
+ * <p>
+ * The request methods are not supported, their replies fail with {@link UnsupportedOperationException}.
+ */
+public final class BroadcastPipe implements TypedEmitter {
+    private static final String TAG = "BroadcastPipe";
+
+    public static final int DEFAULT_MAX_PENDING = 256;
+
+    /**
+     * The max count of messages that a client sends in one task, then the task is submitted again,
+     * so a busy client does not occupy a thread of the executor forever.
+     */
+    private static final int MAX_BATCH = 16;
+
+    private final Executor mExecutor;
+    private final int mMaxPending;
+    private final CopyOnWriteArrayList<Client> mClients = new CopyOnWriteArrayList<>();
+    // guards registering and removing the clients, the emitters only read mClients
+    private final Object mClientsLock = new Object();
+    private final AtomicLong mDroppedCount = new AtomicLong();
+
+    /**
+     * Use a cached thread pool and {@link #DEFAULT_MAX_PENDING}.
+     */
+    public BroadcastPipe() {
+        this(newDefaultExecutor(), DEFAULT_MAX_PENDING);
+    }
+
+    /**
+     * @param executor   the executor that sends the messages, use a pool with many threads, the
+     *                   clients are sent to in parallel.
+     * @param maxPending the max count of the messages waiting to be sent to a client.
+     */
+    public BroadcastPipe(Executor executor, int maxPending) {
+        if (executor == null) {
+            throw new IllegalArgumentException("param 'executor' is not null.");
+        }
+
+        if (maxPending < 1) {
+            throw new IllegalArgumentException("param 'maxPending' is illegal: " + maxPending);
+        }
+
+        mExecutor = executor;
+        mMaxPending = maxPending;
+    }
+
+    private static ExecutorService newDefaultExecutor() {
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "BroadcastPipe-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Registers a client, returns {@code false} if its process is already dead. Registering the same
+     * client twice does nothing.
+     */
+    public boolean register(Messenger messenger) {
+        if (messenger == null) {
+            throw new IllegalArgumentException("param 'messenger' is not null.");
+        }
+
+        synchronized (mClientsLock) {
+            if (findClient(messenger.getBinder()) != null) {
+                return true;
+            }
+
+            Client client = new Client(messenger);
+            try {
+                messenger.getBinder().linkToDeath(client, 0);
+            } catch (RemoteException e) {
+                return false;
+            }
+
+            mClients.add(client);
+            return true;
+        }
+    }
+
+    /**
+     * Unregisters a client, the messages waiting to be sent to it are discarded.
+     */
+    public void unregister(Messenger messenger) {
+        if (messenger == null) {
+            throw new IllegalArgumentException("param 'messenger' is not null.");
+        }
+
+        synchronized (mClientsLock) {
+            Client client = findClient(messenger.getBinder());
+            if (client != null) {
+                remove(client);
+            }
+        }
+    }
+
+    /**
+     * Returns the count of the registered clients.
+     */
+    public int getClientCount() {
+        return mClients.size();
+    }
+
+    /**
+     * Returns the count of the messages dropped because the queue of a client was full.
+     */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    private Client findClient(IBinder binder) {
+        for (Client client : mClients) {
+            if (client.mMessenger.getBinder() == binder) {
+                return client;
+            }
+        }
+
+        return null;
+    }
+
+    private void remove(Client client) {
+        synchronized (mClientsLock) {
+            if (mClients.remove(client)) {
+                client.mMessenger.getBinder().unlinkToDeath(client, 0);
+                client.clear();
+            }
+        }
+    }
+
+    @Override
+    public void emit(Invocation invocation) {
+        Metrics.stamp(invocation);
+        int flags = invocation.getFlags();
+
+        Parcel payload = Parcel.obtain();
+        // no PendingReplies: the reply of a request fails at once
+        BatchWrapper.writeInvocation(payload, invocation, null);
+        invocation.recycle();
+
+        broadcast(payload, flags);
+    }
+
+    @Override
+    public void emit(Map<String, Object> data) {
+        Metrics.stamp(data);
+        int flags = Header.getFlags(data);
+
+        Parcel payload = Parcel.obtain();
+        BatchWrapper.writeMap(payload, data);
+        Envelope.recycle(data);
+
+        broadcast(payload, flags);
+    }
+
+    private void broadcast(Parcel payload, int flags) {
+        // only the flags that affect how the receiver enqueues the message
+        int queueFlags = flags & (Header.FLAG_URGENT | Header.FLAG_ASYNC);
+
+        for (Client client : mClients) {
+            // a plain copy of the bytes, the receiver recycles it if it is local
+            Parcel copy = Parcel.obtain();
+            copy.appendFrom(payload, 0, payload.dataSize());
+            client.offer(new BatchWrapper(1, copy, queueFlags));
+        }
+
+        payload.recycle();
+    }
+
+    /**
+     * A registered client, its messages are sent in order by at most one task at a time.
+     */
+    private final class Client implements IBinder.DeathRecipient, Runnable {
+        private final Messenger mMessenger;
+        private final Queue<BatchWrapper> mQueue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger mPending = new AtomicInteger();
+        private final AtomicBoolean mScheduled = new AtomicBoolean();
+        private volatile boolean mRemoved;
+
+        Client(Messenger messenger) {
+            mMessenger = messenger;
+        }
+
+        void offer(BatchWrapper batch) {
+            if (mPending.incrementAndGet() > mMaxPending) {
+                mPending.decrementAndGet();
+                mDroppedCount.incrementAndGet();
+                batch.recycle();
+                return;
+            }
+
+            mQueue.offer(batch);
+            schedule();
+        }
+
+        void schedule() {
+            if (mScheduled.compareAndSet(false, true)) {
+                try {
+                    mExecutor.execute(this);
+                } catch (RuntimeException e) {
+                    // rejected, the next message will try again
+                    mScheduled.set(false);
+                    throw e;
+                }
+            }
+        }
+
+        void clear() {
+            mRemoved = true;
+
+            BatchWrapper batch;
+            while ((batch = mQueue.poll()) != null) {
+                mPending.decrementAndGet();
+                batch.recycle();
+            }
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < MAX_BATCH; i++) {
+                BatchWrapper batch = mQueue.poll();
+                if (batch == null) {
+                    break;
+                }
+
+                mPending.decrementAndGet();
+                if (mRemoved) {
+                    batch.recycle();
+                    continue;
+                }
+
+                send(batch);
+            }
+
+            mScheduled.set(false);
+
+            // a message may be enqueued after the last poll but before the flag is cleared
+            if (!mQueue.isEmpty()) {
+                schedule();
+            }
+        }
+
+        private void send(BatchWrapper batch) {
+            Message message = Message.obtain();
+            message.arg1 = batch.getFlags();
+
+            Bundle bundle = new Bundle();
+            bundle.putParcelable(MessengerPipe.KEY_BATCH_WRAPPER, batch);
+            message.setData(bundle);
+
+            try {
+                mMessenger.send(message);
+            } catch (RemoteException e) {
+                // the process is dead, the death notification may not have arrived yet
+                Log.d(TAG, "failed to send, client removed", e);
+                remove(this);
+            }
+
+            // the batch will be recycled by the receiver if the messenger is local.
+            if (!(mMessenger.getBinder() instanceof Binder)) {
+                batch.recycle();
+            }
+        }
+
+        @Override
+        public void binderDied() {
+            remove(this);
+        }
+    }
+}
@@ -6,26 +6,43 @@ import android.support.v4.media.session.MediaControllerCompat;
 import java.util.Map;
 
 import channel.helper.Dispatcher;
-import channel.helper.Emitter;
+import channel.helper.DispatcherUtil;
+import channel.helper.Envelope;
+import channel.helper.Invocation;
+import channel.helper.Metrics;
+import channel.helper.TypedEmitter;
 
 /**
  * Help handle MediaSession custom action easily.
  */
-public final class CustomActionPipe implements Emitter {
+public final class CustomActionPipe implements TypedEmitter {
     private static final String ACTION = "channel.helper.pipe.CUSTOM_ACTION";
     private static final String KEY_DATA = "data";
+    private static final String KEY_INVOCATION = "invocation";
 
     private MediaControllerCompat.TransportControls mTransportControls;
     private Dispatcher mDispatcher;
+    private volatile boolean mRecycleEnabled = true;
 
     @Override
     public void emit(Map<String, Object> data) {
+        Metrics.stamp(data);
         Bundle bundle = new Bundle();
         bundle.putParcelable(KEY_DATA, new MapWrapper(data));
 
         mTransportControls.sendCustomAction(ACTION, bundle);
     }
 
+    @Override
+    public void emit(Invocation invocation) {
+        Metrics.stamp(invocation);
+        // the invocation isn't recycled here, the session may be in the same process.
+        Bundle bundle = new Bundle();
+        bundle.putParcelable(KEY_INVOCATION, new InvocationWrapper(invocation, null));
+
+        mTransportControls.sendCustomAction(ACTION, bundle);
+    }
+
     /**
      * For {@link MediaControllerCompat.TransportControls#sendCustomAction(String, Bundle)}
      */
@@ -49,11 +66,49 @@ public final class CustomActionPipe implements Emitter {
             return false;
         }
 
+        InvocationWrapper invocationWrapper = data.getParcelable(KEY_INVOCATION);
+        if (invocationWrapper != null) {
+            return dispatch(invocationWrapper);
+        }
+
         MapWrapper wrapper = data.getParcelable(KEY_DATA);
         if (wrapper == null) {
             return false;
         }
 
-        return mDispatcher.dispatch(wrapper.getMap());
+        Map<String, Object> map = wrapper.getMap();
+        Metrics.record(map, wrapper.getPayloadSize());
+        boolean result = mDispatcher.dispatch(map);
+
+        if (mRecycleEnabled) {
+            Envelope.recycle(map);
+        }
+
+        return result;
+    }
+
+    private boolean dispatch(InvocationWrapper invocationWrapper) {
+        Invocation invocation = invocationWrapper.getInvocation(mDispatcher, null);
+        if (invocation == null) {
+            return false;
+        }
+
+        Metrics.record(invocation, invocationWrapper.getPayloadSize());
+        boolean result = DispatcherUtil.dispatch(mDispatcher, invocation);
+
+        if (mRecycleEnabled) {
+            invocation.recycle();
+        }
+
+        return result;
+    }
+
+    /**
+     * Whether to recycle the {@link Envelope} and the {@link Invocation} after dispatched, default is true.
+     * <p>
+     * Disable it if the dispatcher keeps a reference to the map.
+     */
+    public void setRecycleEnabled(boolean enabled) {
+        mRecycleEnabled = enabled;
     }
 }
@@ -1,22 +1,68 @@
 package channel.helper.pipe;
 
+import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.collection.LongSparseArray;
 
 import java.lang.ref.WeakReference;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import channel.helper.Dispatcher;
-import channel.helper.Emitter;
+import channel.helper.DispatcherUtil;
+import channel.helper.Envelope;
+import channel.helper.Header;
+import channel.helper.Invocation;
+import channel.helper.Metrics;
+import channel.helper.OverflowPolicy;
+import channel.helper.TypedEmitter;
 
-public class HandlerPipe extends Handler implements Emitter {
+/**
+ * Handler Pipe.
+ * <p>
+ * It's a {@link TypedEmitter}, so the generated emitter will send {@link Invocation} directly,
+ * without boxing the primitive arguments into a map.
+ * <p>
+ * Supports {@link channel.helper.Conflate}: at most one call of a conflated method is waiting in
+ * the message queue, a new call replaces the undelivered one.
+ * <p>
+ * Supports {@link channel.helper.Urgent} (front of queue) and {@link channel.helper.Async}
+ * (asynchronous message, API 22 and above).
+ * <p>
+ * The queue is unbounded by default, see {@link #setCapacity(int, OverflowPolicy)}. The expired calls
+ * of the {@link channel.helper.Ttl} methods are discarded at dispatch time.
+ * <p>
+ * The calls emitted on the Looper thread can be dispatched inline, see {@link #setInlineEnabled(boolean)}.
+ */
+public class HandlerPipe extends Handler implements TypedEmitter {
     private static final String TAG = "HandlerPipe";
+    private static final int WHAT_CONFLATED = 0x48504331;
+
     private final Dispatcher mDispatcher;
+    private volatile boolean mRecycleEnabled = true;
+
+    // (channel id, method id) -> the undelivered message of the conflated method
+    private final LongSparseArray<Message> mPending = new LongSparseArray<>();
+
+    // the messages of this pipe in the message queue, incremented before sent, decremented once:
+    // when the message is handled, or when the limiter drops it (it may never be handled then)
+    private final AtomicInteger mQueued = new AtomicInteger();
+    private final MessageLimiter mLimiter = new MessageLimiter(this, new Runnable() {
+        @Override
+        public void run() {
+            mQueued.decrementAndGet();
+        }
+    });
+
+    private volatile boolean mInlineEnabled;
+    // only accessed on the Looper thread
+    private boolean mDispatching;
 
     /**
      * Use Main Looper
@@ -35,30 +81,243 @@ public class HandlerPipe extends Handler implements Emitter {
         mDispatcher = dispatcher;
     }
 
+    /**
+     * Whether to recycle the {@link Envelope} and {@link Invocation} after dispatched, default is true.
+     * <p>
+     * Disable it if the dispatcher keeps a reference to the map.
+     */
+    public void setRecycleEnabled(boolean enabled) {
+        mRecycleEnabled = enabled;
+    }
+
+    /**
+     * Whether to dispatch the calls emitted on the Looper thread directly, default is false.
+     * <p>
+     * A call is dispatched inline only when no earlier call of this pipe is waiting in the message
+     * queue, so the calls are still dispatched in FIFO order, and never inside the dispatch of
+     * another call. Otherwise it is enqueued as usual. It saves a Message and a loop of the Looper for
+     * the UI code that emits to the UI receivers, but the emitter returns after the receiver.
+     */
+    public void setInlineEnabled(boolean enabled) {
+        mInlineEnabled = enabled;
+    }
+
+    /**
+     * Limits the count of the calls waiting in the message queue, 0 is unbounded (default).
+     * The calls of the {@link channel.helper.Conflate} methods are not counted, they are bounded
+     * already.
+     */
+    public void setCapacity(int capacity, OverflowPolicy policy) {
+        mLimiter.setCapacity(capacity, policy);
+    }
+
+    /**
+     * Returns the count of the calls dropped by the {@link OverflowPolicy}.
+     */
+    public long getDroppedCount() {
+        return mLimiter.getDroppedCount();
+    }
+
+    /**
+     * Returns the count of the calls discarded because their {@link channel.helper.Ttl} expired.
+     */
+    public long getExpiredCount() {
+        return mLimiter.getExpiredCount();
+    }
+
     @Override
     public void emit(Map<String, Object> data) {
+        Metrics.stamp(data);
+        if (canDispatchInline()) {
+            dispatch(data);
+            return;
+        }
+
+        int flags = Header.getFlags(data);
+        if ((flags & Header.FLAG_CONFLATE) != 0) {
+            emitConflated(Header.getChannelId(data), Header.getMethodId(data), flags, data);
+            return;
+        }
+
         Message message = Message.obtain();
         message.obj = data;
-        sendMessage(message);
+        enqueue(message, flags);
+    }
+
+    @Override
+    public void emit(Invocation invocation) {
+        Metrics.stamp(invocation);
+        if (canDispatchInline()) {
+            dispatch(invocation);
+            return;
+        }
+
+        int flags = invocation.getFlags();
+        if ((flags & Header.FLAG_CONFLATE) != 0) {
+            emitConflated(invocation.getChannelId(), invocation.getMethodId(), flags, invocation);
+            return;
+        }
+
+        Message message = Message.obtain();
+        message.obj = invocation;
+        enqueue(message, flags);
+    }
+
+    private boolean canDispatchInline() {
+        return mInlineEnabled
+                && Looper.myLooper() == getLooper()
+                && !mDispatching
+                && mQueued.get() == 0;
+    }
+
+    private void enqueue(Message message, int flags) {
+        if (!mLimiter.offer(message)) {
+            MessageLimiter.recycle(message.obj);
+            message.recycle();
+            return;
+        }
+
+        Object payload = message.obj;
+        if (!send(message, flags)) {
+            // the Looper has quit, the message has been recycled
+            mLimiter.remove(message);
+            MessageLimiter.recycle(payload);
+        }
+    }
+
+    private boolean send(Message message, int flags) {
+        // counted before it is visible to the Looper
+        mQueued.incrementAndGet();
+        if (!sendWithFlags(message, flags)) {
+            mQueued.decrementAndGet();
+            return false;
+        }
+
+        return true;
+    }
+
+    private boolean sendWithFlags(Message message, int flags) {
+        if ((flags & Header.FLAG_ASYNC) != 0 && Build.VERSION.SDK_INT >= 22) {
+            message.setAsynchronous(true);
+        }
+
+        if ((flags & Header.FLAG_URGENT) != 0) {
+            return sendMessageAtFrontOfQueue(message);
+        }
+
+        return sendMessage(message);
+    }
+
+    private void emitConflated(int channelId, int methodId, int flags, Object payload) {
+        long key = getKey(channelId, methodId);
+        Object replaced = null;
+
+        synchronized (mPending) {
+            Message pending = mPending.get(key);
+            if (pending != null) {
+                replaced = pending.obj;
+                pending.obj = payload;
+            } else {
+                Message message = obtainMessage(WHAT_CONFLATED, channelId, methodId, payload);
+                mPending.put(key, message);
+
+                if (!send(message, flags)) {
+                    // the Looper has quit
+                    mPending.remove(key);
+                    replaced = payload;
+                }
+            }
+        }
+
+        // the replaced or unsent one has never been delivered, so it is always safe to recycle it.
+        if (replaced instanceof Invocation) {
+            ((Invocation) replaced).recycle();
+        } else if (replaced instanceof Map) {
+            Envelope.recycle(getData(replaced));
+        }
+    }
+
+    private static long getKey(int channelId, int methodId) {
+        return ((long) channelId << 32) | (methodId & 0xFFFFFFFFL);
     }
 
     @Override
     public void handleMessage(@NonNull Message msg) {
-        mDispatcher.dispatch(getData(msg));
+        Object payload;
+
+        if (msg.what == WHAT_CONFLATED) {
+            // take the latest payload, the later calls will be sent in a new message.
+            synchronized (mPending) {
+                payload = msg.obj;
+                mPending.remove(getKey(msg.arg1, msg.arg2));
+            }
+        } else {
+            payload = mLimiter.claim(msg);
+        }
+
+        if (payload == null) {
+            // dropped by the limiter, which has uncounted it and recycled the payload
+            return;
+        }
+
+        mQueued.decrementAndGet();
+        dispatch(payload);
+    }
+
+    private void dispatch(Object payload) {
+        mDispatching = true;
+        try {
+            dispatchPayload(payload);
+        } finally {
+            mDispatching = false;
+        }
+    }
+
+    private void dispatchPayload(Object payload) {
+        if (payload instanceof Invocation) {
+            Invocation invocation = (Invocation) payload;
+            if (Header.isExpired(invocation.getDeadline())) {
+                mLimiter.onExpired(1);
+                invocation.recycle();
+                return;
+            }
+
+            Metrics.record(invocation, -1);
+            DispatcherUtil.dispatch(mDispatcher, invocation);
+
+            if (mRecycleEnabled) {
+                invocation.recycle();
+            }
+            return;
+        }
+
+        Map<String, Object> data = getData(payload);
+        if (Header.isExpired(Header.getDeadline(data))) {
+            mLimiter.onExpired(1);
+            Envelope.recycle(data);
+            return;
+        }
+
+        Metrics.record(data, -1);
+        mDispatcher.dispatch(data);
+
+        if (mRecycleEnabled) {
+            Envelope.recycle(data);
+        }
     }
 
     @SuppressWarnings("unchecked cast")
-    private Map<String, Object> getData(Message dataWrapper) {
-        if (dataWrapper.obj == null) {
+    private Map<String, Object> getData(Object dataWrapper) {
+        if (dataWrapper == null) {
             Log.d(TAG, "dataWrapper is empty.");
             return new HashMap<>();
         }
 
-        if (!(dataWrapper.obj instanceof Map)) {
+        if (!(dataWrapper instanceof Map)) {
             Log.d(TAG, "dataWrapper is empty.");
             return new HashMap<>();
         }
 
-        return (Map<String, Object>) dataWrapper.obj;
+        return (Map<String, Object>) dataWrapper;
     }
 }
@@ -0,0 +1,163 @@
+package channel.helper.pipe;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.util.Log;
+
+import channel.helper.ChannelCodec;
+import channel.helper.Dispatcher;
+import channel.helper.DispatcherUtil;
+import channel.helper.Header;
+import channel.helper.Invocation;
+import channel.helper.PendingReplies;
+
+/**
+ * Writes an {@link Invocation} as: the header packed by {@link Header#pack(int, int)}, emit time, size of the arguments, and then the
+ * arguments written by {@link Invocation#writeTo(channel.helper.WireWriter)}. There is no key
+ * and no type tag for the primitive and String arguments.
+ * <p>
+ * The receiver decodes it with the {@link ChannelCodec} of the channel, which is found by
+ * {@link DispatcherUtil#findCodec(Dispatcher, int)}, so a dispatcher that is not a
+ * {@link channel.helper.TypedDispatcher} receives it as a map.
+ * <p>
+ * The {@link channel.helper.Reply} params are kept in the {@link PendingReplies} of the sender, only
+ * the correlation ids are written, the receiver replies through the {@link ReplyChannel}.
+ */
+final class InvocationWrapper implements Parcelable {
+    private static final String TAG = "InvocationWrapper";
+
+    // not null if the wrapper is not parcelled (local)
+    private Invocation mInvocation;
+    // the sender side, may be null
+    private PendingReplies mPendingReplies;
+
+    // the whole record, not null if the wrapper is read from a Parcel
+    private Parcel mPayload;
+    private int mPayloadSize = -1;
+
+    /**
+     * @param pendingReplies where the replies of the request are kept, {@code null} if the pipe
+     *                       doesn't support {@link channel.helper.Reply}.
+     */
+    InvocationWrapper(Invocation invocation, PendingReplies pendingReplies) {
+        mInvocation = invocation;
+        mPendingReplies = pendingReplies;
+    }
+
+    private InvocationWrapper(Parcel in) {
+        int start = in.dataPosition();
+        in.readLong();  // header
+        in.readLong();  // emit time
+        int size = in.readInt();
+
+        int length = in.dataPosition() - start + size;
+        mPayloadSize = length;
+        mPayload = Parcel.obtain();
+        mPayload.appendFrom(in, start, length);
+
+        in.setDataPosition(start + length);
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        if (mInvocation != null) {
+            write(dest, mInvocation, mPendingReplies);
+            return;
+        }
+
+        dest.appendFrom(mPayload, 0, mPayload.dataSize());
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<InvocationWrapper> CREATOR = new Creator<InvocationWrapper>() {
+        @Override
+        public InvocationWrapper createFromParcel(Parcel in) {
+            return new InvocationWrapper(in);
+        }
+
+        @Override
+        public InvocationWrapper[] newArray(int size) {
+            return new InvocationWrapper[size];
+        }
+    };
+
+    /**
+     * Returns the invocation, or {@code null} if the channel is unknown in this process.
+     * Can only be called once.
+     *
+     * @param replyChannel where to send the replies of the request, may be null.
+     */
+    public Invocation getInvocation(Dispatcher dispatcher, ReplyChannel replyChannel) {
+        if (mInvocation != null) {
+            return mInvocation;
+        }
+
+        mPayload.setDataPosition(0);
+        Invocation invocation = read(mPayload, dispatcher, replyChannel);
+        mPayload.recycle();
+
+        return invocation;
+    }
+
+    /**
+     * Returns the size of the record in bytes, or -1 if the wrapper is not parcelled.
+     */
+    public int getPayloadSize() {
+        return mPayloadSize;
+    }
+
+    static void write(Parcel dest, Invocation invocation, PendingReplies pendingReplies) {
+        dest.writeLong(Header.pack(invocation.getChannelId(), invocation.getMethodId()));
+        dest.writeLong(invocation.getEmitTime());
+
+        // size of the arguments, written at last
+        int sizePosition = dest.dataPosition();
+        dest.writeInt(0);
+
+        int start = dest.dataPosition();
+        invocation.writeTo(new ParcelWireWriter(dest, pendingReplies));
+        int end = dest.dataPosition();
+
+        dest.setDataPosition(sizePosition);
+        dest.writeInt(end - start);
+        dest.setDataPosition(end);
+    }
+
+    /**
+     * Reads an invocation written by {@link #write(Parcel, Invocation, PendingReplies)}, returns {@code null} and
+     * skips the arguments if the channel is unknown in this process.
+     */
+    static Invocation read(Parcel in, Dispatcher dispatcher, ReplyChannel replyChannel) {
+        long header = in.readLong();
+        int channelId = Header.getChannelId(header);
+        int methodId = Header.getMethodId(header);
+        long emitTime = in.readLong();
+        int size = in.readInt();
+        int end = in.dataPosition() + size;
+
+        Invocation invocation = null;
+
+        ChannelCodec codec = DispatcherUtil.findCodec(dispatcher, channelId);
+        if (codec != null) {
+            ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+            invocation = codec.read(methodId, new ParcelWireReader(in, classLoader, replyChannel));
+            if (invocation != null) {
+                invocation.setEmitTime(emitTime);
+            } else {
+                Log.d(TAG, "method not found, channel id: " + channelId + ", method id: " + methodId
+                        + ", version: " + Header.getVersion(methodId));
+            }
+        } else {
+            // the sender may be another app, an unknown channel must not crash the receiver
+            Log.e(TAG, "call dropped, codec not found, channel id: " + channelId
+                    + ", the channel is not compiled in this app, or its helper is not registered");
+        }
+
+        in.setDataPosition(end);
+        return invocation;
+    }
+}
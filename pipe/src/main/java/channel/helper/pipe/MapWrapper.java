@@ -3,21 +3,25 @@ package channel.helper.pipe;
 import android.os.Parcel;
 import android.os.Parcelable;
 
-import java.util.HashMap;
 import java.util.Map;
 
+import channel.helper.Envelope;
+
 @SuppressWarnings("raw parameterized")
 final class MapWrapper implements Parcelable {
     private Map<String, Object> mMap;
+    private int mPayloadSize = -1;
 
     MapWrapper(Map<String, Object> map) {
         mMap = map;
     }
 
     private MapWrapper(Parcel in) {
-        mMap = new HashMap<>();
+        mMap = Envelope.obtain();
 
+        int start = in.dataPosition();
         in.readMap(mMap,Thread.currentThread().getContextClassLoader());
+        mPayloadSize = in.dataPosition() - start;
     }
 
     @Override
@@ -45,4 +49,11 @@ final class MapWrapper implements Parcelable {
     public Map<String, Object> getMap() {
         return mMap;
     }
+
+    /**
+     * Returns the size of the map in bytes, or -1 if the wrapper is not parcelled.
+     */
+    public int getPayloadSize() {
+        return mPayloadSize;
+    }
 }
@@ -0,0 +1,200 @@
+package channel.helper.pipe;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import channel.helper.Envelope;
+import channel.helper.Invocation;
+import channel.helper.OverflowPolicy;
+
+/**
+ * Limits the count of messages that a pipe has in the message queue of its Handler, and counts the
+ * dropped and expired messages.
+ * <p>
+ * The queued messages are tracked in order. A dropped message is marked by replacing its
+ * {@link Message#obj}, then removed by {@link Handler#removeMessages(int, Object)}; if the Looper has
+ * taken it already, {@link #claim(Message)} tells the pipe to skip it. So the pipes must not read the
+ * {@link Message#obj} of a limited message but claim it.
+ */
+final class MessageLimiter {
+    // the obj of the dropped messages
+    private static final Object DROPPED = new Object();
+
+    private final Handler mHandler;
+    private final Runnable mOnDropped;
+    private final Object mLock = new Object();
+
+    // guarded by mLock, 0 is unbounded
+    private int mCapacity;
+    // mCapacity != 0, read without lock, so an unbounded pipe doesn't lock for every message
+    private volatile boolean mBounded;
+    private OverflowPolicy mPolicy = OverflowPolicy.DROP_NEWEST;
+    private final ArrayDeque<Message> mQueued = new ArrayDeque<>();
+
+    private final AtomicLong mDroppedCount = new AtomicLong();
+    private final AtomicLong mExpiredCount = new AtomicLong();
+
+    MessageLimiter(Handler handler) {
+        this(handler, null);
+    }
+
+    /**
+     * @param onDropped called when a queued message is removed by {@link OverflowPolicy#DROP_OLDEST},
+     *                  it will never be handled.
+     */
+    MessageLimiter(Handler handler, Runnable onDropped) {
+        mHandler = handler;
+        mOnDropped = onDropped;
+    }
+
+    void setCapacity(int capacity, OverflowPolicy policy) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("illegal capacity: " + capacity);
+        }
+
+        if (policy == null) {
+            throw new IllegalArgumentException("policy is null");
+        }
+
+        synchronized (mLock) {
+            mCapacity = capacity;
+            mPolicy = policy;
+            mBounded = capacity != 0;
+
+            if (capacity == 0) {
+                mQueued.clear();
+            }
+
+            // the waiting senders check the new capacity
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Called before the message is enqueued, returns {@code false} if the message should be dropped.
+     */
+    boolean offer(Message message) {
+        if (!mBounded) {
+            return true;
+        }
+
+        synchronized (mLock) {
+            if (mCapacity == 0) {
+                return true;
+            }
+
+            boolean interrupted = false;
+            while (mCapacity != 0 && mQueued.size() >= mCapacity) {
+                if (mPolicy == OverflowPolicy.DROP_NEWEST) {
+                    mDroppedCount.incrementAndGet();
+                    return false;
+                }
+
+                if (mPolicy == OverflowPolicy.DROP_OLDEST) {
+                    dropOldest();
+                    continue;
+                }
+
+                // BLOCK
+                if (Looper.myLooper() == mHandler.getLooper()) {
+                    break;
+                }
+
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (mCapacity != 0) {
+                mQueued.add(message);
+            }
+            return true;
+        }
+    }
+
+    // must hold mLock
+    private void dropOldest() {
+        Message oldest = mQueued.poll();
+        Object payload = oldest.obj;
+
+        // the Looper may have taken the message, but it can't claim the payload before we release mLock
+        oldest.obj = DROPPED;
+        mHandler.removeMessages(oldest.what, DROPPED);
+        mDroppedCount.incrementAndGet();
+
+        if (mOnDropped != null) {
+            mOnDropped.run();
+        }
+
+        // will never be delivered, safe to recycle
+        recycle(payload);
+    }
+
+    /**
+     * Called on the Looper thread before the message is handled, returns its {@link Message#obj}, or
+     * {@code null} if the message has been dropped, then it must be skipped.
+     */
+    Object claim(Message message) {
+        if (!mBounded) {
+            // a message dropped before the capacity was cleared is still marked
+            Object obj = message.obj;
+            return obj == DROPPED ? null : obj;
+        }
+
+        synchronized (mLock) {
+            if (mQueued.remove(message)) {
+                mLock.notifyAll();
+            }
+
+            Object obj = message.obj;
+            return obj == DROPPED ? null : obj;
+        }
+    }
+
+    /**
+     * Called when the message failed to be enqueued.
+     */
+    void remove(Message message) {
+        if (!mBounded) {
+            return;
+        }
+
+        synchronized (mLock) {
+            if (mQueued.remove(message)) {
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    void onExpired(int count) {
+        mExpiredCount.addAndGet(count);
+    }
+
+    long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    long getExpiredCount() {
+        return mExpiredCount.get();
+    }
+
+    @SuppressWarnings("unchecked")
+    static void recycle(Object payload) {
+        if (payload instanceof Invocation) {
+            ((Invocation) payload).recycle();
+        } else if (payload instanceof Map) {
+            Envelope.recycle((Map<String, Object>) payload);
+        }
+    }
+}
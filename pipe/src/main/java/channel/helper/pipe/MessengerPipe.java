@@ -1,11 +1,14 @@
 package channel.helper.pipe;
 
+import android.os.Binder;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
 import android.os.Message;
 import android.os.Messenger;
+import android.os.Parcel;
 import android.os.RemoteException;
 import android.util.Log;
 
@@ -14,9 +17,18 @@ import androidx.annotation.NonNull;
 import java.lang.ref.WeakReference;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import channel.helper.Dispatcher;
-import channel.helper.Emitter;
+import channel.helper.DispatcherUtil;
+import channel.helper.Envelope;
+import channel.helper.Header;
+import channel.helper.Invocation;
+import channel.helper.Metrics;
+import channel.helper.OverflowPolicy;
+import channel.helper.PendingReplies;
+import channel.helper.TypedEmitter;
 
 /**
  * Messenger Pipe.
@@ -53,16 +65,84 @@ import channel.helper.Emitter;
  *
  *     <b>See Method: <a href="https://developer.android.google.cn/reference/android/os/Parcel?hl=en#writeValue(java.lang.Object)">Parcel#writeValue (Object v)</a></b>
  * </ul>
+ * <p>
+ * The invocations of the generated emitter are written by the generated codec: primitive and String
+ * params are written without key and type tag, the other params are written by
+ * {@code Parcel#writeValue(Object)}. The receiver must use the generated dispatcher (or
+ * {@link DispatcherUtil#merge(Dispatcher, Dispatcher...)},
+ * {@link channel.helper.DispatcherRegistry}) to decode them.
+ * <p>
+ * Batching: call {@link #enableBatching(int, int, long)} on the sender side to send many messages
+ * in one Binder transaction, the receiver will dispatch them in order.
+ * <p>
+ * Supports {@link channel.helper.Urgent} and {@link channel.helper.Async}: the flags are sent in
+ * {@link Message#arg1} and honored when the receiver enqueues the message. An urgent call is sent
+ * at once even if batching is enabled, together with the pending messages.
+ * <p>
+ * Supports the request methods (the methods that take a {@link channel.helper.Reply} param): the
+ * sender keeps the reply in its {@link PendingReplies} and sends the correlation id with
+ * {@link Message#replyTo}, the receiver sends the result back to it, and the reply is called on the
+ * Looper of the sender pipe, so is the {@link java.util.concurrent.TimeoutException} of a request
+ * that has no reply in time. If too many requests are in flight, the reply fails at once on the
+ * calling thread. Many requests can be in flight at the same time, nothing is blocked.
+ * The result must be a type supported by {@code Parcel#writeValue(Object)}.
+ * <p>
+ * The queue of the receiver is unbounded by default, see {@link #setCapacity(int, OverflowPolicy)}.
+ * The expired calls of the {@link channel.helper.Ttl} methods are discarded at dispatch time.
  */
-public class MessengerPipe extends Handler implements Emitter {
+public class MessengerPipe extends Handler implements TypedEmitter {
     private static final String TAG = "MessengerPipe";
     private static final String KEY_MAP_WRAPPER = "map_wrapper";
+    // also sent by BroadcastPipe
+    static final String KEY_BATCH_WRAPPER = "batch_wrapper";
+    private static final String KEY_INVOCATION_WRAPPER = "invocation_wrapper";
+
+    private static final String KEY_REPLY_WRAPPER = "reply_wrapper";
+
+    private static final int WHAT_FLUSH_BATCH = 0x4D504231;
+    private static final int WHAT_REPLY = 0x4D505231;
+
+    public static final int DEFAULT_BATCH_SIZE = 32;
+    public static final int DEFAULT_BATCH_BYTES = 64 * 1024;
+    public static final long DEFAULT_BATCH_DELAY = 4;
 
     private Messenger mMessenger;
     private Dispatcher mDispatcher;
 
+    // the replies of the requests come back to this pipe
+    private final Messenger mReplyTo = new Messenger(this);
+    private final PendingReplies mPendingReplies;
+
+    private final MessageLimiter mLimiter = new MessageLimiter(this);
+    private volatile boolean mRecycleEnabled = true;
+
+    private final Object mBatchLock = new Object();
+    private boolean mBatchEnabled;
+    private int mBatchSize;
+    private int mBatchBytes;
+    private long mBatchDelay;
+
+    private Parcel mBatch;
+    private int mBatchCount;
+    private int mBatchFlags;
+
     public MessengerPipe(IBinder binder) {
         mMessenger = new Messenger(binder);
+        mPendingReplies = newPendingReplies();
+    }
+
+    /**
+     * @param pendingReplies the table of the requests waiting for a reply, decides how many requests
+     *                       can be in flight and their time-out. The time-outs are reported on its
+     *                       executor, see {@link PendingReplies#PendingReplies(int, long, Executor)}.
+     */
+    public MessengerPipe(IBinder binder, PendingReplies pendingReplies) {
+        if (pendingReplies == null) {
+            throw new IllegalArgumentException("param 'pendingReplies' is not null.");
+        }
+
+        mMessenger = new Messenger(binder);
+        mPendingReplies = pendingReplies;
     }
 
     /**
@@ -81,16 +161,267 @@ public class MessengerPipe extends Handler implements Emitter {
 
         mMessenger = new Messenger(this);
         mDispatcher = dispatcher;
+        mPendingReplies = newPendingReplies();
+    }
+
+    // the time-outs are reported on the Looper of this pipe, like the replies
+    private PendingReplies newPendingReplies() {
+        return new PendingReplies(PendingReplies.DEFAULT_CAPACITY, PendingReplies.DEFAULT_TIMEOUT_MILLIS,
+                new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        if (!post(command)) {
+                            throw new RejectedExecutionException("the Looper has quit");
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Whether to recycle the {@link Envelope} and the {@link Invocation} after dispatched, default is true.
+     * <p>
+     * Disable it if the dispatcher keeps a reference to the map.
+     */
+    public void setRecycleEnabled(boolean enabled) {
+        mRecycleEnabled = enabled;
+    }
+
+    /**
+     * Limits the count of the messages waiting in the message queue of the receiver, 0 is
+     * unbounded (default). Only works on the receiver side. A batch counts as one message.
+     * <p>
+     * {@link OverflowPolicy#BLOCK} blocks the Binder thread that delivers the messages of the remote
+     * senders, so they are throttled by the Binder buffer.
+     */
+    public void setCapacity(int capacity, OverflowPolicy policy) {
+        mLimiter.setCapacity(capacity, policy);
+    }
+
+    /**
+     * Returns the count of the messages dropped by the {@link OverflowPolicy}.
+     */
+    public long getDroppedCount() {
+        return mLimiter.getDroppedCount();
+    }
+
+    /**
+     * Returns the count of the calls discarded because their {@link channel.helper.Ttl} expired.
+     */
+    public long getExpiredCount() {
+        return mLimiter.getExpiredCount();
+    }
+
+    /**
+     * Enable batching with the default settings.
+     *
+     * @see #enableBatching(int, int, long)
+     */
+    public void enableBatching() {
+        enableBatching(DEFAULT_BATCH_SIZE, DEFAULT_BATCH_BYTES, DEFAULT_BATCH_DELAY);
+    }
+
+    /**
+     * Accumulate the messages and send them in one Binder transaction. The batch is sent when
+     * one of the limits is reached. Only works on the sender side.
+     *
+     * @param maxSize        the max count of messages in a batch.
+     * @param maxBytes       the max bytes of a batch, keep it far below the 1MB Binder transaction
+     *                       buffer.
+     * @param maxDelayMillis the max time that a message waits in the batch (flush latency).
+     */
+    public void enableBatching(int maxSize, int maxBytes, long maxDelayMillis) {
+        if (maxSize < 1 || maxBytes < 1 || maxDelayMillis < 0) {
+            throw new IllegalArgumentException("illegal batch settings.");
+        }
+
+        synchronized (mBatchLock) {
+            mBatchEnabled = true;
+            mBatchSize = maxSize;
+            mBatchBytes = maxBytes;
+            mBatchDelay = maxDelayMillis;
+        }
+    }
+
+    /**
+     * Disable batching, the pending messages will be sent at once.
+     */
+    public void disableBatching() {
+        synchronized (mBatchLock) {
+            mBatchEnabled = false;
+        }
+
+        flush();
+    }
+
+    /**
+     * Send the pending messages at once.
+     */
+    public void flush() {
+        BatchWrapper batch;
+        synchronized (mBatchLock) {
+            batch = takeBatch();
+        }
+
+        if (batch != null) {
+            send(batch);
+        }
+    }
+
+    // must hold mBatchLock
+    private BatchWrapper takeBatch() {
+        removeMessages(WHAT_FLUSH_BATCH);
+
+        if (mBatch == null) {
+            return null;
+        }
+
+        BatchWrapper batch = new BatchWrapper(mBatchCount, mBatch, mBatchFlags);
+        mBatch = null;
+        mBatchCount = 0;
+        mBatchFlags = 0;
+
+        return batch;
     }
 
     @Override
     public void handleMessage(@NonNull Message msg) {
-        mDispatcher.dispatch(getData(msg));
+        if (msg.what == WHAT_FLUSH_BATCH) {
+            flush();
+            return;
+        }
+
+        if (msg.what == WHAT_REPLY) {
+            handleReply(msg);
+            return;
+        }
+
+        if (isCall(msg) && mLimiter.claim(msg) == null) {
+            // dropped by the limiter
+            return;
+        }
+
+        BatchWrapper batch = getBatch(msg);
+        if (batch != null) {
+            mLimiter.onExpired(batch.dispatch(mDispatcher, mRecycleEnabled, getReplyChannel(msg)));
+            return;
+        }
+
+        InvocationWrapper invocationWrapper = getInvocationWrapper(msg);
+        if (invocationWrapper != null) {
+            dispatch(invocationWrapper, getReplyChannel(msg));
+            return;
+        }
+
+        MapWrapper mapWrapper = getMapWrapper(msg);
+        Map<String, Object> data = mapWrapper != null ? mapWrapper.getMap() : new HashMap<String, Object>();
+        if (Header.isExpired(Header.getDeadline(data))) {
+            mLimiter.onExpired(1);
+            Envelope.recycle(data);
+            return;
+        }
+
+        Metrics.record(data, mapWrapper != null ? mapWrapper.getPayloadSize() : -1);
+        mDispatcher.dispatch(data);
+
+        if (mRecycleEnabled) {
+            Envelope.recycle(data);
+        }
+    }
+
+    private void dispatch(InvocationWrapper invocationWrapper, ReplyChannel replyChannel) {
+        Invocation invocation = invocationWrapper.getInvocation(mDispatcher, replyChannel);
+        if (invocation == null) {
+            return;
+        }
+
+        if (Header.isExpired(invocation.getDeadline())) {
+            mLimiter.onExpired(1);
+            invocation.recycle();
+            return;
+        }
+
+        Metrics.record(invocation, invocationWrapper.getPayloadSize());
+        DispatcherUtil.dispatch(mDispatcher, invocation);
+
+        if (mRecycleEnabled) {
+            invocation.recycle();
+        }
+    }
+
+    @Override
+    public void emit(Invocation invocation) {
+        Metrics.stamp(invocation);
+        int flags = getMessageFlags(invocation.getFlags());
+        boolean batched;
+        BatchWrapper batch = null;
+
+        synchronized (mBatchLock) {
+            batched = mBatchEnabled;
+            if (batched) {
+                BatchWrapper.writeInvocation(obtainBatch(), invocation, mPendingReplies);
+                batch = checkBatch(flags);
+            }
+        }
+
+        if (batched) {
+            // the invocation has been written to the batch.
+            invocation.recycle();
+
+            if (batch != null) {
+                send(batch);
+            }
+            return;
+        }
+
+        Message message = Message.obtain();
+        message.arg1 = flags;
+        setReplyTo(message, flags);
+
+        Bundle bundle = new Bundle();
+        bundle.putParcelable(KEY_INVOCATION_WRAPPER, new InvocationWrapper(invocation, mPendingReplies));
+
+        message.setData(bundle);
+
+        try {
+            mMessenger.send(message);
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        }
+
+        // the invocation has been written to the Parcel if the messenger is remote,
+        // otherwise it will be recycled by the receiver.
+        if (isRemote()) {
+            invocation.recycle();
+        }
     }
 
     @Override
     public void emit(Map<String, Object> data) {
+        Metrics.stamp(data);
+        int flags = getMessageFlags(Header.getFlags(data));
+        boolean batched;
+        BatchWrapper batch = null;
+
+        synchronized (mBatchLock) {
+            batched = mBatchEnabled;
+            if (batched) {
+                BatchWrapper.writeMap(obtainBatch(), data);
+                batch = checkBatch(flags);
+            }
+        }
+
+        if (batched) {
+            // the data has been written to the batch.
+            Envelope.recycle(data);
+
+            if (batch != null) {
+                send(batch);
+            }
+            return;
+        }
+
         Message message = Message.obtain();
+        message.arg1 = flags;
 
         Bundle bundle = new Bundle();
         bundle.putParcelable(KEY_MAP_WRAPPER, new MapWrapper(data));
@@ -102,14 +433,205 @@ public class MessengerPipe extends Handler implements Emitter {
         } catch (RemoteException e) {
             e.printStackTrace();
         }
+
+        // the data has been written to the Parcel if the messenger is remote,
+        // otherwise it will be recycled by the receiver.
+        if (isRemote()) {
+            Envelope.recycle(data);
+        }
+    }
+
+    // must hold mBatchLock
+    private Parcel obtainBatch() {
+        if (mBatch == null) {
+            mBatch = Parcel.obtain();
+            sendEmptyMessageDelayed(WHAT_FLUSH_BATCH, mBatchDelay);
+        }
+
+        return mBatch;
+    }
+
+    // must hold mBatchLock, called after a message is written to the batch,
+    // returns the batch if it should be sent now.
+    private BatchWrapper checkBatch(int flags) {
+        mBatchCount++;
+        mBatchFlags |= flags;
+
+        if ((flags & Header.FLAG_URGENT) != 0
+                || mBatchCount >= mBatchSize
+                || mBatch.dataSize() >= mBatchBytes) {
+            return takeBatch();
+        }
+
+        return null;
     }
 
-    private Map<String, Object> getData(Message dataWrapper) {
+    private void send(BatchWrapper batch) {
+        Message message = Message.obtain();
+        message.arg1 = batch.getFlags();
+        setReplyTo(message, batch.getFlags());
+
+        Bundle bundle = new Bundle();
+        bundle.putParcelable(KEY_BATCH_WRAPPER, batch);
+
+        message.setData(bundle);
+
+        try {
+            mMessenger.send(message);
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        }
+
+        // the batch will be recycled by the receiver if the messenger is local.
+        if (isRemote()) {
+            batch.recycle();
+        }
+    }
+
+    // only the flags that affect how the receiver enqueues the message
+    private static int getQueueFlags(int flags) {
+        return flags & (Header.FLAG_URGENT | Header.FLAG_ASYNC);
+    }
+
+    // the flags sent in Message.arg1
+    private static int getMessageFlags(int flags) {
+        return flags & (Header.FLAG_URGENT | Header.FLAG_ASYNC | Header.FLAG_REQUEST);
+    }
+
+    private void setReplyTo(Message message, int flags) {
+        if ((flags & Header.FLAG_REQUEST) != 0) {
+            message.replyTo = mReplyTo;
+        }
+    }
+
+    private ReplyChannel getReplyChannel(Message msg) {
+        if (msg.replyTo == null) {
+            return null;
+        }
+
+        return new MessengerReplyChannel(msg.replyTo);
+    }
+
+    private void handleReply(Message msg) {
+        Bundle bundle = msg.getData();
+        bundle.setClassLoader(ReplyWrapper.class.getClassLoader());
+        ReplyWrapper reply = bundle.getParcelable(KEY_REPLY_WRAPPER);
+
+        if (reply == null) {
+            Log.d(TAG, "reply is empty.");
+            return;
+        }
+
+        boolean pending;
+        if (reply.isFailed()) {
+            pending = mPendingReplies.fail(reply.getCorrelationId(), newRemoteException(reply.getFailure()));
+        } else {
+            pending = mPendingReplies.complete(reply.getCorrelationId(), reply.getResult());
+        }
+
+        if (!pending) {
+            Log.d(TAG, "request not pending (timed out?), correlation id: " + reply.getCorrelationId());
+        }
+    }
+
+    // RemoteException(String) is API 15, the message of the receiver is carried by the cause
+    private static RemoteException newRemoteException(String message) {
+        RemoteException exception = new RemoteException();
+        exception.initCause(new Exception(message));
+        return exception;
+    }
+
+    /**
+     * Applies the flags in {@link Message#arg1} when a call from the {@link Messenger} is enqueued, and
+     * limits the queued calls. The other messages (the posted Runnables, the replies and the messages
+     * sent by the Handler API) are enqueued as is.
+     */
+    @Override
+    public boolean sendMessageAtTime(@NonNull Message msg, long uptimeMillis) {
+        if (!isCall(msg)) {
+            return super.sendMessageAtTime(msg, uptimeMillis);
+        }
+
+        int flags = getQueueFlags(msg.arg1);
+
+        if ((flags & Header.FLAG_ASYNC) != 0 && Build.VERSION.SDK_INT >= 22) {
+            msg.setAsynchronous(true);
+        }
+
+        if ((flags & Header.FLAG_URGENT) != 0) {
+            // the same as sendMessageAtFrontOfQueue(msg)
+            uptimeMillis = 0;
+        }
+
+        // a non-null obj, the limiter marks the dropped messages by replacing it, see MessageLimiter
+        msg.obj = msg.peekData();
+
+        if (!mLimiter.offer(msg)) {
+            msg.recycle();
+            return false;
+        }
+
+        if (!super.sendMessageAtTime(msg, uptimeMillis)) {
+            mLimiter.remove(msg);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Whether the message carries a call sent by {@link #emit(Invocation)}, {@link #emit(Map)}, a batch
+     * or a {@link BroadcastPipe}.
+     */
+    private static boolean isCall(Message msg) {
+        if (msg.getCallback() != null || msg.what == WHAT_FLUSH_BATCH || msg.what == WHAT_REPLY) {
+            return false;
+        }
+
+        Bundle bundle = msg.peekData();
+        if (bundle == null) {
+            return false;
+        }
+
+        // the wrappers are in this package, the class loader is needed to unparcel the bundle
+        bundle.setClassLoader(MessengerPipe.class.getClassLoader());
+        return bundle.containsKey(KEY_INVOCATION_WRAPPER)
+                || bundle.containsKey(KEY_MAP_WRAPPER)
+                || bundle.containsKey(KEY_BATCH_WRAPPER);
+    }
+
+    private boolean isRemote() {
+        return !(mMessenger.getBinder() instanceof Binder);
+    }
+
+    private BatchWrapper getBatch(Message dataWrapper) {
+        Bundle bundle = dataWrapper.peekData();
+
+        if (bundle == null) {
+            return null;
+        }
+
+        bundle.setClassLoader(BatchWrapper.class.getClassLoader());
+        return bundle.getParcelable(KEY_BATCH_WRAPPER);
+    }
+
+    private InvocationWrapper getInvocationWrapper(Message dataWrapper) {
+        Bundle bundle = dataWrapper.peekData();
+
+        if (bundle == null) {
+            return null;
+        }
+
+        bundle.setClassLoader(InvocationWrapper.class.getClassLoader());
+        return bundle.getParcelable(KEY_INVOCATION_WRAPPER);
+    }
+
+    private MapWrapper getMapWrapper(Message dataWrapper) {
         Bundle bundle = dataWrapper.getData();
 
         if (bundle == null) {
             Log.d(TAG, "dataWrapper is empty.");
-            return new HashMap<>();
+            return null;
         }
 
         bundle.setClassLoader(MapWrapper.class.getClassLoader());
@@ -117,10 +639,10 @@ public class MessengerPipe extends Handler implements Emitter {
 
         if (mapWrapper == null) {
             Log.d(TAG, "dataWrapper is empty.");
-            return new HashMap<>();
+            return null;
         }
 
-        return mapWrapper.getMap();
+        return mapWrapper;
     }
 
     public IBinder getBinder() {
@@ -131,4 +653,42 @@ public class MessengerPipe extends Handler implements Emitter {
         return mMessenger;
     }
 
+    /**
+     * Sends the replies to the {@link Message#replyTo} of a request.
+     */
+    private static final class MessengerReplyChannel implements ReplyChannel {
+        private final Messenger mReplyTo;
+
+        MessengerReplyChannel(Messenger replyTo) {
+            mReplyTo = replyTo;
+        }
+
+        @Override
+        public void sendResult(long correlationId, Object result) {
+            send(new ReplyWrapper(correlationId, result, null));
+        }
+
+        @Override
+        public void sendFailure(long correlationId, String message) {
+            send(new ReplyWrapper(correlationId, null, message));
+        }
+
+        private void send(ReplyWrapper reply) {
+            Message message = Message.obtain();
+            message.what = WHAT_REPLY;
+
+            Bundle bundle = new Bundle();
+            bundle.putParcelable(KEY_REPLY_WRAPPER, reply);
+
+            message.setData(bundle);
+
+            try {
+                mReplyTo.send(message);
+            } catch (RemoteException e) {
+                // the caller is dead
+                e.printStackTrace();
+            }
+        }
+    }
+
 }
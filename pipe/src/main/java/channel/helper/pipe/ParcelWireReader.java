@@ -0,0 +1,96 @@
+package channel.helper.pipe;
+
+import android.os.Parcel;
+
+import java.nio.ByteBuffer;
+
+import channel.helper.Reply;
+import channel.helper.WireReader;
+
+/**
+ * Reads the arguments written by {@link ParcelWireWriter}.
+ */
+final class ParcelWireReader implements WireReader {
+    private final Parcel mParcel;
+    private final ClassLoader mClassLoader;
+    // null if the sender can't be replied
+    private final ReplyChannel mReplyChannel;
+
+    ParcelWireReader(Parcel parcel, ClassLoader classLoader, ReplyChannel replyChannel) {
+        mParcel = parcel;
+        mClassLoader = classLoader;
+        mReplyChannel = replyChannel;
+    }
+
+    @Override
+    public boolean readBoolean() {
+        return mParcel.readInt() != 0;
+    }
+
+    @Override
+    public byte readByte() {
+        return mParcel.readByte();
+    }
+
+    @Override
+    public short readShort() {
+        return (short) mParcel.readInt();
+    }
+
+    @Override
+    public char readChar() {
+        return (char) mParcel.readInt();
+    }
+
+    @Override
+    public int readInt() {
+        return mParcel.readInt();
+    }
+
+    @Override
+    public long readLong() {
+        return mParcel.readLong();
+    }
+
+    @Override
+    public float readFloat() {
+        return mParcel.readFloat();
+    }
+
+    @Override
+    public double readDouble() {
+        return mParcel.readDouble();
+    }
+
+    @Override
+    public String readString() {
+        return mParcel.readString();
+    }
+
+    @Override
+    public ByteBuffer readLargePayload() {
+        switch (mParcel.readInt()) {
+            case ParcelWireWriter.PAYLOAD_SHARED_MEMORY:
+                return SharedMemoryPayload.read(mParcel);
+            case ParcelWireWriter.PAYLOAD_INLINE:
+                return ByteBuffer.wrap(mParcel.createByteArray());
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public Reply<?> readReply() {
+        long correlationId = mParcel.readLong();
+        if (correlationId == 0 || mReplyChannel == null) {
+            return RemoteReply.NO_REPLY;
+        }
+
+        return new RemoteReply(mReplyChannel, correlationId);
+    }
+
+    @Override
+    public Object readValue() {
+        return mParcel.readValue(mClassLoader);
+    }
+}
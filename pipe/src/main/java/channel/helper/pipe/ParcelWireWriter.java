@@ -0,0 +1,121 @@
+package channel.helper.pipe;
+
+import android.os.Build;
+import android.os.Parcel;
+
+import java.nio.ByteBuffer;
+
+import channel.helper.PendingReplies;
+import channel.helper.Reply;
+import channel.helper.WireWriter;
+
+/**
+ * Writes the arguments of an invocation to a Parcel.
+ */
+final class ParcelWireWriter implements WireWriter {
+    static final int PAYLOAD_NULL = 0;
+    static final int PAYLOAD_INLINE = 1;
+    static final int PAYLOAD_SHARED_MEMORY = 2;
+
+    private final Parcel mParcel;
+    // null if the pipe can't carry the replies back
+    private final PendingReplies mPendingReplies;
+
+    ParcelWireWriter(Parcel parcel, PendingReplies pendingReplies) {
+        mParcel = parcel;
+        mPendingReplies = pendingReplies;
+    }
+
+    @Override
+    public void writeBoolean(boolean value) {
+        mParcel.writeInt(value ? 1 : 0);
+    }
+
+    @Override
+    public void writeByte(byte value) {
+        mParcel.writeByte(value);
+    }
+
+    @Override
+    public void writeShort(short value) {
+        mParcel.writeInt(value);
+    }
+
+    @Override
+    public void writeChar(char value) {
+        mParcel.writeInt(value);
+    }
+
+    @Override
+    public void writeInt(int value) {
+        mParcel.writeInt(value);
+    }
+
+    @Override
+    public void writeLong(long value) {
+        mParcel.writeLong(value);
+    }
+
+    @Override
+    public void writeFloat(float value) {
+        mParcel.writeFloat(value);
+    }
+
+    @Override
+    public void writeDouble(double value) {
+        mParcel.writeDouble(value);
+    }
+
+    @Override
+    public void writeString(String value) {
+        mParcel.writeString(value);
+    }
+
+    /**
+     * Uses {@link android.os.SharedMemory} on API 27 and above, there is no public shared memory
+     * API before, the bytes are written inline.
+     */
+    @Override
+    public void writeLargePayload(ByteBuffer value) {
+        if (value == null) {
+            mParcel.writeInt(PAYLOAD_NULL);
+            return;
+        }
+
+        if (Build.VERSION.SDK_INT >= 27) {
+            mParcel.writeInt(PAYLOAD_SHARED_MEMORY);
+            SharedMemoryPayload.write(mParcel, value);
+            return;
+        }
+
+        byte[] bytes = new byte[value.remaining()];
+        value.duplicate().get(bytes);
+
+        mParcel.writeInt(PAYLOAD_INLINE);
+        mParcel.writeByteArray(bytes);
+    }
+
+    /**
+     * Writes the correlation id of the reply, 0 if there is no reply to wait for.
+     */
+    @Override
+    public void writeReply(Reply<?> reply) {
+        if (reply == null) {
+            mParcel.writeLong(0);
+            return;
+        }
+
+        if (mPendingReplies == null) {
+            reply.onFailure(new UnsupportedOperationException("the pipe doesn't support Reply"));
+            mParcel.writeLong(0);
+            return;
+        }
+
+        mParcel.writeLong(mPendingReplies.add(reply));
+    }
+
+    @Override
+    public void writeValue(Object value) {
+        mParcel.writeValue(value);
+    }
+}
@@ -0,0 +1,51 @@
+package channel.helper.pipe;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import channel.helper.Reply;
+
+/**
+ * The {@link Reply} given to the receiver of a request from another process, it sends the result
+ * back through the {@link ReplyChannel} with the correlation id of the request. Only the first call
+ * is sent.
+ */
+final class RemoteReply implements Reply<Object> {
+    /**
+     * Given to the receiver if the result can't be sent back, for example the pipe doesn't support
+     * {@link Reply}. The caller has been failed or will time out.
+     */
+    static final Reply<Object> NO_REPLY = new Reply<Object>() {
+        @Override
+        public void onResult(Object result) {
+            // ignore
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            // ignore
+        }
+    };
+
+    private final ReplyChannel mChannel;
+    private final long mCorrelationId;
+    private final AtomicBoolean mReplied = new AtomicBoolean();
+
+    RemoteReply(ReplyChannel channel, long correlationId) {
+        mChannel = channel;
+        mCorrelationId = correlationId;
+    }
+
+    @Override
+    public void onResult(Object result) {
+        if (mReplied.compareAndSet(false, true)) {
+            mChannel.sendResult(mCorrelationId, result);
+        }
+    }
+
+    @Override
+    public void onFailure(Exception e) {
+        if (mReplied.compareAndSet(false, true)) {
+            mChannel.sendFailure(mCorrelationId, String.valueOf(e));
+        }
+    }
+}
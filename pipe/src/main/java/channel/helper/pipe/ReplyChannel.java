@@ -0,0 +1,10 @@
+package channel.helper.pipe;
+
+/**
+ * Where the receiver sends the results of the requests, implemented by the pipe.
+ */
+interface ReplyChannel {
+    void sendResult(long correlationId, Object result);
+
+    void sendFailure(long correlationId, String message);
+}
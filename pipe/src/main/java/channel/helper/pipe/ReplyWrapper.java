@@ -0,0 +1,66 @@
+package channel.helper.pipe;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * The reply of a request: the correlation id, and the result or the failure message.
+ */
+final class ReplyWrapper implements Parcelable {
+    private final long mCorrelationId;
+    private final Object mResult;
+    // null if succeeded
+    private final String mFailure;
+
+    ReplyWrapper(long correlationId, Object result, String failure) {
+        mCorrelationId = correlationId;
+        mResult = result;
+        mFailure = failure;
+    }
+
+    private ReplyWrapper(Parcel in) {
+        mCorrelationId = in.readLong();
+        mFailure = in.readString();
+        mResult = in.readValue(Thread.currentThread().getContextClassLoader());
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeLong(mCorrelationId);
+        dest.writeString(mFailure);
+        dest.writeValue(mResult);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<ReplyWrapper> CREATOR = new Creator<ReplyWrapper>() {
+        @Override
+        public ReplyWrapper createFromParcel(Parcel in) {
+            return new ReplyWrapper(in);
+        }
+
+        @Override
+        public ReplyWrapper[] newArray(int size) {
+            return new ReplyWrapper[size];
+        }
+    };
+
+    public long getCorrelationId() {
+        return mCorrelationId;
+    }
+
+    public Object getResult() {
+        return mResult;
+    }
+
+    public String getFailure() {
+        return mFailure;
+    }
+
+    public boolean isFailed() {
+        return mFailure != null;
+    }
+}
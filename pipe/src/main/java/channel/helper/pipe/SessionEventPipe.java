@@ -6,17 +6,23 @@ import android.support.v4.media.session.MediaSessionCompat;
 import java.util.Map;
 
 import channel.helper.Dispatcher;
-import channel.helper.Emitter;
+import channel.helper.DispatcherUtil;
+import channel.helper.Envelope;
+import channel.helper.Invocation;
+import channel.helper.Metrics;
+import channel.helper.TypedEmitter;
 
 /**
  * Help handle MediaSession session event easily.
  */
-public final class SessionEventPipe implements Emitter {
+public final class SessionEventPipe implements TypedEmitter {
     private static final String SESSION_EVENT = "channel.helper.pipe.SESSION_EVENT";
     private static final String KET_EXTRA = "extra";
+    private static final String KEY_INVOCATION = "invocation";
 
     private MediaSessionCompat mMediaSessionCompat;
     private Dispatcher mDispatcher;
+    private volatile boolean mRecycleEnabled = true;
 
     /**
      * For {@link MediaSessionCompat#sendSessionEvent(String, Bundle)}
@@ -34,12 +40,23 @@ public final class SessionEventPipe implements Emitter {
 
     @Override
     public void emit(Map<String, Object> data) {
+        Metrics.stamp(data);
         Bundle bundle = new Bundle();
         bundle.putParcelable(KET_EXTRA, new MapWrapper(data));
 
         mMediaSessionCompat.sendSessionEvent(SESSION_EVENT, bundle);
     }
 
+    @Override
+    public void emit(Invocation invocation) {
+        Metrics.stamp(invocation);
+        // the invocation isn't recycled here, the controller may be in the same process.
+        Bundle bundle = new Bundle();
+        bundle.putParcelable(KEY_INVOCATION, new InvocationWrapper(invocation, null));
+
+        mMediaSessionCompat.sendSessionEvent(SESSION_EVENT, bundle);
+    }
+
     /**
      * Dispatch session event. Invoke this method at
      * {@link android.support.v4.media.session.MediaControllerCompat.Callback#onSessionEvent(String, Bundle)}
@@ -49,11 +66,49 @@ public final class SessionEventPipe implements Emitter {
             return false;
         }
 
+        InvocationWrapper invocationWrapper = data.getParcelable(KEY_INVOCATION);
+        if (invocationWrapper != null) {
+            return dispatch(invocationWrapper);
+        }
+
         MapWrapper wrapper = data.getParcelable(KET_EXTRA);
         if (wrapper == null) {
             return false;
         }
 
-        return mDispatcher.dispatch(wrapper.getMap());
+        Map<String, Object> map = wrapper.getMap();
+        Metrics.record(map, wrapper.getPayloadSize());
+        boolean result = mDispatcher.dispatch(map);
+
+        if (mRecycleEnabled) {
+            Envelope.recycle(map);
+        }
+
+        return result;
+    }
+
+    private boolean dispatch(InvocationWrapper invocationWrapper) {
+        Invocation invocation = invocationWrapper.getInvocation(mDispatcher, null);
+        if (invocation == null) {
+            return false;
+        }
+
+        Metrics.record(invocation, invocationWrapper.getPayloadSize());
+        boolean result = DispatcherUtil.dispatch(mDispatcher, invocation);
+
+        if (mRecycleEnabled) {
+            invocation.recycle();
+        }
+
+        return result;
+    }
+
+    /**
+     * Whether to recycle the {@link Envelope} and the {@link Invocation} after dispatched, default is true.
+     * <p>
+     * Disable it if the dispatcher keeps a reference to the map.
+     */
+    public void setRecycleEnabled(boolean enabled) {
+        mRecycleEnabled = enabled;
     }
 }
@@ -0,0 +1,64 @@
+package channel.helper.pipe;
+
+import android.os.Parcel;
+import android.os.SharedMemory;
+import android.system.ErrnoException;
+import android.system.OsConstants;
+
+import androidx.annotation.RequiresApi;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes a {@link channel.helper.LargePayload} to a {@link SharedMemory} region, only the file
+ * descriptor is written to the Parcel.
+ */
+@RequiresApi(27)
+final class SharedMemoryPayload {
+    private static final String NAME = "channel-helper-payload";
+
+    private SharedMemoryPayload() {
+        throw new AssertionError();
+    }
+
+    static void write(Parcel dest, ByteBuffer value) {
+        SharedMemory sharedMemory = null;
+        try {
+            // size 0 is not allowed
+            sharedMemory = SharedMemory.create(NAME, Math.max(1, value.remaining()));
+
+            ByteBuffer mapped = sharedMemory.mapReadWrite();
+            mapped.put(value.duplicate());
+            SharedMemory.unmap(mapped);
+
+            // the receiver can only map it read-only
+            sharedMemory.setProtect(OsConstants.PROT_READ);
+
+            dest.writeInt(value.remaining());
+            // the file descriptor is duplicated into the Parcel
+            sharedMemory.writeToParcel(dest, 0);
+        } catch (ErrnoException e) {
+            throw new IllegalStateException("failed to create shared memory", e);
+        } finally {
+            if (sharedMemory != null) {
+                sharedMemory.close();
+            }
+        }
+    }
+
+    static ByteBuffer read(Parcel in) {
+        int size = in.readInt();
+        SharedMemory sharedMemory = SharedMemory.CREATOR.createFromParcel(in);
+        try {
+            ByteBuffer mapped = sharedMemory.mapReadOnly();
+            mapped.limit(size);
+            // the mapping is released when the buffer is garbage collected
+            return mapped;
+        } catch (ErrnoException e) {
+            throw new IllegalStateException("failed to map shared memory", e);
+        } finally {
+            // the mapping is still valid after the file descriptor is closed
+            sharedMemory.close();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package channel.helper.pipe;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.RemoteException;
+import android.os.SharedMemory;
+import android.system.ErrnoException;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import channel.helper.Dispatcher;
+import channel.helper.Envelope;
+import channel.helper.Invocation;
+import channel.helper.SharedRing;
+import channel.helper.SharedRingConsumer;
+import channel.helper.SharedRingEmitter;
+import channel.helper.TypedEmitter;
+import channel.helper.Wakeup;
+
+/**
+ * A pipe between processes for high-frequency calls, such as audio levels and position ticks, backed
+ * by a {@link SharedRing} in a {@link SharedMemory} region.
+ * <p>
+ * {@link MessengerPipe} costs one Binder transaction per call (or per batch). This pipe writes the
+ * calls to the shared memory directly, and only sends a one-way message to the {@link Receiver} when
+ * the ring goes from empty to non-empty, the receiver then dispatches everything in the ring on its
+ * Looper. The calls are dropped when the ring is full.
+ * <p>
+ * The receiver creates the shared memory, and sends its token to the other process, for example
+ * in the reply of a {@link MessengerPipe} request or in a Bundle of the service:
+ * <pre>
+ * // receiver process
+ * SharedMemoryPipe.Receiver receiver = new SharedMemoryPipe.Receiver(dispatcher);
+ * Bundle token = receiver.getToken();
+ *
+ * // sender process
+ * SharedMemoryPipe pipe = new SharedMemoryPipe(token);
+ * Foo foo = ChannelHelper.newEmitter(Foo.class, pipe);
+ * </pre>
+ * The arguments are written by {@link channel.helper.BufferWire}: primitive, String, enum and
+ * {@link java.io.Serializable} params are supported, the request methods are not.
+ */
+@RequiresApi(27)
+public final class SharedMemoryPipe implements TypedEmitter {
+    private static final String TAG = "SharedMemoryPipe";
+    private static final String KEY_SHARED_MEMORY = "shared_memory";
+    private static final String KEY_MESSENGER = "messenger";
+    private static final String NAME = "channel-helper-ring";
+
+    public static final int DEFAULT_CAPACITY = 256 * 1024;
+
+    private final SharedMemory mSharedMemory;
+    private final ByteBuffer mMapping;
+    private final SharedRingEmitter mEmitter;
+    // an unmapped buffer must never be touched, guarded by this
+    private boolean mClosed;
+
+    /**
+     * @param token the token of the {@link Receiver}, see {@link Receiver#getToken()}.
+     */
+    public SharedMemoryPipe(Bundle token) {
+        if (token == null) {
+            throw new IllegalArgumentException("param 'token' is not null.");
+        }
+
+        token.setClassLoader(SharedMemoryPipe.class.getClassLoader());
+        mSharedMemory = token.getParcelable(KEY_SHARED_MEMORY);
+        final Messenger messenger = token.getParcelable(KEY_MESSENGER);
+
+        if (mSharedMemory == null || messenger == null) {
+            throw new IllegalArgumentException("param 'token' is illegal.");
+        }
+
+        try {
+            mMapping = mSharedMemory.mapReadWrite();
+        } catch (ErrnoException e) {
+            throw new IllegalStateException("failed to map shared memory", e);
+        }
+
+        mEmitter = new SharedRingEmitter(SharedRing.attach(mMapping), new Wakeup() {
+            @Override
+            public void signal() {
+                try {
+                    messenger.send(Message.obtain());
+                } catch (RemoteException e) {
+                    Log.e(TAG, "failed to wake up the receiver", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the count of the calls dropped because the ring was full.
+     */
+    public long getDroppedCount() {
+        return mEmitter.getDroppedCount();
+    }
+
+    /**
+     * Unmaps the shared memory, the calls emitted after it are discarded.
+     */
+    public synchronized void close() {
+        if (mClosed) {
+            return;
+        }
+
+        mClosed = true;
+        SharedMemory.unmap(mMapping);
+        mSharedMemory.close();
+    }
+
+    @Override
+    public synchronized void emit(Invocation invocation) {
+        if (mClosed) {
+            invocation.recycle();
+            return;
+        }
+
+        mEmitter.emit(invocation);
+    }
+
+    @Override
+    public synchronized void emit(Map<String, Object> data) {
+        if (mClosed) {
+            Envelope.recycle(data);
+            return;
+        }
+
+        mEmitter.emit(data);
+    }
+
+    /**
+     * The receiver side of {@link SharedMemoryPipe}, dispatches the calls on its Looper.
+     */
+    public static final class Receiver extends Handler {
+        private final SharedMemory mSharedMemory;
+        private final ByteBuffer mMapping;
+        private final SharedRingConsumer mConsumer;
+        private final Messenger mMessenger = new Messenger(this);
+        // only accessed on the Looper thread
+        private boolean mClosed;
+
+        /**
+         * Use Main Looper and {@link #DEFAULT_CAPACITY}.
+         */
+        public Receiver(Dispatcher dispatcher) {
+            this(Looper.getMainLooper(), dispatcher, DEFAULT_CAPACITY);
+        }
+
+        /**
+         * @param capacity the capacity of the ring in bytes, it will be rounded up to a power of two.
+         */
+        public Receiver(Looper looper, Dispatcher dispatcher, int capacity) {
+            super(looper);
+
+            if (dispatcher == null) {
+                throw new IllegalArgumentException("param 'dispatcher' is not null.");
+            }
+
+            if (capacity < 1 || capacity > SharedRing.MAX_CAPACITY) {
+                throw new IllegalArgumentException("param 'capacity' is illegal: " + capacity);
+            }
+
+            int size = Math.max(SharedRing.MIN_CAPACITY, Integer.highestOneBit(capacity - 1) << 1);
+            try {
+                mSharedMemory = SharedMemory.create(NAME, SharedRing.sizeOf(size));
+                mMapping = mSharedMemory.mapReadWrite();
+            } catch (ErrnoException e) {
+                throw new IllegalStateException("failed to create shared memory", e);
+            }
+
+            mConsumer = new SharedRingConsumer(SharedRing.create(mMapping, size), dispatcher);
+        }
+
+        /**
+         * Returns the token to send to the process of the {@link SharedMemoryPipe}, it carries the
+         * file descriptor of the shared memory and the Binder of the wakeup.
+         */
+        public Bundle getToken() {
+            Bundle token = new Bundle();
+            token.putParcelable(KEY_SHARED_MEMORY, mSharedMemory);
+            token.putParcelable(KEY_MESSENGER, mMessenger);
+            return token;
+        }
+
+        /**
+         * Dispatches the calls left in the ring and unmaps the shared memory, must be called on the
+         * Looper thread.
+         */
+        public void close() {
+            if (mClosed) {
+                return;
+            }
+
+            mClosed = true;
+            removeCallbacksAndMessages(null);
+            mConsumer.drain();
+
+            SharedMemory.unmap(mMapping);
+            mSharedMemory.close();
+        }
+
+        @Override
+        public void handleMessage(@NonNull Message msg) {
+            // the sender may still wake it up after closed
+            if (!mClosed) {
+                mConsumer.drain();
+            }
+        }
+    }
+}
@@ -1,9 +1,29 @@
 package channel.processor;
 
+import channel.helper.Async;
+import channel.helper.ByteBuffers;
 import channel.helper.Channel;
+import channel.helper.Conflate;
+import channel.helper.ChannelCodec;
+import channel.helper.ChannelFactory;
+import channel.helper.ChannelIndex;
 import channel.helper.Dispatcher;
 import channel.helper.Emitter;
+import channel.helper.ExecutorRegistry;
+import channel.helper.FixedEnvelope;
+import channel.helper.Header;
+import channel.helper.Invocation;
+import channel.helper.LargePayload;
+import channel.helper.ObjectPool;
 import channel.helper.ParamInspector;
+import channel.helper.Reply;
+import channel.helper.RunOn;
+import channel.helper.Ttl;
+import channel.helper.TypedDispatcher;
+import channel.helper.TypedEmitter;
+import channel.helper.Urgent;
+import channel.helper.WireReader;
+import channel.helper.WireWriter;
 
 import com.google.auto.service.AutoService;
 import com.squareup.javapoet.*;
@@ -17,15 +37,24 @@ import javax.lang.model.type.TypeMirror;
 import javax.lang.model.util.Elements;
 import javax.lang.model.util.Types;
 import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 @AutoService(Processor.class)
 @SupportedSourceVersion(SourceVersion.RELEASE_8)
@@ -37,10 +66,29 @@ public class ChannelProcessor extends AbstractProcessor {
     private Messager mMessager;
     private Elements mElements;
 
+    // channel id -> qualified name of the channel interface, used to check channel id conflict.
+    // The processor is aggregating, every interface is processed again in an incremental build.
+    private Map<Integer, String> mChannelIds = new HashMap<>();
+
+    // the generated indexes, written to the services file in the last round
+    private List<String> mIndexNames = new ArrayList<>();
+    private List<Element> mIndexElements = new ArrayList<>();
+
+    // qualified name -> instance, many interfaces use the same inspector.
+    private Map<String, ParamInspector> mInspectors = new HashMap<>();
+
     private static final String PREFIX_METHOD_ID = "METHOD_ID_";
-    private static final String FIELD_KEY_CLASS_NAME = "KEY_CLASS_NAME";
-    private static final String FIELD_KEY_METHOD_ID = "KEY_METHOD_ID";
-    private static final String FIELD_CLASS_NAME = "CLASS_NAME";
+    private static final String PREFIX_HEADER = "HEADER_";
+    private static final String PREFIX_INVOCATION = "Invocation_";
+    private static final String PREFIX_ENVELOPE = "Envelope_";
+    private static final String PREFIX_RUN_ON = "RUN_ON_";
+    private static final String FIELD_CHANNEL_ID = "CHANNEL_ID";
+    private static final String FIELD_TYPED_EMITTER = "typedEmitter";
+    private static final String FIELD_FACTORY = "FACTORY";
+    private static final String FIELD_CODEC = "CODEC";
+    private static final String FIELD_RUN_ON_ENABLED = "runOnEnabled";
+    private static final String PREFIX_CHANNEL_INDEX = "ChannelIndex__";
+    private static final String SERVICES_CHANNEL_INDEX = "META-INF/services/" + ChannelIndex.class.getName();
 
     @Override
     public synchronized void init(ProcessingEnvironment processingEnv) {
@@ -52,13 +100,106 @@ public class ChannelProcessor extends AbstractProcessor {
 
     @Override
     public boolean process(Set<? extends TypeElement> set, RoundEnvironment roundEnvironment) {
+        if (roundEnvironment.processingOver()) {
+            writeChannelIndexServices();
+            return true;
+        }
+
         Set<TypeElement> interfaces = getAnnotatedInterfaces(roundEnvironment);
         for (TypeElement element : interfaces) {
             buildChannelHelper(element);
         }
+
+        // package name -> interfaces, the index can access the interfaces that are not public
+        Map<String, List<TypeElement>> packages = new TreeMap<>();
+        for (TypeElement element : interfaces) {
+            String packageName = mElements.getPackageOf(element).getQualifiedName().toString();
+            List<TypeElement> list = packages.get(packageName);
+            if (list == null) {
+                list = new ArrayList<>();
+                packages.put(packageName, list);
+            }
+            list.add(element);
+        }
+
+        for (Map.Entry<String, List<TypeElement>> entry : packages.entrySet()) {
+            buildChannelIndex(entry.getKey(), entry.getValue());
+        }
         return true;
     }
 
+    // class: ChannelIndex__<hash>, the interfaces of a package, loaded by ServiceLoader
+    private void buildChannelIndex(String packageName, List<TypeElement> interfaces) {
+        Collections.sort(interfaces, new Comparator<TypeElement>() {
+            @Override
+            public int compare(TypeElement o1, TypeElement o2) {
+                return o1.getQualifiedName().toString().compareTo(o2.getQualifiedName().toString());
+            }
+        });
+
+        // named by the interfaces, so the indexes of the modules sharing a package don't conflict
+        StringBuilder names = new StringBuilder();
+        for (TypeElement element : interfaces) {
+            names.append(element.getQualifiedName()).append(';');
+        }
+        String indexName = PREFIX_CHANNEL_INDEX + Integer.toHexString(names.toString().hashCode());
+
+        // Map<Class<?>, ChannelFactory<?>>
+        WildcardTypeName wildcard = WildcardTypeName.subtypeOf(Object.class);
+        ParameterizedTypeName Map_Class_ChannelFactory = ParameterizedTypeName.get(ClassName.get(Map.class),
+                ParameterizedTypeName.get(ClassName.get(Class.class), wildcard),
+                ParameterizedTypeName.get(ClassName.get(ChannelFactory.class), wildcard));
+
+        final String param_factories = "factories";
+        MethodSpec.Builder getFactories = MethodSpec.methodBuilder("getFactories")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(Map_Class_ChannelFactory, param_factories);
+
+        TypeSpec.Builder builder = TypeSpec.classBuilder(indexName)
+                .addSuperinterface(ChannelIndex.class)
+                .addModifiers(Modifier.PUBLIC, Modifier.FINAL);
+
+        for (TypeElement element : interfaces) {
+            ClassName helper = ClassName.get(packageName, getChannelHelperName(element) + "__ChannelHelper");
+            getFactories.addStatement("$N.put($T.class, $T.$N)", param_factories, ClassName.get(element), helper, FIELD_FACTORY);
+            builder.addOriginatingElement(element);
+        }
+
+        JavaFile javaFile = JavaFile.builder(packageName, builder.addMethod(getFactories.build()).build())
+                .build();
+
+        try {
+            javaFile.writeTo(processingEnv.getFiler());
+        } catch (IOException e) {
+            mMessager.printMessage(Diagnostic.Kind.ERROR, e.toString());
+            return;
+        }
+
+        mIndexNames.add(packageName.isEmpty() ? indexName : packageName + "." + indexName);
+        mIndexElements.addAll(interfaces);
+    }
+
+    private void writeChannelIndexServices() {
+        if (mIndexNames.isEmpty()) {
+            return;
+        }
+
+        try {
+            FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+                    SERVICES_CHANNEL_INDEX, mIndexElements.toArray(new Element[0]));
+
+            try (Writer writer = file.openWriter()) {
+                for (String name : mIndexNames) {
+                    writer.write(name);
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            mMessager.printMessage(Diagnostic.Kind.ERROR, e.toString());
+        }
+    }
+
     private Set<TypeElement> getAnnotatedInterfaces(RoundEnvironment roundEnvironment) {
         Set<TypeElement> interfaces = new HashSet<>();
 
@@ -86,9 +227,16 @@ public class ChannelProcessor extends AbstractProcessor {
             checkMethodsParamType(methods, inspector, targetInterface);
         }
 
-        List<Pair<String, ExecutableElement>> methodIdPairs = generateAllMethodId(methods);
+        checkLargePayload(methods, targetInterface);
+        checkTtl(methods, targetInterface);
+        checkRunOn(methods, targetInterface);
+        checkVersion(channel, targetInterface);
+
+        List<Pair<String, ExecutableElement>> methodIdPairs = generateAllMethodId(methods, channel.version(), targetInterface);
+
+        int channelId = generateChannelId(targetInterface, channel);
 
-        TypeSpec channelHelperType = buildChannelHelper(targetInterface, methodIdPairs);
+        TypeSpec channelHelperType = buildChannelHelper(targetInterface, channelId, channel.version(), methodIdPairs);
 
         writeJavaFile(channelHelperType, targetInterface);
     }
@@ -129,8 +277,15 @@ public class ChannelProcessor extends AbstractProcessor {
             return null;
         }
 
+        ParamInspector inspector = mInspectors.get(inspectorName);
+        if (inspector != null) {
+            return inspector;
+        }
+
         try {
-            return (ParamInspector) Class.forName(inspectorName).newInstance();
+            inspector = (ParamInspector) Class.forName(inspectorName).newInstance();
+            mInspectors.put(inspectorName, inspector);
+            return inspector;
         } catch (IllegalAccessException | InstantiationException | ClassNotFoundException e) {
             mMessager.printMessage(Diagnostic.Kind.ERROR, e.toString());
         }
@@ -147,6 +302,11 @@ public class ChannelProcessor extends AbstractProcessor {
     private void checkParamType(ExecutableElement method, ParamInspector inspector, TypeElement targetInterface) {
         List<? extends VariableElement> params = method.getParameters();
         for (VariableElement param : params) {
+            // the Reply is carried by the pipe, not by the inspected transport
+            if (isReply(param)) {
+                continue;
+            }
+
             if (inspector.isIllegal(param)) {
                 mMessager.printMessage(Diagnostic.Kind.ERROR, "Illegal parameter type:\n" +
                         "    interface : " + targetInterface.getQualifiedName() + "\n" +
@@ -157,29 +317,198 @@ public class ChannelProcessor extends AbstractProcessor {
         }
     }
 
-    private List<Pair<String, ExecutableElement>> generateAllMethodId(List<ExecutableElement> methods) {
+    private void checkLargePayload(List<ExecutableElement> methods, TypeElement targetInterface) {
+        for (ExecutableElement method : methods) {
+            for (VariableElement param : method.getParameters()) {
+                if (isLargePayload(param) && !isLargePayloadType(param)) {
+                    mMessager.printMessage(Diagnostic.Kind.ERROR, "@LargePayload only supports byte[] and ByteBuffer:\n" +
+                            "    interface : " + targetInterface.getQualifiedName() + "\n" +
+                            "    method    : " + method.getSimpleName() + "\n" +
+                            "    param     : " + param.toString() + "\n" +
+                            "    param type: " + param.asType().toString(), param);
+                }
+            }
+        }
+    }
+
+    private void checkTtl(List<ExecutableElement> methods, TypeElement targetInterface) {
+        for (ExecutableElement method : methods) {
+            Ttl ttl = method.getAnnotation(Ttl.class);
+            if (ttl != null && ttl.value() <= 0) {
+                mMessager.printMessage(Diagnostic.Kind.ERROR, "@Ttl must be positive:\n" +
+                        "    interface : " + targetInterface.getQualifiedName() + "\n" +
+                        "    method    : " + method.getSimpleName() + "\n" +
+                        "    ttl       : " + ttl.value(), method);
+            }
+        }
+    }
+
+    private void checkRunOn(List<ExecutableElement> methods, TypeElement targetInterface) {
+        for (ExecutableElement method : methods) {
+            RunOn runOn = method.getAnnotation(RunOn.class);
+            if (runOn != null && runOn.value().isEmpty()) {
+                mMessager.printMessage(Diagnostic.Kind.ERROR, "@RunOn must not be empty:\n" +
+                        "    interface : " + targetInterface.getQualifiedName() + "\n" +
+                        "    method    : " + method.getSimpleName(), method);
+            }
+        }
+    }
+
+    private boolean hasRunOn(ExecutableElement method) {
+        return method.getAnnotation(RunOn.class) != null;
+    }
+
+    private boolean hasRunOn(List<Pair<String, ExecutableElement>> methodIdPairs) {
+        for (Pair<String, ExecutableElement> methodPair : methodIdPairs) {
+            if (hasRunOn(methodPair.getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasTtl(ExecutableElement method) {
+        return method.getAnnotation(Ttl.class) != null;
+    }
+
+    // System.nanoTime() + ttl
+    private CodeBlock getDeadline(ExecutableElement method) {
+        long ttlNanos = TimeUnit.MILLISECONDS.toNanos(method.getAnnotation(Ttl.class).value());
+        return CodeBlock.of("$T.nanoTime() + $LL", System.class, ttlNanos);
+    }
+
+    private boolean isLargePayload(VariableElement param) {
+        return param.getAnnotation(LargePayload.class) != null;
+    }
+
+    // byte[] or ByteBuffer
+    private boolean isLargePayloadType(VariableElement param) {
+        TypeName type = TypeName.get(param.asType());
+        return type.equals(ArrayTypeName.of(TypeName.BYTE)) || type.equals(ClassName.get(ByteBuffer.class));
+    }
+
+    private boolean isReply(VariableElement param) {
+        TypeName type = TypeName.get(param.asType());
+        if (type instanceof ParameterizedTypeName) {
+            type = ((ParameterizedTypeName) type).rawType;
+        }
+        return type.equals(ClassName.get(Reply.class));
+    }
+
+    private boolean isRequest(ExecutableElement method) {
+        for (VariableElement param : method.getParameters()) {
+            if (isReply(param)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int generateChannelId(TypeElement targetInterface, Channel channel) {
+        String qualifiedName = targetInterface.getQualifiedName().toString();
+
+        int channelId = channel.id();
+        if (channelId == Header.NO_CHANNEL) {
+            // String.hashCode() is specified, so the id is stable between builds.
+            channelId = qualifiedName.hashCode();
+        }
+
+        if (channelId == Header.NO_CHANNEL) {
+            channelId = 1;
+        }
+
+        String conflict = mChannelIds.put(channelId, qualifiedName);
+        if (conflict != null && !conflict.equals(qualifiedName)) {
+            mMessager.printMessage(Diagnostic.Kind.ERROR, "Channel id conflict:\n" +
+                    "    channel id: " + channelId + "\n" +
+                    "    interface : " + conflict + "\n" +
+                    "    interface : " + qualifiedName + "\n" +
+                    "    Use @Channel(id = ...) to specify a different channel id.", targetInterface);
+        }
+
+        return channelId;
+    }
+
+    private void checkVersion(Channel channel, TypeElement targetInterface) {
+        if (channel.version() < 0 || channel.version() > (-1 >>> Header.VERSION_SHIFT)) {
+            mMessager.printMessage(Diagnostic.Kind.ERROR,
+                    "@Channel(version = " + channel.version() + ") is out of range [0, 255].", targetInterface);
+        }
+    }
+
+    private List<Pair<String, ExecutableElement>> generateAllMethodId(List<ExecutableElement> methods,
+                                                                       int version,
+                                                                       TypeElement targetInterface) {
         List<Pair<String, ExecutableElement>> methodIdPairs = new ArrayList<>(methods.size());
 
+        // method id -> signature, used to check method id conflict.
+        Map<Integer, String> signatures = new HashMap<>();
+
         for (int i = 1; i <= methods.size(); i++) {
             ExecutableElement method = methods.get(i - 1);
             methodIdPairs.add(new Pair<>(PREFIX_METHOD_ID + i, method));
+
+            String signature = getSignature(method);
+            String conflict = signatures.put(getMethodId(method, version), signature);
+            if (conflict != null) {
+                mMessager.printMessage(Diagnostic.Kind.ERROR, "Method id conflict:\n" +
+                        "    method: " + conflict + "\n" +
+                        "    method: " + signature + "\n" +
+                        "    Rename one of the methods.", targetInterface);
+            }
         }
 
         return methodIdPairs;
     }
 
-    private TypeSpec buildChannelHelper(TypeElement targetInterface, List<Pair<String, ExecutableElement>> methodIdPairs) {
+    // the method id is derived from the signature, so adding or reordering the methods doesn't change it.
+    private int getMethodId(ExecutableElement method, int version) {
+        // String.hashCode() is specified, so the id is stable between builds.
+        int fingerprint = getSignature(method).hashCode() & Header.FINGERPRINT_MASK;
+        if (fingerprint == 0) {
+            fingerprint = 1;
+        }
+
+        return (version << Header.VERSION_SHIFT) | fingerprint;
+    }
+
+    // the name and everything that changes the layout of the arguments, example:
+    // onProgress(int,@UseOrdinal java.util.concurrent.TimeUnit)@Ttl
+    private String getSignature(ExecutableElement method) {
+        StringBuilder signature = new StringBuilder(method.getSimpleName()).append('(');
+
+        List<? extends VariableElement> params = method.getParameters();
+        for (int i = 0; i < params.size(); i++) {
+            VariableElement param = params.get(i);
+            if (i > 0) {
+                signature.append(',');
+            }
+
+            if (useEnumOrdinal(param)) {
+                signature.append("@UseOrdinal ");
+            }
+
+            if (isLargePayload(param)) {
+                signature.append("@LargePayload ");
+            }
+
+            signature.append(mTypes.erasure(param.asType()));
+        }
+
+        signature.append(')');
+
+        if (hasTtl(method)) {
+            signature.append("@Ttl");
+        }
+
+        return signature.toString();
+    }
+
+    private TypeSpec buildChannelHelper(TypeElement targetInterface, int channelId, int version, List<Pair<String, ExecutableElement>> methodIdPairs) {
         String helperName = getChannelHelperName(targetInterface) + "__ChannelHelper";
 
-        ClassName string = ClassName.get("java.lang", "String");
-        FieldSpec KEY_CLASS_NAME = FieldSpec.builder(string, FIELD_KEY_CLASS_NAME, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
-                .initializer("$S", "__class_name")
-                .build();
-        FieldSpec KEY_METHOD_ID = FieldSpec.builder(string, FIELD_KEY_METHOD_ID, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
-                .initializer("$S", "__method_id")
-                .build();
-        FieldSpec CLASS_NAME = FieldSpec.builder(string, FIELD_CLASS_NAME, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
-                .initializer("$S", targetInterface.getQualifiedName())
+        FieldSpec CHANNEL_ID = FieldSpec.builder(TypeName.INT, FIELD_CHANNEL_ID, Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                .initializer("$L", channelId)
                 .build();
 
         // private default constructor
@@ -187,15 +516,34 @@ public class ChannelProcessor extends AbstractProcessor {
                 .addStatement("throw new AssertionError()")
                 .build();
 
+        // ChannelFactory<targetInterface>
+        ParameterizedTypeName ChannelFactory_targetInterface = ParameterizedTypeName.get(
+                ClassName.get(ChannelFactory.class), ClassName.get(targetInterface));
+
+        FieldSpec FACTORY = FieldSpec.builder(ChannelFactory_targetInterface, FIELD_FACTORY, Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                .initializer("new Factory()")
+                .build();
+
+        FieldSpec CODEC = FieldSpec.builder(ChannelCodec.class, FIELD_CODEC, Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                .initializer("new Codec()")
+                .build();
+
+        // the helper only depends on its own interface, the changes of the super interfaces recompile the
+        // interface, so it is processed again.
         TypeSpec.Builder builder = TypeSpec.classBuilder(helperName)
+                .addOriginatingElement(targetInterface)
                 .addMethod(defaultConstructor)
                 .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
-                .addField(KEY_CLASS_NAME)
-                .addField(KEY_METHOD_ID)
-                .addField(CLASS_NAME)
+                .addField(CHANNEL_ID)
+                .addField(FACTORY)
+                .addField(CODEC)
+                .addType(buildFactory(targetInterface, methodIdPairs))
+                .addType(buildCodec(methodIdPairs))
                 .addType(buildEmitter(targetInterface, methodIdPairs))
                 .addType(buildDispatcher(targetInterface, methodIdPairs))
-                .addFields(generateMethodIdField(methodIdPairs));
+                .addTypes(buildAllInvocation(methodIdPairs))
+                .addTypes(buildAllEnvelope(methodIdPairs))
+                .addFields(generateMethodIdField(methodIdPairs, version));
 
         return builder.build();
     }
@@ -207,22 +555,252 @@ public class ChannelProcessor extends AbstractProcessor {
         return qualifiedName.substring(packageName.length() + 1).replace('.', '$');
     }
 
-    private List<FieldSpec> generateMethodIdField(List<Pair<String, ExecutableElement>> methodIdPairs) {
-        List<FieldSpec> methodIdFieldList = new ArrayList<>(methodIdPairs.size());
+    private List<FieldSpec> generateMethodIdField(List<Pair<String, ExecutableElement>> methodIdPairs, int version) {
+        List<FieldSpec> methodIdFieldList = new ArrayList<>(methodIdPairs.size() * 2);
 
-        int i = 1;
         for (Pair<String, ExecutableElement> methodIdPair : methodIdPairs) {
+            String methodId = methodIdPair.getKey();
+            ExecutableElement method = methodIdPair.getValue();
+
             methodIdFieldList.add(
-                    FieldSpec.builder(TypeName.INT, methodIdPair.getKey(), Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
-                            .initializer("$L", i)
+                    FieldSpec.builder(TypeName.INT, methodId, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                            .addJavadoc("$L\n", getSignature(method))
+                            .initializer("$L", getMethodId(method, version))
+                            .build()
+            );
+
+            // the packed header of the map, boxed once, not for every message
+            methodIdFieldList.add(
+                    FieldSpec.builder(Long.class, getHeaderName(methodId), Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                            .initializer("$T.pack($N, $N)", Header.class, FIELD_CHANNEL_ID, methodId)
                             .build()
             );
-            i++;
         }
 
         return methodIdFieldList;
     }
 
+    private String getHeaderName(String methodId) {
+        return PREFIX_HEADER + methodId.substring(PREFIX_METHOD_ID.length());
+    }
+
+    private String getRunOnName(String methodId) {
+        return PREFIX_RUN_ON + methodId.substring(PREFIX_METHOD_ID.length());
+    }
+
+    // class: Factory, creates the generated Emitter and Dispatcher without reflection
+    private TypeSpec buildFactory(TypeElement targetInterface, List<Pair<String, ExecutableElement>> methodIdPairs) {
+        ClassName targetInterfaceName = ClassName.get(targetInterface);
+
+        // ChannelFactory<targetInterface>
+        ParameterizedTypeName ChannelFactory_targetInterface = ParameterizedTypeName.get(
+                ClassName.get(ChannelFactory.class), targetInterfaceName);
+
+        final String param_pipe = "pipe";
+        final String param_receiver = "receiver";
+
+        MethodSpec getChannelId = MethodSpec.methodBuilder("getChannelId")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(TypeName.INT)
+                .addStatement("return $N", FIELD_CHANNEL_ID)
+                .build();
+
+        MethodSpec getChannelName = MethodSpec.methodBuilder("getChannelName")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(String.class)
+                .addStatement("return $S", targetInterface.getQualifiedName().toString())
+                .build();
+
+        // the method name table
+        final String param_methodId = "methodId";
+        MethodSpec.Builder getMethodName = MethodSpec.methodBuilder("getMethodName")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(String.class)
+                .addParameter(TypeName.INT, param_methodId)
+                .beginControlFlow("switch ($N)", param_methodId);
+
+        for (Pair<String, ExecutableElement> methodPair : methodIdPairs) {
+            getMethodName.addCode("case $N:\n", methodPair.getKey())
+                    .addStatement("return $S", methodPair.getValue().getSimpleName().toString());
+        }
+
+        getMethodName.endControlFlow()
+                .addStatement("return null");
+
+        MethodSpec getCodec = MethodSpec.methodBuilder("getCodec")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(ChannelCodec.class)
+                .addStatement("return $N", FIELD_CODEC)
+                .build();
+
+        MethodSpec newEmitter = MethodSpec.methodBuilder("newEmitter")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(targetInterfaceName)
+                .addParameter(Emitter.class, param_pipe)
+                .addStatement("return new Emitter($N)", param_pipe)
+                .build();
+
+        MethodSpec newDispatcher = MethodSpec.methodBuilder("newDispatcher")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(Dispatcher.class)
+                .addParameter(targetInterfaceName, param_receiver)
+                .addStatement("return new Dispatcher($N)", param_receiver)
+                .build();
+
+        // the dispatcher is direct if no method has @RunOn
+        MethodSpec.Builder newDirectDispatcher = MethodSpec.methodBuilder("newDirectDispatcher")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(Dispatcher.class)
+                .addParameter(targetInterfaceName, param_receiver);
+
+        if (hasRunOn(methodIdPairs)) {
+            newDirectDispatcher.addStatement("return new Dispatcher($N, false)", param_receiver);
+        } else {
+            newDirectDispatcher.addStatement("return new Dispatcher($N)", param_receiver);
+        }
+
+        return TypeSpec.classBuilder("Factory")
+                .addSuperinterface(ChannelFactory_targetInterface)
+                .addModifiers(Modifier.STATIC, Modifier.FINAL)
+                .addMethod(getChannelId)
+                .addMethod(getChannelName)
+                .addMethod(getMethodName.build())
+                .addMethod(getCodec)
+                .addMethod(newEmitter)
+                .addMethod(newDispatcher)
+                .addMethod(newDirectDispatcher.build())
+                .build();
+    }
+
+    // class: Codec, reads the arguments written by Invocation_N.writeTo(WireWriter)
+    private TypeSpec buildCodec(List<Pair<String, ExecutableElement>> methodIdPairs) {
+        final String param_methodId = "methodId";
+        final String param_reader = "reader";
+
+        MethodSpec getChannelId = MethodSpec.methodBuilder("getChannelId")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(TypeName.INT)
+                .addStatement("return $N", FIELD_CHANNEL_ID)
+                .build();
+
+        MethodSpec.Builder read = MethodSpec.methodBuilder("read")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(Invocation.class)
+                .addParameter(TypeName.INT, param_methodId)
+                .addParameter(WireReader.class, param_reader)
+                .beginControlFlow("switch ($N)", param_methodId);
+
+        for (Pair<String, ExecutableElement> methodPair : methodIdPairs) {
+            String methodId = methodPair.getKey();
+            ExecutableElement method = methodPair.getValue();
+
+            // the arguments are evaluated from left to right, which is the order they were written
+            CodeBlock.Builder args = CodeBlock.builder();
+            for (VariableElement param : method.getParameters()) {
+                if (!args.isEmpty()) {
+                    args.add(", ");
+                }
+                args.add(readParam(param, param_reader));
+            }
+
+            read.addCode("case $N:\n", methodId);
+            if (hasTtl(method)) {
+                // the deadline is written after the arguments
+                read.addStatement("return $N.obtain().set($L).withDeadline($N.readLong())",
+                        getInvocationName(methodId), args.build(), param_reader);
+            } else {
+                read.addStatement("return $N.obtain().set($L)", getInvocationName(methodId), args.build());
+            }
+        }
+
+        read.endControlFlow()
+                .addStatement("return null");
+
+        return TypeSpec.classBuilder("Codec")
+                .addSuperinterface(ChannelCodec.class)
+                .addModifiers(Modifier.STATIC, Modifier.FINAL)
+                .addMethod(getChannelId)
+                .addMethod(read.build())
+                .build();
+    }
+
+    private CodeBlock readParam(VariableElement param, String variable_reader) {
+        TypeName type = TypeName.get(param.asType());
+
+        if (useEnumOrdinal(param)) {
+            return CodeBlock.of("$T.values()[$N.readInt()]", type, variable_reader);
+        }
+
+        if (isLargePayload(param)) {
+            if (type.equals(ClassName.get(ByteBuffer.class))) {
+                return CodeBlock.of("$N.readLargePayload()", variable_reader);
+            }
+
+            return CodeBlock.of("$T.toByteArray($N.readLargePayload())", ByteBuffers.class, variable_reader);
+        }
+
+        if (isReply(param)) {
+            return CodeBlock.of("($T) $N.readReply()", type, variable_reader);
+        }
+
+        String wireType = getWireType(type);
+        if (wireType == null) {
+            return CodeBlock.of("($T) $N.readValue()", type, variable_reader);
+        }
+
+        return CodeBlock.of("$N.read$L()", variable_reader, wireType);
+    }
+
+    private void writeParam(MethodSpec.Builder builder, VariableElement param, String variable_writer) {
+        TypeName type = TypeName.get(param.asType());
+        String name = param.getSimpleName().toString();
+
+        if (useEnumOrdinal(param)) {
+            builder.addStatement("$N.writeInt(this.$N.ordinal())", variable_writer, name);
+            return;
+        }
+
+        if (isLargePayload(param)) {
+            if (type.equals(ClassName.get(ByteBuffer.class))) {
+                builder.addStatement("$N.writeLargePayload(this.$N)", variable_writer, name);
+            } else {
+                builder.addStatement("$N.writeLargePayload($T.wrap(this.$N))", variable_writer, ByteBuffers.class, name);
+            }
+            return;
+        }
+
+        if (isReply(param)) {
+            builder.addStatement("$N.writeReply(this.$N)", variable_writer, name);
+            return;
+        }
+
+        String wireType = getWireType(type);
+        builder.addStatement("$N.write$L(this.$N)", variable_writer, wireType == null ? "Value" : wireType, name);
+    }
+
+    // the typed method of WireWriter/WireReader, null if the type is written by writeValue(Object)
+    private String getWireType(TypeName type) {
+        if (type.isPrimitive()) {
+            String name = type.toString();
+            return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        }
+
+        if (type.equals(ClassName.get(String.class))) {
+            return "String";
+        }
+
+        return null;
+    }
+
     private TypeSpec buildEmitter(TypeElement targetInterface, List<Pair<String, ExecutableElement>> methodIdPairs) {
         TypeSpec.Builder builder = TypeSpec.classBuilder("Emitter")
                 .addSuperinterface(targetInterface.asType())
@@ -236,7 +814,12 @@ public class ChannelProcessor extends AbstractProcessor {
         FieldSpec emitter = FieldSpec.builder(Emitter, field_emitter, Modifier.PRIVATE)
                 .build();
 
-        builder.addField(emitter);
+        // null if the pipe is not a TypedEmitter
+        FieldSpec typedEmitter = FieldSpec.builder(TypedEmitter.class, FIELD_TYPED_EMITTER, Modifier.PRIVATE)
+                .build();
+
+        builder.addField(emitter)
+                .addField(typedEmitter);
 
         // constructor
         final String param_emitter = "emitter";
@@ -245,13 +828,16 @@ public class ChannelProcessor extends AbstractProcessor {
                 .addModifiers(Modifier.PUBLIC)
                 .addParameter(Emitter, param_emitter)
                 .addStatement("this.$N = $N", field_emitter, param_emitter)
+                .beginControlFlow("if ($N instanceof $T)", param_emitter, TypedEmitter.class)
+                .addStatement("this.$N = ($T) $N", FIELD_TYPED_EMITTER, TypedEmitter.class, param_emitter)
+                .endControlFlow()
                 .build();
 
         builder.addMethod(constructor);
 
-        // method: private void sendMessage(int id, Map<String, Object> args)
+        // method: private void sendMessage(Long header, Map<String, Object> args)
         final String method_sendMessage = "sendMessage";
-        final String param_id = "id";
+        final String param_header = "header";
         final String param_args = "args";
 
         // Map<String, Object>
@@ -264,10 +850,9 @@ public class ChannelProcessor extends AbstractProcessor {
         MethodSpec sendMessage = MethodSpec.methodBuilder(method_sendMessage)
                 .addModifiers(Modifier.PRIVATE)
                 .returns(TypeName.VOID)
-                .addParameter(TypeName.INT, param_id)
+                .addParameter(Long.class, param_header)
                 .addParameter(type_args, param_args)
-                .addStatement("$N.put($N, $N)", param_args, FIELD_KEY_CLASS_NAME, FIELD_CLASS_NAME)
-                .addStatement("$N.put($N, $N)", param_args, FIELD_KEY_METHOD_ID, param_id)
+                .addStatement("$N.put($T.KEY_HEADER, $N)", param_args, Header.class, param_header)
                 .addStatement("$N.emit($N)", field_emitter, param_args)
                 .build();
 
@@ -295,21 +880,387 @@ public class ChannelProcessor extends AbstractProcessor {
         );
 
         final String variable_args = "args";
+        CodeBlock invocation = CodeBlock.of("$N.obtain().set($L)", getInvocationName(methodId), getArgs(method, ""));
+        if (hasTtl(method)) {
+            invocation = CodeBlock.of("$L.withDeadline($L)", invocation, getDeadline(method));
+        }
+
         MethodSpec.Builder builder = MethodSpec.overriding(methodPair.getValue())
-                .addStatement("$T $N = new $T<>()", type_args, variable_args, HashMap.class);
+                .beginControlFlow("if (this.$N != null)", FIELD_TYPED_EMITTER)
+                .addStatement("this.$N.emit($L)", FIELD_TYPED_EMITTER, invocation)
+                .addStatement("return")
+                .endControlFlow()
+                .addStatement("$T $N = $N.obtain()", type_args, variable_args, getEnvelopeName(methodId));
+
+        putAllParam(builder, method, variable_args, "");
+        putFlags(builder, method, variable_args);
+
+        if (hasTtl(method)) {
+            builder.addStatement("$N.put($T.KEY_DEADLINE, $L)", variable_args, Header.class, getDeadline(method));
+        }
 
+        return builder.addStatement("sendMessage($N, $N)", getHeaderName(methodId), variable_args)
+                .build();
+    }
+
+    private void putAllParam(MethodSpec.Builder builder, ExecutableElement method, String variable_map, String prefix) {
         List<? extends VariableElement> params = method.getParameters();
         for (VariableElement param : params) {
             if (useEnumOrdinal(param)) {
-                builder.addStatement("$N.put($S, $N.ordinal())", variable_args, param.getSimpleName(), param.getSimpleName());
+                builder.addStatement("$N.put($S, $N.ordinal())", variable_map, param.getSimpleName(), prefix + param.getSimpleName());
                 continue;
             }
 
-            builder.addStatement("$N.put($S, $N)", variable_args, param.getSimpleName(), param.getSimpleName());
+            builder.addStatement("$N.put($S, $N)", variable_map, param.getSimpleName(), prefix + param.getSimpleName());
         }
+    }
 
-        return builder.addStatement("sendMessage($N, $N)", methodId, variable_args)
-                .build();
+    // the flags are only put when not 0, most of methods have no flags
+    private void putFlags(MethodSpec.Builder builder, ExecutableElement method, String variable_map) {
+        if (hasFlags(method)) {
+            builder.addStatement("$N.put($T.KEY_FLAGS, $L)", variable_map, Header.class, getFlags(method));
+        }
+    }
+
+    private boolean hasFlags(ExecutableElement method) {
+        return method.getAnnotation(Conflate.class) != null
+                || method.getAnnotation(Urgent.class) != null
+                || method.getAnnotation(Async.class) != null
+                || isRequest(method);
+    }
+
+    private CodeBlock getFlags(ExecutableElement method) {
+        List<CodeBlock> flags = new ArrayList<>();
+
+        if (method.getAnnotation(Conflate.class) != null) {
+            flags.add(CodeBlock.of("$T.FLAG_CONFLATE", Header.class));
+        }
+
+        if (method.getAnnotation(Urgent.class) != null) {
+            flags.add(CodeBlock.of("$T.FLAG_URGENT", Header.class));
+        }
+
+        if (method.getAnnotation(Async.class) != null) {
+            flags.add(CodeBlock.of("$T.FLAG_ASYNC", Header.class));
+        }
+
+        if (isRequest(method)) {
+            flags.add(CodeBlock.of("$T.FLAG_REQUEST", Header.class));
+        }
+
+        if (flags.isEmpty()) {
+            return CodeBlock.of("0");
+        }
+
+        return CodeBlock.join(flags, " | ");
+    }
+
+    private String getArgs(ExecutableElement method, String prefix) {
+        StringBuilder argsBuilder = new StringBuilder();
+        for (VariableElement param : method.getParameters()) {
+            if (argsBuilder.length() > 0) {
+                argsBuilder.append(", ");
+            }
+
+            argsBuilder.append(prefix)
+                    .append(param.getSimpleName());
+        }
+
+        return argsBuilder.toString();
+    }
+
+    private String getInvocationName(String methodId) {
+        return PREFIX_INVOCATION + methodId.substring(PREFIX_METHOD_ID.length());
+    }
+
+    private String getEnvelopeName(String methodId) {
+        return PREFIX_ENVELOPE + methodId.substring(PREFIX_METHOD_ID.length());
+    }
+
+    private List<TypeSpec> buildAllEnvelope(List<Pair<String, ExecutableElement>> methodIdPairs) {
+        List<TypeSpec> envelopes = new ArrayList<>(methodIdPairs.size());
+
+        for (Pair<String, ExecutableElement> methodPair : methodIdPairs) {
+            envelopes.add(buildEnvelope(methodPair));
+        }
+
+        return envelopes;
+    }
+
+    // class: Envelope_N, one for each method, a FixedEnvelope with a slot for every key of the map
+    private TypeSpec buildEnvelope(Pair<String, ExecutableElement> methodPair) {
+        final String methodId = methodPair.getKey();
+        final ExecutableElement method = methodPair.getValue();
+
+        final String envelopeName = getEnvelopeName(methodId);
+        final ClassName envelopeType = ClassName.bestGuess(envelopeName);
+
+        // the params, then the header entries in the order of the emitter
+        List<CodeBlock> keys = new ArrayList<>();
+        for (VariableElement param : method.getParameters()) {
+            keys.add(CodeBlock.of("$S", param.getSimpleName()));
+        }
+
+        if (hasFlags(method)) {
+            keys.add(CodeBlock.of("$T.KEY_FLAGS", Header.class));
+        }
+
+        if (hasTtl(method)) {
+            keys.add(CodeBlock.of("$T.KEY_DEADLINE", Header.class));
+        }
+
+        keys.add(CodeBlock.of("$T.KEY_HEADER", Header.class));
+        keys.add(CodeBlock.of("$T.KEY_EMIT_TIME", Header.class));
+
+        TypeSpec.Builder builder = TypeSpec.classBuilder(envelopeName)
+                .superclass(FixedEnvelope.class)
+                .addModifiers(Modifier.STATIC, Modifier.FINAL);
+
+        // field: KEYS, POOL
+        final String field_keys = "KEYS";
+        final String field_pool = "POOL";
+        ParameterizedTypeName ObjectPool_envelope = ParameterizedTypeName.get(ClassName.get(ObjectPool.class), envelopeType);
+
+        builder.addField(FieldSpec.builder(String[].class, field_keys, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .initializer("{$L}", CodeBlock.join(keys, ", "))
+                .build())
+                .addField(FieldSpec.builder(ObjectPool_envelope, field_pool, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                        .initializer("new $T<>()", ObjectPool.class)
+                        .build());
+
+        builder.addMethod(MethodSpec.constructorBuilder()
+                .addStatement("super($N)", field_keys)
+                .build());
+
+        // method: obtain()
+        final String variable_envelope = "envelope";
+        builder.addMethod(MethodSpec.methodBuilder("obtain")
+                .addModifiers(Modifier.STATIC)
+                .returns(envelopeType)
+                .addStatement("$T $N = $N.acquire()", envelopeType, variable_envelope, field_pool)
+                .beginControlFlow("if ($N == null)", variable_envelope)
+                .addStatement("return new $T()", envelopeType)
+                .endControlFlow()
+                .addStatement("$N.reuse()", variable_envelope)
+                .addStatement("return $N", variable_envelope)
+                .build());
+
+        // method: identityIndexOf(Object key), the keys are constants, so they are interned
+        final String param_key = "key";
+        MethodSpec.Builder identityIndexOf = MethodSpec.methodBuilder("identityIndexOf")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PROTECTED)
+                .returns(TypeName.INT)
+                .addParameter(Object.class, param_key);
+
+        for (int i = 0; i < keys.size(); i++) {
+            identityIndexOf.beginControlFlow("if ($N == $L)", param_key, keys.get(i))
+                    .addStatement("return $L", i)
+                    .endControlFlow();
+        }
+
+        builder.addMethod(identityIndexOf.addStatement("return -1").build());
+
+        // method: release()
+        builder.addMethod(MethodSpec.methodBuilder("release")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PROTECTED)
+                .addStatement("$N.release(this)", field_pool)
+                .build());
+
+        return builder.build();
+    }
+
+    private List<TypeSpec> buildAllInvocation(List<Pair<String, ExecutableElement>> methodIdPairs) {
+        List<TypeSpec> invocations = new ArrayList<>(methodIdPairs.size());
+
+        for (Pair<String, ExecutableElement> methodPair : methodIdPairs) {
+            invocations.add(buildInvocation(methodPair));
+        }
+
+        return invocations;
+    }
+
+    // class: Invocation_N, one for each method, primitive params are kept as primitive fields
+    private TypeSpec buildInvocation(Pair<String, ExecutableElement> methodPair) {
+        final String methodId = methodPair.getKey();
+        final ExecutableElement method = methodPair.getValue();
+
+        TypeSpec.Builder builder = TypeSpec.classBuilder(getInvocationName(methodId))
+                .addSuperinterface(Invocation.class)
+                .addModifiers(Modifier.STATIC, Modifier.FINAL);
+
+        final String invocationName = getInvocationName(methodId);
+        final ClassName invocationType = ClassName.bestGuess(invocationName);
+
+        // field: POOL
+        final String field_pool = "POOL";
+        ParameterizedTypeName ObjectPool_invocation = ParameterizedTypeName.get(ClassName.get(ObjectPool.class), invocationType);
+
+        builder.addField(FieldSpec.builder(ObjectPool_invocation, field_pool, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .initializer("new $T<>()", ObjectPool.class)
+                .build());
+
+        // fields & method: set(params)
+        MethodSpec.Builder set = MethodSpec.methodBuilder("set")
+                .returns(invocationType);
+
+        // method: recycle()
+        MethodSpec.Builder recycle = MethodSpec.methodBuilder("recycle")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC);
+
+        for (VariableElement param : method.getParameters()) {
+            String name = param.getSimpleName().toString();
+            builder.addField(TypeName.get(param.asType()), name);
+            set.addParameter(TypeName.get(param.asType()), name)
+                    .addStatement("this.$N = $N", name, name);
+
+            if (!param.asType().getKind().isPrimitive()) {
+                // don't leak the arguments
+                recycle.addStatement("this.$N = null", name);
+            }
+        }
+
+        // field: _emitTime, prefixed, so it doesn't conflict with the fields of the params
+        final String field_emitTime = "_emitTime";
+        builder.addField(TypeName.LONG, field_emitTime);
+        recycle.addStatement("this.$N = 0", field_emitTime);
+
+        builder.addMethod(set.addStatement("return this").build());
+        builder.addMethod(recycle.addStatement("$N.release(this)", field_pool).build());
+
+        // field & method: withDeadline(long _deadline)
+        final String field_deadline = "_deadline";
+        if (hasTtl(method)) {
+            builder.addField(TypeName.LONG, field_deadline);
+            builder.addMethod(MethodSpec.methodBuilder("withDeadline")
+                    .returns(invocationType)
+                    .addParameter(TypeName.LONG, field_deadline)
+                    .addStatement("this.$N = $N", field_deadline, field_deadline)
+                    .addStatement("return this")
+                    .build());
+        }
+
+        // method: obtain()
+        final String variable_invocation = "invocation";
+
+        builder.addMethod(MethodSpec.methodBuilder("obtain")
+                .addModifiers(Modifier.STATIC)
+                .returns(invocationType)
+                .addStatement("$T $N = $N.acquire()", invocationType, variable_invocation, field_pool)
+                .beginControlFlow("if ($N == null)", variable_invocation)
+                .addStatement("return new $T()", invocationType)
+                .endControlFlow()
+                .addStatement("return $N", variable_invocation)
+                .build());
+
+        // method: getChannelId()
+        builder.addMethod(MethodSpec.methodBuilder("getChannelId")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(TypeName.INT)
+                .addStatement("return $N", FIELD_CHANNEL_ID)
+                .build());
+
+        // method: getMethodId()
+        builder.addMethod(MethodSpec.methodBuilder("getMethodId")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(TypeName.INT)
+                .addStatement("return $N", methodId)
+                .build());
+
+        // method: getFlags()
+        builder.addMethod(MethodSpec.methodBuilder("getFlags")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(TypeName.INT)
+                .addStatement("return $L", getFlags(method))
+                .build());
+
+        // method: getDeadline()
+        builder.addMethod(MethodSpec.methodBuilder("getDeadline")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(TypeName.LONG)
+                .addStatement(hasTtl(method) ? "return this._deadline" : "return 0")
+                .build());
+
+        // method: setDeadline(long deadline)
+        MethodSpec.Builder setDeadline = MethodSpec.methodBuilder("setDeadline")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(TypeName.LONG, "deadline");
+
+        if (hasTtl(method)) {
+            setDeadline.addStatement("this._deadline = deadline");
+        }
+
+        builder.addMethod(setDeadline.build());
+
+        // method: getEmitTime()
+        builder.addMethod(MethodSpec.methodBuilder("getEmitTime")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(TypeName.LONG)
+                .addStatement("return this.$N", field_emitTime)
+                .build());
+
+        // method: setEmitTime(long emitTime)
+        builder.addMethod(MethodSpec.methodBuilder("setEmitTime")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(TypeName.LONG, "emitTime")
+                .addStatement("this.$N = emitTime", field_emitTime)
+                .build());
+
+        // method: toMap()
+        ParameterizedTypeName type_map = ParameterizedTypeName.get(
+                ClassName.get(Map.class),
+                ClassName.get(String.class),
+                ClassName.get(Object.class)
+        );
+
+        final String variable_map = "map";
+
+        MethodSpec.Builder toMap = MethodSpec.methodBuilder("toMap")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(type_map)
+                .addStatement("$T $N = $N.obtain()", type_map, variable_map, getEnvelopeName(methodId));
+
+        putAllParam(toMap, method, variable_map, "this.");
+        putFlags(toMap, method, variable_map);
+
+        if (hasTtl(method)) {
+            toMap.addStatement("$N.put($T.KEY_DEADLINE, this.$N)", variable_map, Header.class, field_deadline);
+        }
+
+        toMap.addStatement("$N.put($T.KEY_HEADER, $N)", variable_map, Header.class, getHeaderName(methodId))
+                .addStatement("return $N", variable_map);
+
+        builder.addMethod(toMap.build());
+
+        // method: writeTo(WireWriter writer)
+        final String param_writer = "writer";
+
+        MethodSpec.Builder writeTo = MethodSpec.methodBuilder("writeTo")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(WireWriter.class, param_writer);
+
+        for (VariableElement param : method.getParameters()) {
+            writeParam(writeTo, param, param_writer);
+        }
+
+        if (hasTtl(method)) {
+            writeTo.addStatement("$N.writeLong(this.$N)", param_writer, field_deadline);
+        }
+
+        builder.addMethod(writeTo.build());
+
+        return builder.build();
     }
 
     private boolean useEnumOrdinal(VariableElement param) {
@@ -336,7 +1287,7 @@ public class ChannelProcessor extends AbstractProcessor {
 
         // class: Dispatcher
         TypeSpec.Builder builder = TypeSpec.classBuilder("Dispatcher")
-                .addSuperinterface(ClassName.get(Dispatcher.class))
+                .addSuperinterface(ClassName.get(TypedDispatcher.class))
                 .addModifiers(Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL);
 
         // field
@@ -351,16 +1302,55 @@ public class ChannelProcessor extends AbstractProcessor {
         // constructor
         final String param_callback = "callback";
 
-        MethodSpec constructor = MethodSpec.constructorBuilder()
-                .addModifiers(Modifier.PUBLIC)
-                .addParameter(ClassName.get(targetInterface), param_callback)
-                .addStatement("this.$N = new $T<>($N)", field_callbackWeakReference, WeakReference.class, param_callback)
-                .build();
+        if (hasRunOn(methodIdPairs)) {
+            // the targets of the @RunOn methods, looked up once
+            for (Pair<String, ExecutableElement> methodPair : methodIdPairs) {
+                ExecutableElement method = methodPair.getValue();
+                if (!hasRunOn(method)) {
+                    continue;
+                }
+
+                builder.addField(FieldSpec.builder(ExecutorRegistry.Target.class, getRunOnName(methodPair.getKey()))
+                        .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                        .initializer("$T.getTarget($S)", ExecutorRegistry.class, method.getAnnotation(RunOn.class).value())
+                        .build());
+            }
 
-        builder.addMethod(constructor);
+            // false: the @RunOn methods are called on the dispatching thread
+            final String param_runOnEnabled = "runOnEnabled";
+
+            builder.addField(FieldSpec.builder(TypeName.BOOLEAN, FIELD_RUN_ON_ENABLED)
+                    .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
+                    .build());
+
+            builder.addMethod(MethodSpec.constructorBuilder()
+                    .addModifiers(Modifier.PUBLIC)
+                    .addParameter(ClassName.get(targetInterface), param_callback)
+                    .addStatement("this($N, true)", param_callback)
+                    .build());
+
+            builder.addMethod(MethodSpec.constructorBuilder()
+                    .addModifiers(Modifier.PUBLIC)
+                    .addParameter(ClassName.get(targetInterface), param_callback)
+                    .addParameter(TypeName.BOOLEAN, param_runOnEnabled)
+                    .addStatement("this.$N = new $T<>($N)", field_callbackWeakReference, WeakReference.class, param_callback)
+                    .addStatement("this.$N = $N", FIELD_RUN_ON_ENABLED, param_runOnEnabled)
+                    .build());
+        } else {
+            MethodSpec constructor = MethodSpec.constructorBuilder()
+                    .addModifiers(Modifier.PUBLIC)
+                    .addParameter(ClassName.get(targetInterface), param_callback)
+                    .addStatement("this.$N = new $T<>($N)", field_callbackWeakReference, WeakReference.class, param_callback)
+                    .build();
+
+            builder.addMethod(constructor);
+        }
 
         builder.addMethod(overrideMethod_match());
         builder.addMethod(overrideMethod_dispatch(targetInterface, methodIdPairs));
+        builder.addMethod(overrideMethod_matchInvocation());
+        builder.addMethod(overrideMethod_dispatchInvocation(targetInterface, methodIdPairs));
+        builder.addMethod(overrideMethod_getCodec());
 
         return builder.build();
     }
@@ -382,7 +1372,7 @@ public class ChannelProcessor extends AbstractProcessor {
                 .returns(boolean.class)
                 .addAnnotation(ClassName.get(Override.class))
                 .addParameter(type_data, param_data)
-                .addStatement("return $N.equals($N.get($N))", FIELD_CLASS_NAME, param_data, FIELD_KEY_CLASS_NAME);
+                .addStatement("return $T.getChannelId($N) == $N", Header.class, param_data, FIELD_CHANNEL_ID);
 
         return builder.build();
     }
@@ -392,7 +1382,7 @@ public class ChannelProcessor extends AbstractProcessor {
                                                List<Pair<String, ExecutableElement>> methodIdPairs) {
         final String methodName = "dispatch";
         final String param_data = "data";
-        final String variable_methodId = "methodId";
+        final String variable_header = "header";
         final String variable_callback = "callback";
         final String field_callbackWeakReference = "callbackWeakReference";
 
@@ -408,18 +1398,104 @@ public class ChannelProcessor extends AbstractProcessor {
                 .returns(boolean.class)
                 .addAnnotation(ClassName.get(Override.class))
                 .addParameter(type_data, param_data)
-                .beginControlFlow("if (!match($N))", param_data)
+                .addStatement("$T $N = $T.getHeader($N)", TypeName.LONG, variable_header, Header.class, param_data)
+                .beginControlFlow("if ($T.getChannelId($N) != $N)", Header.class, variable_header, FIELD_CHANNEL_ID)
                 .addStatement("return false")
                 .endControlFlow()
-                .addStatement("$T $N = ($T) $N.get($N)", TypeName.INT, variable_methodId, TypeName.INT, param_data, FIELD_KEY_METHOD_ID)
                 .addStatement("$T $N = $N.get()", targetInterface, variable_callback, field_callbackWeakReference)
                 .beginControlFlow("if ($N == null)", variable_callback)
                 .addStatement("return false")
                 .endControlFlow();
 
-        builder.beginControlFlow("switch ($N)", variable_methodId);
+        // a method id of another schema doesn't match any case
+        builder.beginControlFlow("switch ($T.getMethodId($N))", Header.class, variable_header);
 
-        buildAllSwitchCase(builder, methodIdPairs, param_data, variable_callback);
+        buildAllSwitchCase(builder, targetInterface, methodIdPairs, param_data, variable_callback);
+
+        builder.endControlFlow()
+                .addStatement("return false");
+
+        return builder.build();
+    }
+
+    // override: pubic boolean match(Invocation invocation)
+    private MethodSpec overrideMethod_matchInvocation() {
+        final String methodName = "match";
+        final String param_invocation = "invocation";
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder(methodName)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(boolean.class)
+                .addAnnotation(ClassName.get(Override.class))
+                .addParameter(Invocation.class, param_invocation)
+                .addStatement("return $N.getChannelId() == $N", param_invocation, FIELD_CHANNEL_ID);
+
+        return builder.build();
+    }
+
+    // override: pubic ChannelCodec getCodec(int channelId)
+    private MethodSpec overrideMethod_getCodec() {
+        final String param_channelId = "channelId";
+
+        return MethodSpec.methodBuilder("getCodec")
+                .addModifiers(Modifier.PUBLIC)
+                .returns(ChannelCodec.class)
+                .addAnnotation(ClassName.get(Override.class))
+                .addParameter(TypeName.INT, param_channelId)
+                .addStatement("return $N == $N ? $N : null", param_channelId, FIELD_CHANNEL_ID, FIELD_CODEC)
+                .build();
+    }
+
+    // override: pubic boolean dispatch(Invocation invocation)
+    private MethodSpec overrideMethod_dispatchInvocation(TypeElement targetInterface,
+                                                         List<Pair<String, ExecutableElement>> methodIdPairs) {
+        final String methodName = "dispatch";
+        final String param_invocation = "invocation";
+        final String variable_callback = "callback";
+        final String field_callbackWeakReference = "callbackWeakReference";
+
+        MethodSpec.Builder builder = MethodSpec.methodBuilder(methodName)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(boolean.class)
+                .addAnnotation(ClassName.get(Override.class))
+                .addParameter(Invocation.class, param_invocation)
+                .beginControlFlow("if ($N.getChannelId() != $N)", param_invocation, FIELD_CHANNEL_ID)
+                .addStatement("return false")
+                .endControlFlow()
+                .addStatement("$T $N = $N.get()", targetInterface, variable_callback, field_callbackWeakReference)
+                .beginControlFlow("if ($N == null)", variable_callback)
+                .addStatement("return false")
+                .endControlFlow();
+
+        builder.beginControlFlow("switch ($N.getMethodId())", param_invocation);
+
+        for (Pair<String, ExecutableElement> methodPair : methodIdPairs) {
+            String methodId = methodPair.getKey();
+            ExecutableElement method = methodPair.getValue();
+            String invocationName = getInvocationName(methodId);
+            String variable_name = methodId + "_invocation";
+
+            builder.addCode("case $N:\n", methodId);
+
+            // the no-param methods don't read the invocation
+            if (!method.getParameters().isEmpty()) {
+                builder.addStatement("$N $N = ($N) $N", invocationName, variable_name, invocationName, param_invocation);
+            }
+
+            if (!hasRunOn(method)) {
+                builder.addStatement("$N.$N($L)", variable_callback, method.getSimpleName(), getArgs(method, variable_name + "."))
+                        .addStatement("return true");
+                continue;
+            }
+
+            // the pipe recycles the invocation after dispatched, copy the arguments for the other thread
+            for (VariableElement param : method.getParameters()) {
+                builder.addStatement("final $T $N = $N.$N", param.asType(), methodId + "_" + param.getSimpleName(),
+                        variable_name, param.getSimpleName().toString());
+            }
+
+            addRunOnCall(builder, targetInterface, method, methodId, variable_callback, getArgs(method, methodId + "_"));
+        }
 
         builder.endControlFlow()
                 .addStatement("return false");
@@ -428,15 +1504,17 @@ public class ChannelProcessor extends AbstractProcessor {
     }
 
     private void buildAllSwitchCase(MethodSpec.Builder builder,
+                                    TypeElement targetInterface,
                                     List<Pair<String, ExecutableElement>> methodIdPairs,
                                     String param_data,
                                     String variable_callback) {
         for (Pair<String, ExecutableElement> methodPair : methodIdPairs) {
-            buildSwitchCase(builder, methodPair, param_data, variable_callback);
+            buildSwitchCase(builder, targetInterface, methodPair, param_data, variable_callback);
         }
     }
 
     private void buildSwitchCase(MethodSpec.Builder builder,
+                                 TypeElement targetInterface,
                                  Pair<String, ExecutableElement> methodPair,
                                  String param_data,
                                  String variable_callback) {
@@ -451,13 +1529,16 @@ public class ChannelProcessor extends AbstractProcessor {
             argsBuilder.append(variable_name)
                     .append(",");
 
+            // captured by the Runnable of @RunOn
+            String modifier = hasRunOn(method) ? "final " : "";
+
             if (useEnumOrdinal(param)) {
-                builder.addStatement("$T $N = $T.values()[(int) $N.get($S)]",
+                builder.addStatement(modifier + "$T $N = $T.values()[(int) $N.get($S)]",
                         param.asType(), variable_name, param.asType(), param_data, param.getSimpleName());
                 continue;
             }
 
-            builder.addStatement("$T $N = ($T) $N.get($S)",
+            builder.addStatement(modifier + "$T $N = ($T) $N.get($S)",
                     param.asType(), variable_name, param.asType(), param_data, param.getSimpleName());
         }
 
@@ -467,7 +1548,44 @@ public class ChannelProcessor extends AbstractProcessor {
             args = argsBuilder.substring(0, argsBuilder.length() - 1/*去掉参数列表中最后一个多余的逗号*/);
         }
 
+        if (hasRunOn(method)) {
+            addRunOnCall(builder, targetInterface, method, methodId, variable_callback, args);
+            return;
+        }
+
         builder.addStatement("$N.$N(" + args + ")", variable_callback, method.getSimpleName())
                 .addStatement("return true");
     }
+
+    // Executor executor = runOnEnabled ? RUN_ON_N.resolve() : null;
+    // if (executor != null) { executor.execute(new Runnable() {...}); return true; }
+    // callback.method(args);
+    private void addRunOnCall(MethodSpec.Builder builder,
+                              TypeElement targetInterface,
+                              ExecutableElement method,
+                              String methodId,
+                              String variable_callback,
+                              String args) {
+        final String variable_executor = methodId + "_executor";
+        final String variable_receiver = methodId + "_callback";
+
+        TypeSpec runnable = TypeSpec.anonymousClassBuilder("")
+                .addSuperinterface(Runnable.class)
+                .addMethod(MethodSpec.methodBuilder("run")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .addStatement("$N.$N($L)", variable_receiver, method.getSimpleName(), args)
+                        .build())
+                .build();
+
+        builder.addStatement("$T $N = $N ? $N.resolve() : null", Executor.class, variable_executor,
+                FIELD_RUN_ON_ENABLED, getRunOnName(methodId))
+                .beginControlFlow("if ($N != null)", variable_executor)
+                .addStatement("final $T $N = $N", targetInterface, variable_receiver, variable_callback)
+                .addStatement("$N.execute($L)", variable_executor, runnable)
+                .addStatement("return true")
+                .endControlFlow()
+                .addStatement("$N.$N($L)", variable_callback, method.getSimpleName(), args)
+                .addStatement("return true");
+    }
 }